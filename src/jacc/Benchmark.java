@@ -0,0 +1,225 @@
+// Copyright (c) Mark P Jones, OGI School of Science & Engineering
+// Subject to conditions of distribution and use; see LICENSE for details
+// 
+
+package jacc;
+
+import java.io.PrintWriter;
+
+import compiler.Handler;
+import compiler.SimpleHandler;
+
+import jacc.grammar.Finitary;
+import jacc.grammar.Grammar;
+import jacc.grammar.LALRMachine;
+import jacc.grammar.LookaheadMachine;
+import jacc.grammar.Nullable;
+
+/** A simple benchmark for the table construction phases of jacc.  For
+ *  each input grammar, and each of the requested machine types, we
+ *  report the size of the generated machine, the number of conflicts,
+ *  the time taken to build the machine and the corresponding tables,
+ *  and the amount of memory that is retained by the results.  Usage:
+ *  <pre>
+ *    java -cp jacc.jar jacc.Benchmark [-n reps] [-j num] [-e] file.jacc ...
+ *  </pre>
+ *  Machine types are selected using the same flags as the main command
+ *  line (-0, -s, -a, and -1); by default, we compare LALR(1) and LR(1).
+ *  The -p flag selects the original LALR(1) engine, which traces back
+ *  along paths from each goto and reduction, so that it can be compared
+ *  with the DeRemer and Pennello engine that is used for -a.  Times are
+ *  the best of the given number of repetitions (default 5).  The -e flag
+ *  also reports how many times the nullable and finitary analyses
+ *  evaluate a nonterminal, with a worklist and with repeated passes
+ *  over each component.
+ */
+public class Benchmark {
+    public static void main(String[] args) {
+        int         reps     = 5;
+        int         threads  = 1;
+        int[]       types    = new int[5];
+        int         numTypes = 0;
+        boolean     evals    = false;
+        PrintWriter out      = new PrintWriter(System.out, true);
+
+        for (int i=0; i<args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-n") && i+1<args.length) {
+                reps = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-j") && i+1<args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-0")) {
+                numTypes = addType(types, numTypes, Settings.LR0);
+            } else if (arg.equals("-s")) {
+                numTypes = addType(types, numTypes, Settings.SLR1);
+            } else if (arg.equals("-a")) {
+                numTypes = addType(types, numTypes, Settings.LALR1);
+            } else if (arg.equals("-1")) {
+                numTypes = addType(types, numTypes, Settings.LR1);
+            } else if (arg.equals("-p")) {
+                numTypes = addType(types, numTypes, PATHS);
+            } else if (arg.equals("-e")) {
+                evals = true;
+            } else if (arg.startsWith("-")) {
+                System.err.println("usage: jacc.Benchmark [-n reps] [-j num]"
+                                   + " [-0] [-s] [-a] [-p] [-1] [-e]"
+                                   + " file.jacc ...");
+                System.exit(1);
+            }
+        }
+        if (numTypes==0) {
+            types[numTypes++] = Settings.LALR1;
+            types[numTypes++] = Settings.LR1;
+        }
+
+        for (int i=0; i<args.length; i++) {
+            if (args[i].endsWith(".jacc")) {
+                Grammar grammar = readGrammar(args[i]);
+                if (grammar!=null) {
+                    if (evals) {
+                        evaluations(out, args[i], grammar);
+                    }
+                    for (int t=0; t<numTypes; t++) {
+                        run(out, args[i], grammar, types[t], threads, reps);
+                    }
+                }
+            }
+        }
+    }
+
+    /** A pseudo machine type for the path tracing LALR(1) engine.
+     */
+    private static final int PATHS = (-1);
+
+    /** Add a machine type to the list of types to run, unless it is
+     *  already there, and return the new number of types.  There are
+     *  only five types, so a list of five is never exceeded.
+     */
+    private static int addType(int[] types, int numTypes, int type) {
+        for (int t=0; t<numTypes; t++) {
+            if (types[t]==type) {
+                return numTypes;
+            }
+        }
+        types[numTypes] = type;
+        return numTypes+1;
+    }
+
+    /** Build a machine of a given type.
+     */
+    private static LookaheadMachine makeMachine(Settings settings,
+                                                Grammar grammar) {
+        if (settings.getMachineType()==PATHS) {
+            return new LALRMachine(grammar, settings.getNumThreads());
+        } else {
+            return settings.makeMachine(grammar);
+        }
+    }
+
+    /** Read a grammar from a file, returning null if there are errors.
+     */
+    private static Grammar readGrammar(String inputFile) {
+        Handler handler = new SimpleHandler();
+        JaccJob job     = new JaccJob(handler, null, new Settings());
+        job.parseGrammarFile(inputFile);
+        if (handler.getNumFailures()>0) {
+            return null;
+        }
+        Grammar grammar = job.getGrammar();
+
+        // Run the grammar analyses outside the timed sections.
+        grammar.getFollow();
+        grammar.getLeft();
+        return grammar;
+    }
+
+    /** Report the number of evaluations made by each of the grammar
+     *  analyses, first using a worklist and then using repeated passes.
+     */
+    private static void evaluations(PrintWriter out, String name,
+                                    Grammar grammar) {
+        Nullable nw = new Nullable(grammar, true);
+        Nullable np = new Nullable(grammar, false);
+        Finitary iw = new Finitary(grammar, true);
+        Finitary ip = new Finitary(grammar, false);
+        out.println(name + ": evaluations (worklist/passes)"
+                    + ", nullable " + nw.getNumEvaluations()
+                    + "/" + np.getNumEvaluations()
+                    + ", finitary " + iw.getNumEvaluations()
+                    + "/" + ip.getNumEvaluations());
+    }
+
+    /** Build the machine and tables for a given grammar and machine
+     *  type, and report the results.
+     */
+    private static void run(PrintWriter out, String name, Grammar grammar,
+                            int type, int threads, int reps) {
+        Settings settings = new Settings();
+        settings.setMachineType(type);
+        settings.setNumThreads(threads);
+
+        long best = Long.MAX_VALUE;
+        for (int r=0; r<reps; r++) {
+            long start = System.nanoTime();
+            LookaheadMachine machine = makeMachine(settings, grammar);
+            new JaccTables(machine, new JaccResolver(machine));
+            long time  = System.nanoTime() - start;
+            if (time<best) {
+                best = time;
+            }
+        }
+        long retained = retainedMemory(settings, grammar);
+
+        out.println(name + ": " + typeName(type)
+                    + ", " + machine.getNumStates() + " states"
+                    + ", " + resolver.getNumSRConflicts() + " s/r"
+                    + ", " + resolver.getNumRRConflicts() + " r/r"
+                    + ", " + (best/1000000) + " ms"
+                    + ", " + (retained/1024) + " KB");
+    }
+
+    /** Holds the most recently constructed machine, resolver, and tables.
+     *  These are stored in static fields so that they are certain to be
+     *  reachable when we measure the amount of memory that they use.
+     */
+    private static LookaheadMachine machine;
+    private static JaccResolver     resolver;
+    private static JaccTables       tables;
+
+    /** Build the machine and tables for a given grammar and machine
+     *  type, and return the amount of memory that they use.
+     */
+    private static long retainedMemory(Settings settings, Grammar grammar) {
+        machine  = null;
+        resolver = null;
+        tables   = null;
+        long before = usedMemory();
+        machine  = makeMachine(settings, grammar);
+        resolver = new JaccResolver(machine);
+        tables   = new JaccTables(machine, resolver);
+        return usedMemory() - before;
+    }
+
+    /** Return the amount of memory that is currently in use, after
+     *  encouraging the garbage collector to discard unreachable objects.
+     */
+    private static long usedMemory() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i=0; i<3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /** Return a printable name for a machine type.
+     */
+    private static String typeName(int type) {
+        switch (type) {
+            case Settings.LR0   : return "LR(0)";
+            case Settings.SLR1  : return "SLR(1)";
+            case Settings.LALR1 : return "LALR(1)";
+            case PATHS          : return "LALR(1)/paths";
+            default             : return "LR(1)";
+        }
+    }
+}
@@ -0,0 +1,180 @@
+// Copyright (c) Mark P Jones, OGI School of Science & Engineering
+// Subject to conditions of distribution and use; see LICENSE for details
+// 
+
+package jacc;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Packs the rows of a sparse table into a single pair of vectors,
+ *  using the comb vector technique from yacc.  Each row is given a
+ *  base, and the entry for key k in a row with base b is stored at
+ *  position b+k of the table vector, with k in the same position of
+ *  the check vector.  Keys must be non-negative.  Rows share a base
+ *  only if they have exactly the same entries, so a lookup for a key
+ *  that is not in a row can never find an entry from another row.
+ */
+public class CombVector {
+    private long[][] rows;         // entries for each row, key<<32 | value
+    private int[]    base;         // base for each row, after packing
+    private int[]    table;        // the packed vectors
+    private int[]    check;
+    private int      size;         // number of positions in use
+
+    /** Construct an empty table with a given number of rows.
+     */
+    public CombVector(int numRows) {
+        rows = new long[numRows][];
+        base = new int[numRows];
+        for (int r=0; r<numRows; r++) {
+            rows[r] = new long[0];
+        }
+    }
+
+    /** Set the entries for a particular row.  The first n elements of
+     *  keys give the keys for the entries, which must be distinct, and
+     *  the first n elements of vals give the corresponding values.
+     */
+    public void setRow(int r, int[] keys, int[] vals, int n) {
+        long[] row = new long[n];
+        for (int i=0; i<n; i++) {
+            row[i] = ((long)keys[i] << 32) | (vals[i] & 0xffffffffL);
+        }
+        Arrays.sort(row);
+        rows[r] = row;
+    }
+
+    /** Pack the rows into the table and check vectors.  Rows are placed
+     *  in order of decreasing size, each at the first base where all of
+     *  its entries fit into unused positions.
+     */
+    public void pack() {
+        int numRows = rows.length;
+        int maxKey  = 0;
+        int maxLen  = 0;
+        for (int r=0; r<numRows; r++) {
+            int len = rows[r].length;
+            if (len>0) {
+                maxKey = Math.max(maxKey, (int)(rows[r][len-1] >> 32));
+            }
+            maxLen = Math.max(maxLen, len);
+        }
+
+        // Sort the rows by decreasing size, using a counting sort:
+        int[] start = new int[maxLen+2];
+        for (int r=0; r<numRows; r++) {
+            start[maxLen-rows[r].length+1]++;
+        }
+        for (int i=1; i<start.length; i++) {
+            start[i] += start[i-1];
+        }
+        int[] order = new int[numRows];
+        for (int r=0; r<numRows; r++) {
+            order[start[maxLen-rows[r].length]++] = r;
+        }
+
+        // Bases range from -maxKey upwards; used[b+maxKey] records
+        // whether base b has been given to a row.
+        table     = new int[Math.max(16, 2*maxKey)];
+        check     = new int[table.length];
+        size      = 0;
+        Arrays.fill(check, (-1));
+        boolean[] used      = new boolean[table.length + maxKey];
+        int       firstFree = 0;    // no free positions below this
+        int       nextEmpty = (-maxKey);
+        HashMap<String,Integer> seen = new HashMap<String,Integer>();
+
+        for (int i=0; i<numRows; i++) {
+            int    r   = order[i];
+            long[] row = rows[r];
+            if (row.length==0) {
+                // Empty rows come last, and need a base of their own
+                while (nextEmpty+maxKey<used.length
+                       && used[nextEmpty+maxKey]) {
+                    nextEmpty++;
+                }
+                base[r] = nextEmpty++;
+                continue;
+            }
+
+            String  sig  = Arrays.toString(row);
+            Integer prev = seen.get(sig);
+            if (prev!=null) {
+                base[r] = prev.intValue();
+                continue;
+            }
+
+            int lo = (int)(row[0] >> 32);
+            int b  = firstFree - lo;
+            for (;; b++) {
+                int hi = b + (int)(row[row.length-1] >> 32);
+                if (hi>=table.length) {
+                    grow(hi);
+                    used = Arrays.copyOf(used, table.length + maxKey);
+                }
+                if (!used[b+maxKey] && fits(row, b)) {
+                    break;
+                }
+            }
+            for (int j=0; j<row.length; j++) {
+                int k = (int)(row[j] >> 32);
+                table[b+k] = (int)row[j];
+                check[b+k] = k;
+                size       = Math.max(size, b+k+1);
+            }
+            base[r] = b;
+            used[b+maxKey] = true;
+            seen.put(sig, Integer.valueOf(b));
+            while (firstFree<size && check[firstFree]>=0) {
+                firstFree++;
+            }
+        }
+        table = Arrays.copyOf(table, size);
+        check = Arrays.copyOf(check, size);
+    }
+
+    /** Test to see if all of the entries in a row can be placed in
+     *  unused positions, starting from a given base.
+     */
+    private boolean fits(long[] row, int b) {
+        for (int j=0; j<row.length; j++) {
+            if (check[b + (int)(row[j] >> 32)]>=0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Expand the table and check vectors so that they include the given
+     *  position.
+     */
+    private void grow(int pos) {
+        int len = table.length;
+        while (len<=pos) {
+            len *= 2;
+        }
+        table = Arrays.copyOf(table, len);
+        int old = check.length;
+        check = Arrays.copyOf(check, len);
+        Arrays.fill(check, old, len, (-1));
+    }
+
+    /** Return the base for a given row.
+     */
+    public int getBase(int r) {
+        return base[r];
+    }
+
+    /** Return the packed table vector.
+     */
+    public int[] getTable() {
+        return table;
+    }
+
+    /** Return the packed check vector.
+     */
+    public int[] getCheck() {
+        return check;
+    }
+}
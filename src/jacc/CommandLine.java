@@ -11,6 +11,8 @@ import java.io.PrintWriter;
 import compiler.Handler;
 import compiler.SimpleHandler;
 
+import jacc.grammar.IncrementalBuild;
+
 /** A command line interface for the jacc parser generator.
  */
 public class CommandLine {
@@ -67,6 +69,9 @@ public class CommandLine {
                         case 'a':
                             settings.setMachineType(Settings.LALR1);
                             break;
+                        case '1':
+                            settings.setMachineType(Settings.LR1);
+                            break;
                         case 'e':
                             if (i+1>=args.length) {
                                 usage("Missing filename for -e option");
@@ -82,6 +87,24 @@ public class CommandLine {
                         case 'n':
                             wantStates = true;
                             break;
+                        case 'l':
+                            settings.setLazyLookahead(true);
+                            break;
+                        case 'y':
+                            settings.setTableDriven(true);
+                            break;
+                        case 'c':
+                            if (i+1>=args.length) {
+                                usage("Missing directory for -c option");
+                            }
+                            settings.setCacheDir(args[++i]);
+                            break;
+                        case 'j':
+                            if (i+1>=args.length) {
+                                usage("Missing thread count for -j option");
+                            }
+                            settings.setNumThreads(threadCount(args[++i]));
+                            break;
                         default:
                             usage("Unrecognized command line option "+
                                   arg.charAt(j));
@@ -109,8 +132,8 @@ public class CommandLine {
         NameList.visit(inputs, new NameList.Visitor() {
             void visit(String name) { job.parseGrammarFile(name); }
         });
-        job.buildTables();
         settings.fillBlanks(name);
+        job.buildTables();
         NameList.visit(errFiles, new NameList.Visitor() {
             void visit(String name) { job.readErrorExamples(name); }
         });
@@ -129,6 +152,16 @@ public class CommandLine {
         if (wantText) {
             new TextOutput(handler, job, wantFirst)
              .write(prefix + name + ".output");
+            IncrementalBuild incremental = job.getIncrementalBuild();
+            if (incremental!=null) {
+                System.err.println(incremental.getNumReusedStates()
+                                   + " states, "
+                                   + incremental.getNumReusedGotos()
+                                   + " goto lookaheads and "
+                                   + incremental.getNumReusedRows()
+                                   + " table rows reused from a"
+                                   + " previous build.");
+            }
         }
         if (wantHTML) {
             new HTMLOutput(handler, job, wantFirst)
@@ -157,15 +190,37 @@ public class CommandLine {
         System.err.println(" -h        output HTML description of machine");
         System.err.println(" -d        output dot description of machine");
         System.err.println(" -f        show first/follow sets (with -h or -v)");
+        System.err.println(" -1        treat as LR(1) grammar");
         System.err.println(" -a        treat as LALR(1) grammar (default)");
         System.err.println(" -s        treat as SLR(1) grammar");
         System.err.println(" -0        treat as LR(0) grammar");
         System.err.println(" -r file   run parser on input in file");
         System.err.println(" -n        show state numbers in parser output");
         System.err.println(" -e file   read error cases from file");
+        System.err.println(" -j num    use num threads to build the machine");
+        System.err.println("           and its parse tables");
+        System.err.println(" -c dir    cache machine and tables in dir");
+        System.err.println(" -l        read lookahead tokens only when needed");
+        System.err.println(" -y        generate a table driven parser");
         System.exit(1);
     }
 
+    /** Read the argument of a -j option, which must be a positive
+     *  integer.
+     */
+    private static int threadCount(String arg) {
+        try {
+            int n = Integer.parseInt(arg);
+            if (n>0) {
+                return n;
+            }
+        } catch (NumberFormatException e) {
+            // fall through to report the problem
+        }
+        usage("Thread count for -j option must be a positive integer");
+        return 1;
+    }
+
     /** A simple linked list data structure for holding lists of
      *  file names.  The associated visitor will visit the names
      *  in the order they were added from first to last.
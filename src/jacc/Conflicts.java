@@ -66,6 +66,37 @@ public class Conflicts {
         return append(cs, new Conflicts(RR, arg1, arg2, sym, null));
     }
 
+    /** Return true if this is a shift/reduce conflict, or false if it is
+     *  a reduce/reduce conflict.
+     */
+    boolean isSR() {
+        return type==SR;
+    }
+
+    /** Return the first argument for this conflict.
+     */
+    int getArg1() {
+        return arg1;
+    }
+
+    /** Return the second argument for this conflict.
+     */
+    int getArg2() {
+        return arg2;
+    }
+
+    /** Return the token on which this conflict occurs.
+     */
+    Grammar.Symbol getSym() {
+        return sym;
+    }
+
+    /** Return the rest of the conflicts in this list.
+     */
+    Conflicts getNext() {
+        return next;
+    }
+
     /** Destructive append on two lists of conflicts.
      */
     private static Conflicts append(Conflicts cs, Conflicts cs1) {
@@ -5,6 +5,8 @@
 
 package jacc;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Reader;
 import java.io.FileReader;
 import java.io.FileNotFoundException;
@@ -20,9 +22,11 @@ import compiler.Phase;
 
 import jacc.grammar.Grammar;
 import jacc.grammar.Finitary;
+import jacc.grammar.IncrementalBuild;
 import jacc.grammar.LookaheadMachine;
 import jacc.grammar.Resolver;
 import jacc.grammar.Tables;
+import jacc.grammar.Reachable;
 import jacc.grammar.Parser;
 
 /** Encapsulates the process of running a single job for the jacc
@@ -30,11 +34,12 @@ import jacc.grammar.Parser;
  *  actual user interface.
  */
 public class JaccJob extends Phase {
-    private Settings     settings;
-    private JaccParser   parser;
-    private JaccTables   tables;
-    private JaccResolver resolver;
-    private PrintWriter  out;
+    private Settings         settings;
+    private JaccParser       parser;
+    private JaccTables       tables;
+    private JaccResolver     resolver;
+    private IncrementalBuild incremental;
+    private PrintWriter      out;
 
     public JaccJob(Handler handler, PrintWriter out, Settings settings) {
         super(handler);
@@ -49,6 +54,12 @@ public class JaccJob extends Phase {
         return settings;
     }
 
+    /** Return the grammar that has been read for this job.
+     */
+    Grammar getGrammar() {
+        return parser.getGrammar();
+    }
+
     /** Return the tables for this job.
      */
     JaccTables getTables() {
@@ -61,6 +72,36 @@ public class JaccJob extends Phase {
         return resolver;
     }
 
+    /** Return the previous build that was used to construct the tables
+     *  for this job, or null if the tables were loaded from the cache or
+     *  built from scratch.
+     */
+    IncrementalBuild getIncrementalBuild() {
+        return incremental;
+    }
+
+    /** Return the number of productions for reachable nonterminals that
+     *  are never reduced.  Productions for nonterminals that are not
+     *  reachable are never reduced either, but they are accounted for by
+     *  the warning about unreachable nonterminals instead.
+     */
+    int getNumRulesNeverReduced() {
+        Grammar   grammar   = parser.getGrammar();
+        Reachable reachable = grammar.getReachable();
+        int       count     = 0;
+        for (int nt=0; nt<grammar.getNumNTs(); nt++) {
+            if (reachable.at(nt)) {
+                boolean[] used = tables.getProdsUsedAt(nt);
+                for (int j=0; j<used.length; j++) {
+                    if (!used[j]) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
     /** Create a JaccLexer from an input file name.
      */
     private JaccLexer lexerFromFile(String inputFile) {
@@ -95,14 +136,77 @@ public class JaccJob extends Phase {
             return;
         }
 
-        LookaheadMachine machine = settings.makeMachine(grammar);
+        // Report nonterminals that can never be used in a parse:
+        int numUnreachable = grammar.getReachable().getNumUnreachable();
+        if (numUnreachable>0) {
+            report(new Warning(numUnreachable
+                               + " nonterminals not reachable from "
+                               + grammar.getStart()));
+        }
 
-        resolver = new JaccResolver(machine);
-        tables   = new JaccTables(machine, resolver);
+        // Use a snapshot from the cache, if there is one:
+        String key = null;
+        if (settings.getCacheDir()!=null) {
+            key = Snapshot.fingerprint(grammar, settings.getMachineType());
+            if (key==null) {
+                report(new Warning("Cache not used: the version of jacc"
+                                   + " is not known"));
+            }
+        }
+        if (key!=null) {
+            Snapshot snapshot
+                = Snapshot.load(Snapshot.fileFor(settings.getCacheDir(), key),
+                                key, grammar);
+            if (snapshot!=null) {
+                resolver = snapshot.getResolver();
+                tables   = snapshot.getTables();
+            }
+        }
+
+        // Otherwise, reuse what we can from the most recent snapshot for
+        // the same parser, if there is one, and save a new snapshot:
+        if (tables==null) {
+            IncrementalBuild previous = null;
+            if (key!=null && settings.getMachineType()!=Settings.LR1) {
+                Snapshot last
+                    = Snapshot.loadPrevious(settings.getCacheDir(),
+                                            settings.getClassName(),
+                                            settings.getMachineType());
+                if (last!=null) {
+                    previous = last.getIncrementalBuild();
+                }
+            }
+            LookaheadMachine machine = settings.makeMachine(grammar, previous);
+
+            resolver    = new JaccResolver(machine);
+            tables      = new JaccTables(machine, resolver, previous);
+            incremental = previous;
+
+            if (key!=null) {
+                File file = Snapshot.fileFor(settings.getCacheDir(), key);
+                try {
+                    Snapshot.save(file, key, settings.getMachineType(),
+                                  resolver, tables);
+                } catch (IOException e) {
+                    report(new Warning("Could not write cache file \""
+                                       + file + "\""));
+                    key = null;
+                }
+            }
+        }
+        if (key!=null) {
+            try {
+                Snapshot.saveLast(settings.getCacheDir(),
+                                  settings.getClassName(),
+                                  settings.getMachineType(), key);
+            } catch (IOException e) {
+                // The next build will not be incremental
+            }
+        }
 
-        if (tables.getProdUnused()>0) {
-            report(new Warning(tables.getProdUnused()
-                               + " rules never reduced"));
+        int numNeverReduced = getNumRulesNeverReduced();
+        if (numNeverReduced>0) {
+            report(new Warning(numNeverReduced + " rules never reduced"));
         }
 
         if (resolver.getNumSRConflicts()>0 || resolver.getNumRRConflicts()>0) {
@@ -6,6 +6,7 @@
 package jacc;
 
 import jacc.grammar.Grammar;
+import jacc.grammar.IncrementalBuild;
 import jacc.grammar.LR0Items;
 import jacc.grammar.LookaheadMachine;
 import jacc.grammar.Resolver;
@@ -35,7 +36,9 @@ public class JaccResolver extends Resolver {
      */
     private int numRRConflicts = 0;
 
-    /** Records the conflicts found at each state.
+    /** Records the conflicts found at each state.  When the tables are
+     *  being filled in, the list for each state is only changed by the
+     *  thread that fills in that state.
      */
     private Conflicts[] conflicts;
 
@@ -57,6 +60,45 @@ public class JaccResolver extends Resolver {
         return Conflicts.describe(machine, st, conflicts[st]);
     }
 
+    /** Return the list of conflicts at a given state.
+     */
+    Conflicts getConflictListAt(int st) {
+        return conflicts[st];
+    }
+
+    /** Record a conflict that was found when the tables for this machine
+     *  were calculated previously.
+     */
+    void restoreConflict(int st, boolean sr, int arg1, int arg2,
+                         Grammar.Symbol sym) {
+        if (sr) {
+            conflicts[st] = Conflicts.sr(arg1, arg2, sym, conflicts[st]);
+            numSRConflicts++;
+        } else {
+            conflicts[st] = Conflicts.rr(arg1, arg2, sym, conflicts[st]);
+            numRRConflicts++;
+        }
+    }
+
+    /** Calculate the total numbers of conflicts from the lists for each
+     *  state, once the tables have been filled in.  The totals are the
+     *  same as for a sequential calculation, whatever order the states
+     *  were filled in.
+     */
+    public void mergeConflicts() {
+        numSRConflicts = 0;
+        numRRConflicts = 0;
+        for (int st=0; st<conflicts.length; st++) {
+            for (Conflicts cs=conflicts[st]; cs!=null; cs=cs.getNext()) {
+                if (cs.isSR()) {
+                    numSRConflicts++;
+                } else {
+                    numRRConflicts++;
+                }
+            }
+        }
+    }
+
     /** Resolve a shift/reduce conflict.  First, see if the conflict
      *  can be resolved using fixity information.  If that fails, we
      *  choose the shift over the reduce and report a conflict.
@@ -66,7 +108,7 @@ public class JaccResolver extends Resolver {
         Grammar.Symbol sym     = grammar.getTerminal(tok);
         IntSet         its     = machine.getItemsAt(st);
         LR0Items       items   = machine.getItems();
-        Grammar.Prod   prod    = items.getItem(its.at(redNo)).getProd();
+        Grammar.Prod   prod    = items.getProd(its.at(redNo));
 
         if ((sym instanceof JaccSymbol) && (prod instanceof JaccProd)) {
             JaccSymbol jsym  = (JaccSymbol)sym;
@@ -80,8 +122,7 @@ public class JaccResolver extends Resolver {
             }
         }
         conflicts[st]
-            = Conflicts.sr(tables.getArgAt(st)[tok], redNo, sym, conflicts[st]);
-        numSRConflicts++;
+            = Conflicts.sr(tables.getArg(st, tok), redNo, sym, conflicts[st]);
     }
 
     /** Resolve a reduce/reduce conflict.  We cannot ever avoid a
@@ -90,17 +131,115 @@ public class JaccResolver extends Resolver {
      */
     public void rrResolve(Tables tables, int st, int tok, int redNo) {
         Grammar        grammar = machine.getGrammar();
-        int            redNo0  = tables.getArgAt(st)[tok];
+        int            redNo0  = tables.getArg(st, tok);
         IntSet         its     = machine.getItemsAt(st);
         LR0Items       items   = machine.getItems();
-        Grammar.Prod   prod0   = items.getItem(its.at(redNo0)).getProd();
-        Grammar.Prod   prod    = items.getItem(its.at(redNo)).getProd();
+        Grammar.Prod   prod0   = items.getProd(its.at(redNo0));
+        Grammar.Prod   prod    = items.getProd(its.at(redNo));
         Grammar.Symbol sym     = grammar.getTerminal(tok);
 
         if (prod.getSeqNo()<prod0.getSeqNo()) {
             tables.setReduce(st, tok, redNo);
         }
         conflicts[st] = Conflicts.rr(redNo0, redNo, sym, conflicts[st]);
-        numRRConflicts++;
+    }
+
+    /** Record the conflicts at a state whose row is copied from the tables
+     *  of a previous build.  Conflicts are resolved using the fixities of
+     *  the productions that are reduced and of the terminals that are
+     *  shifted, and the order of the productions, so these must all be
+     *  the same as before.
+     */
+    public boolean reuseConflicts(int st, IncrementalBuild previous,
+                                  int oldSt) {
+        Tables prevTables = previous.getPreviousTables();
+        if (!(prevTables.getResolver() instanceof JaccResolver)) {
+            return false;
+        }
+        JaccResolver     prev    = (JaccResolver)prevTables.getResolver();
+        LookaheadMachine pm      = prevTables.getMachine();
+        Grammar          grammar = machine.getGrammar();
+        Grammar          pg      = pm.getGrammar();
+
+        int   numReds = machine.getNumReducesAt(st);
+        int[] seqNo   = new int[numReds];
+        int[] oldNo   = new int[numReds];
+        for (int i=0; i<numReds; i++) {
+            Grammar.Prod prod
+                = machine.reduceItem(st, machine.getReduceAt(st, i)).getProd();
+            Grammar.Prod old
+                = pm.reduceItem(oldSt, pm.getReduceAt(oldSt, i)).getProd();
+            if (!sameFixity(fixityOf(prod), fixityOf(old))) {
+                return false;
+            }
+            seqNo[i] = prod.getSeqNo();
+            oldNo[i] = old.getSeqNo();
+            for (int j=0; j<i; j++) {
+                if ((seqNo[j]<seqNo[i])!=(oldNo[j]<oldNo[i])) {
+                    return false;
+                }
+            }
+        }
+
+        int numShifts = machine.getNumShiftsAt(st);
+        for (int i=0; i<numShifts; i++) {
+            int sym = machine.getEntry(machine.getShiftAt(st, i));
+            int old = pm.getEntry(pm.getShiftAt(oldSt, i));
+            if (!sameFixity(fixityOf(grammar.getSymbol(sym)),
+                            fixityOf(pg.getSymbol(old)))) {
+                return false;
+            }
+        }
+
+        Conflicts list = null;
+        for (Conflicts cs=prev.conflicts[oldSt]; cs!=null; cs=cs.getNext()) {
+            int old = symbolNo(pg, cs.getSym());
+            int sym = (old<0) ? (-1) : previous.getNewSymbol(old);
+            if (sym<0) {
+                return false;
+            }
+            if (cs.isSR()) {
+                list = Conflicts.sr(previous.getNewState(cs.getArg1()),
+                                    cs.getArg2(), grammar.getSymbol(sym),
+                                    list);
+            } else {
+                list = Conflicts.rr(cs.getArg1(), cs.getArg2(),
+                                    grammar.getSymbol(sym), list);
+            }
+        }
+        conflicts[st] = list;
+        return true;
+    }
+
+    /** Return the fixity of a symbol, or null if it does not have one.
+     */
+    private static Fixity fixityOf(Grammar.Symbol sym) {
+        return (sym instanceof JaccSymbol) ? ((JaccSymbol)sym).getFixity()
+                                           : null;
+    }
+
+    /** Return the fixity of a production, or null if it does not have one.
+     */
+    private static Fixity fixityOf(Grammar.Prod prod) {
+        return (prod instanceof JaccProd) ? ((JaccProd)prod).getFixity()
+                                          : null;
+    }
+
+    /** Determine whether two fixities, either of which may be null, are
+     *  the same.
+     */
+    private static boolean sameFixity(Fixity f, Fixity g) {
+        return (f==null) ? (g==null) : (g!=null && f.equalsFixity(g));
+    }
+
+    /** Find the number of a terminal symbol in a given grammar.
+     */
+    private static int symbolNo(Grammar grammar, Grammar.Symbol sym) {
+        for (int t=0; t<grammar.getNumTs(); t++) {
+            if (grammar.getTerminal(t)==sym) {
+                return grammar.getNumNTs() + t;
+            }
+        }
+        return (-1);
     }
 }
@@ -5,9 +5,12 @@
 
 package jacc;
 
+import java.util.Arrays;
+
 import compiler.Diagnostic;
 
 import jacc.grammar.Grammar;
+import jacc.grammar.IncrementalBuild;
 import jacc.grammar.LookaheadMachine;
 import jacc.grammar.Resolver;
 import jacc.grammar.Tables;
@@ -25,6 +28,23 @@ public class JaccTables extends Tables {
         super(machine, resolver);
     }
 
+    /** Construct a set of parse tables for the given machine, copying
+     *  rows from the tables of a previous build where possible.
+     */
+    public JaccTables(LookaheadMachine machine, Resolver resolver,
+                      IncrementalBuild previous) {
+        super(machine, resolver, previous);
+    }
+
+    /** Construct a set of parse tables from rows that were calculated
+     *  previously for the given machine.
+     */
+    JaccTables(LookaheadMachine machine, Resolver resolver,
+               int[][] rowToken, byte[][] rowAction, int[][] rowArg,
+               boolean[][] prodUsed) {
+        super(machine, resolver, rowToken, rowAction, rowArg, prodUsed);
+    }
+
     /** Holds a table of error message strings that have been defined
      *  for this job.
      */
@@ -50,7 +70,7 @@ public class JaccTables extends Tables {
      *  in the tables for a specified state and symbol.
      */
     public boolean errorAt(int state, int sym) {
-        return action[state][sym-numNTs]==NONE;
+        return getAction(state, sym-numNTs)==NONE;
     }
 
     /** Assign a string to the error entry in the table at the specified
@@ -66,10 +86,11 @@ public class JaccTables extends Tables {
      *  code, leaving 0 to represtent the default.
      */
     public String errorSet(int state, int sym, String tag) {
-        if (arg[state][sym-numNTs]!=0) {
-            return errors[arg[state][sym-numNTs]-1];
+        int arg = getArg(state, sym-numNTs);
+        if (arg!=0) {
+            return errors[arg-1];
         } else {
-            arg[state][sym-numNTs] = errorNo(tag) + 1;
+            setEntry(state, sym-numNTs, NONE, errorNo(tag) + 1);
             return null;
         }
     }
@@ -97,19 +118,21 @@ public class JaccTables extends Tables {
      */
     public void analyzeRows() {
         if (index==null) {
-            RowAnalysis r   = new RowAnalysis();
-            int numStates   = machine.getNumStates();
-            this.index      = new int[numStates][];
-            this.defaultRow = new int[numStates];
+            RowAnalysis r      = new RowAnalysis();
+            int numStates      = machine.getNumStates();
+            this.index         = new int[numStates][];
+            this.defaultAction = new byte[numStates];
+            this.defaultArg    = new int[numStates];
             for (int i=0; i<numStates; i++) {
                 r.analyze(i);
             }
         }
     }
 
-    /** Holds an index for the rows in each state.  More
-     *  specifically, index[st][i] is the index of the ith
-     *  row in the (sorted) set of rows for parser state st.
+    /** Holds an index for the rows in each state.  More specifically,
+     *  index[st] lists the tokens whose entries in state st differ from
+     *  the default, sorted so that tokens with the same action and
+     *  argument are grouped together.
      */
     private int[][] index;
 
@@ -119,17 +142,254 @@ public class JaccTables extends Tables {
         return index[st];
     }
 
-    /** Holds the number of a row that could be used as a default
-     *  (or -1 if no suitable default is found).  The row containing
-     *  the most commonly appearing reduction is used as the default.
+    /** Holds the action and argument to be used as a default in each
+     *  state (or an action of -1 if no suitable default is found).
+     *  The most commonly appearing entry, other than a shift, is used
+     *  as the default.
      */
-    private int[] defaultRow;
+    private byte[] defaultAction;
+    private int[]  defaultArg;
 
-    /** Return the row to be used as a default (or -1 if no suitable
+    /** Return the action to be used as a default (or -1 if no suitable
      *  default can be found).
      */
-    public int getDefaultRowAt(int st) {
-        return defaultRow[st];
+    public int getDefaultActionAt(int st) {
+        return defaultAction[st];
+    }
+
+    /** Return the argument for the default action.
+     */
+    public int getDefaultArgAt(int st) {
+        return defaultArg[st];
+    }
+
+    /** Return true if a given state is consistent, which means that
+     *  all of its actions are reductions by the same production.  In a
+     *  consistent state, the parser can reduce without reading the
+     *  next token; if that token is not valid, then the error will be
+     *  detected in a later state, before the token is shifted.  States
+     *  with custom error entries are not treated as consistent, so that
+     *  those errors are still reported where they were specified.
+     */
+    public boolean isConsistentAt(int st) {
+        byte[] acts = rowAction[st];
+        int[]  args = rowArg[st];
+        if (acts.length==0) {
+            return false;
+        }
+        for (int i=0; i<acts.length; i++) {
+            if (acts[i]!=REDUCE || args[i]!=args[0]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Find the states that can be merged in the generated parser.
+     *  Two states can be merged if they have the same actions on every
+     *  terminal, including custom error entries, and if their shifts
+     *  and gotos lead, on the same symbols, to states that can also be
+     *  merged.  States with terminal entry symbols are never merged
+     *  with states that are entered on a nonterminal because the code
+     *  for entering a state depends on this.  We find the largest such
+     *  equivalence by partition refinement: we start by grouping the
+     *  states on everything except the targets of their transitions,
+     *  and then split groups until the targets of the transitions of
+     *  the states in each group are in the same groups.  Whenever a
+     *  state moves to a new group, the groups that hold its predecessors
+     *  are checked again.  Any error entries must already have been set.
+     */
+    public void mergeStates() {
+        if (mergedWith==null) {
+            int        numStates = machine.getNumStates();
+            int[]      block     = new int[numStates];
+            Signatures sigs      = new Signatures();
+            for (int st=0; st<numStates; st++) {
+                block[st] = sigs.blockOf(rowSignature(st));
+            }
+            int numBlocks = sigs.size();
+
+            // List the members of each block:
+            int[][] members = new int[numStates][];
+            int[]   count   = new int[numBlocks];
+            for (int st=0; st<numStates; st++) {
+                count[block[st]]++;
+            }
+            for (int b=0; b<numBlocks; b++) {
+                members[b] = new int[count[b]];
+                count[b]   = 0;
+            }
+            for (int st=0; st<numStates; st++) {
+                members[block[st]][count[block[st]]++] = st;
+            }
+
+            // Build a table of predecessors for each state:
+            int[] predStart = new int[numStates+1];
+            for (int st=0; st<numStates; st++) {
+                for (int i=0; i<machine.getNumSuccsAt(st); i++) {
+                    int dst = machine.getSuccAt(st, i);
+                    if (dst>=0) {
+                        predStart[dst+1]++;
+                    }
+                }
+            }
+            for (int st=0; st<numStates; st++) {
+                predStart[st+1] += predStart[st];
+            }
+            int[] predData = new int[predStart[numStates]];
+            int[] predNext = new int[numStates];
+            System.arraycopy(predStart, 0, predNext, 0, numStates);
+            for (int st=0; st<numStates; st++) {
+                for (int i=0; i<machine.getNumSuccsAt(st); i++) {
+                    int dst = machine.getSuccAt(st, i);
+                    if (dst>=0) {
+                        predData[predNext[dst]++] = st;
+                    }
+                }
+            }
+
+            // Split blocks until no more changes are needed:
+            int[]     work   = new int[numStates];
+            boolean[] queued = new boolean[numStates];
+            int       top    = 0;
+            for (int b=0; b<numBlocks; b++) {
+                work[top++] = b;
+                queued[b]   = true;
+            }
+            while (top>0) {
+                int   b  = work[--top];
+                int[] ms = members[b];
+                queued[b] = false;
+                if (ms.length<2) {
+                    continue;
+                }
+                Signatures groups = new Signatures();
+                int[]      group  = new int[ms.length];
+                for (int i=0; i<ms.length; i++) {
+                    group[i] = groups.blockOf(succSignature(ms[i], block));
+                }
+                int numGroups = groups.size();
+                if (numGroups==1) {
+                    continue;
+                }
+
+                // The first group keeps the number b, and the others
+                // are given new numbers:
+                int[] size = new int[numGroups];
+                for (int i=0; i<ms.length; i++) {
+                    size[group[i]]++;
+                }
+                for (int g=0; g<numGroups; g++) {
+                    members[(g==0) ? b : (numBlocks+g-1)] = new int[size[g]];
+                    size[g] = 0;
+                }
+                for (int i=0; i<ms.length; i++) {
+                    int st = ms[i];
+                    int g  = group[i];
+                    int nb = (g==0) ? b : (numBlocks+g-1);
+                    members[nb][size[g]++] = st;
+                    if (g>0) {
+                        block[st] = nb;
+                        for (int j=predStart[st]; j<predStart[st+1]; j++) {
+                            int pb = block[predData[j]];
+                            if (!queued[pb]) {
+                                work[top++] = pb;
+                                queued[pb]  = true;
+                            }
+                        }
+                    }
+                }
+                numBlocks += numGroups-1;
+            }
+
+            // Use the lowest numbered state in each block:
+            int[] first = new int[numBlocks];
+            for (int b=0; b<numBlocks; b++) {
+                first[b] = (-1);
+            }
+            mergedWith = new int[numStates];
+            numMerged  = 0;
+            for (int st=0; st<numStates; st++) {
+                if (first[block[st]]<0) {
+                    first[block[st]] = st;
+                } else {
+                    numMerged++;
+                }
+                mergedWith[st] = first[block[st]];
+            }
+        }
+    }
+
+    /** Return a signature for the actions in a given state.  Reduce
+     *  entries are described by the number of the production, and
+     *  shifts by the symbols on which they occur.
+     */
+    private int[] rowSignature(int st) {
+        int[]  toks     = rowToken[st];
+        byte[] acts     = rowAction[st];
+        int[]  args     = rowArg[st];
+        int    numSuccs = machine.getNumSuccsAt(st);
+        int[]  sig      = new int[1 + 3*toks.length + numSuccs];
+        int    n        = 0;
+        sig[n++] = machine.getGrammar().isTerminal(machine.getEntry(st))
+                   ? 1 : 0;
+        for (int i=0; i<toks.length; i++) {
+            sig[n++] = toks[i];
+            sig[n++] = acts[i];
+            switch (acts[i]) {
+                case SHIFT:             // distinguish the accept action
+                    sig[n++] = (args[i]<0) ? (-1) : 0;
+                    break;
+                case REDUCE:
+                    sig[n++] = machine.reduceItem(st, args[i]).getSeqNo();
+                    break;
+                default:                // custom error number, if any
+                    sig[n++] = args[i];
+                    break;
+            }
+        }
+        for (int i=0; i<numSuccs; i++) {
+            sig[n++] = machine.getEntry(machine.getSuccAt(st, i));
+        }
+        return sig;
+    }
+
+    /** Return a signature that describes the block of a given state,
+     *  and the blocks of the targets of its transitions, which appear
+     *  in order of symbol number.
+     */
+    private int[] succSignature(int st, int[] block) {
+        int   numSuccs = machine.getNumSuccsAt(st);
+        int[] sig      = new int[1 + numSuccs];
+        sig[0] = block[st];
+        for (int i=0; i<numSuccs; i++) {
+            int dst    = machine.getSuccAt(st, i);
+            sig[1+i] = (dst<0) ? (-1) : block[dst];
+        }
+        return sig;
+    }
+
+    /** Holds the number of the state that will be used in place of each
+     *  state in the generated parser.
+     */
+    private int[] mergedWith;
+
+    /** Records the number of states that are merged with another.
+     */
+    private int numMerged;
+
+    /** Return the number of the state that will be used in place of a
+     *  given state in the generated parser.  This is the state itself,
+     *  unless it can be merged with a lower numbered state.
+     */
+    public int getMergedAt(int st) {
+        return (st<0) ? st : mergedWith[st];
+    }
+
+    /** Return the number of states that can be merged with another.
+     */
+    public int getNumMerged() {
+        return numMerged;
     }
 
     /** Display the tables for debugging or inspection.
@@ -137,14 +397,16 @@ public class JaccTables extends Tables {
     public void display(java.io.PrintWriter out) {
         int numStates = machine.getNumStates();
         for (int st=0; st<numStates; st++) {
+            byte[] action = getActionAt(st);
+            int[]  arg    = getArgAt(st);
             System.out.print("state " + st + ": ");
             for (int i=0; i<numTs; i++) {
-                switch (action[st][i]) {
+                switch (action[i]) {
                     case NONE   : out.print(" E");  break;
                     case SHIFT  : out.print(" S");  break;
                     case REDUCE : out.print(" R"); break;
                 }
-                out.print(arg[st][i]);
+                out.print(arg[i]);
             }
             out.println();
         }
@@ -152,41 +414,53 @@ public class JaccTables extends Tables {
 
     /** Ordering objects are used to determine a suitable index
      *  for the rows in a given state of the machine.  This requires
-     *  us to sort the rows so that all occurences of any given
-     *  action are grouped together.
+     *  us to sort the entries so that all occurences of any given
+     *  action are grouped together.  Only the entries that are listed
+     *  in the row for the state are sorted; the remaining tokens all
+     *  have the entry NONE with argument 0, which sorts first.
      */
     private class RowAnalysis {
+        private int[]  t;
         private byte[] a;
         private int[]  b;
         private int    size;
         private int[]  idx;
  
         public void analyze(int state) {
-            this.a    = action[state];
-            this.b    = arg[state];
-            this.size = numTs;
+            this.t    = rowToken[state];
+            this.a    = rowAction[state];
+            this.b    = rowArg[state];
+            this.size = t.length;
             this.idx  = new int[size];
             
             // Initialize the index array
-            for (int i=0; i<numTs; i++) {
+            for (int i=0; i<size; i++) {
                 idx[i] = i;
             }
 
-            // Heap sort the rows ...
+            // Heap sort the entries ...
             for (int i=size/2; i>=0; i--) {
                 heapify(i);
             }
             for (int i=size-1; i>0; i--) {
-                int t  = idx[i];
+                int x  = idx[i];
                 idx[i] = idx[0];
-                idx[0] = t;
+                idx[0] = x;
                 size--;
                 heapify(0);
             }
-            index[state] = idx;
 
-            // Determine which row to use as default
-            defaultRow[state] = findDefault();
+            // Determine which entry to use as default
+            findDefault(state);
+            index[state] = nonDefaults(state);
+        }
+
+        /** Test to see if entry i should come after entry j.  Entries
+         *  with the same action and argument are kept in token order.
+         */
+        private boolean after(int i, int j) {
+            return a[i]>a[j] || (a[i]==a[j] && (b[i]>b[j]
+                                                || (b[i]==b[j] && i>j)));
         }
 
         private void heapify(int i) {
@@ -197,13 +471,13 @@ public class JaccTables extends Tables {
                 int r = l + 1;
                 if (l<size) {
                     int il = idx[l];
-                    if (a[il]>a[im] || (a[il]==a[im] && b[il]>b[im])) {
+                    if (after(il, im)) {
                         m  = l;
                         im = il;
                     }
                     if (r<size) {
                         int ir = idx[r];
-                        if (a[ir]>a[im] || (a[ir]==a[im] && b[ir]>b[im])) {
+                        if (after(ir, im)) {
                             m  = r;
                             im = ir;
                         }
@@ -219,43 +493,127 @@ public class JaccTables extends Tables {
             }
         }
 
-        public int findDefault() {
+        public void findDefault(int state) {
             int best = 1;    // must repeat >=2 times to be used as default
-            int def  = (-1); // negative value indicates no default in use
-            for (int i=0; i<a.length; ) {
+            defaultAction[state] = (-1);    // indicates no default in use
+            defaultArg[state]    = 0;
+            if (numTs-t.length>best) {      // the implicit error entries
+                defaultAction[state] = NONE;
+                best                 = numTs-t.length;
+            }
+            for (int i=0; i<idx.length; ) {
                 int  ii = idx[i];
                 int  ai = a[ii];
                 if (ai==Tables.SHIFT) {  // skip shift entries
                     i++;
                 } else {
-                    int first = ii;
                     int count = 1;
                     int bi    = b[ii];
-                    while (++i<a.length && a[idx[i]]==ai && b[idx[i]]==bi) {
+                    while (++i<idx.length && a[idx[i]]==ai && b[idx[i]]==bi) {
                         count++;
                     }
                     if (count>best) {
-                        def  = ii;
-                        best = count;
+                        defaultAction[state] = (byte)ai;
+                        defaultArg[state]    = bi;
+                        best                 = count;
                     }
                 }
             }
-            return def;
         }
 
-        private void display() {
-            for (int i=0; i<numTs; i++) {
-                display(idx[i]);
+        /** Return the tokens whose entries differ from the default, with
+         *  the implicit error entries first, in token order, followed by
+         *  the sorted entries from the row.
+         */
+        private int[] nonDefaults(int state) {
+            byte    da       = defaultAction[state];
+            int     db       = defaultArg[state];
+            boolean implicit = (da!=NONE || db!=0);
+            int     count    = implicit ? (numTs-t.length) : 0;
+            for (int i=0; i<idx.length; i++) {
+                if (a[i]!=da || b[i]!=db) {
+                    count++;
+                }
+            }
+            int[] toks = new int[count];
+            int   n    = 0;
+            if (implicit) {
+                for (int tok=0, i=0; tok<numTs; tok++) {
+                    if (i<t.length && t[i]==tok) {
+                        i++;
+                    } else {
+                        toks[n++] = tok;
+                    }
+                }
+            }
+            for (int i=0; i<idx.length; i++) {
+                int ii = idx[i];
+                if (a[ii]!=da || b[ii]!=db) {
+                    toks[n++] = t[ii];
+                }
             }
-            System.out.println();
+            return toks;
         }
-        private void display(int i) {
-            switch (a[i]) {
-                case NONE   : System.out.print(" E");  break;
-                case SHIFT  : System.out.print(" S");  break;
-                case REDUCE : System.out.print(" R"); break;
+    }
+
+    /** Assigns block numbers to signatures, so that two states have
+     *  the same block number exactly when their signatures are equal.
+     */
+    private static class Signatures {
+        private int[][] table  = new int[64][];     // open addressing
+        private int[]   blocks = new int[64];
+        private int     used   = 0;
+
+        /** Return the block number for a given signature, allocating a
+         *  new block if the signature has not been seen before.
+         */
+        int blockOf(int[] sig) {
+            int idx = find(sig);
+            if (table[idx]==null) {
+                table[idx]  = sig;
+                blocks[idx] = used++;
+                if (used > table.length/2) {
+                    rehash();
+                }
+                return used-1;
+            }
+            return blocks[idx];
+        }
+
+        /** Return the number of distinct signatures.
+         */
+        int size() {
+            return used;
+        }
+
+        /** Find the slot that holds a signature equal to the given one,
+         *  or the empty slot where it belongs.
+         */
+        private int find(int[] sig) {
+            int mask = table.length-1;
+            int h    = Arrays.hashCode(sig);
+            int idx  = (h ^ (h>>>16)) & mask;
+            while (table[idx]!=null
+                   && !Arrays.equals(table[idx], sig)) {
+                idx = (idx+1) & mask;
+            }
+            return idx;
+        }
+
+        /** Double the size of the table.
+         */
+        private void rehash() {
+            int[][] oldTable  = table;
+            int[]   oldBlocks = blocks;
+            table  = new int[2*oldTable.length][];
+            blocks = new int[2*oldTable.length];
+            for (int i=0; i<oldTable.length; i++) {
+                if (oldTable[i]!=null) {
+                    int idx     = find(oldTable[i]);
+                    table[idx]  = oldTable[i];
+                    blocks[idx] = oldBlocks[i];
+                }
             }
-            System.out.print(b[i]);
         }
     }
 }
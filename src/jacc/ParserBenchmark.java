@@ -0,0 +1,407 @@
+// Copyright (c) Mark P Jones, OGI School of Science & Engineering
+// Subject to conditions of distribution and use; see LICENSE for details
+// 
+
+package jacc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Random;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import compiler.Handler;
+import compiler.SimpleHandler;
+
+import jacc.grammar.Grammar;
+
+/** A benchmark that compares the two kinds of parser that jacc can
+ *  generate: the usual parsers, with code for each state, and the
+ *  table driven parsers that are produced with the -y option.  For
+ *  each input grammar, we generate and compile both parsers, using a
+ *  lexer that reads token codes from an array, and report the time
+ *  taken to compile each one, the size of the class file, and the time
+ *  taken to parse the same set of randomly generated sentences.  Usage:
+ *  <pre>
+ *    java -cp jacc.jar jacc.ParserBenchmark [-n reps] [-t num] [-l]
+ *                                           file.jacc ...
+ *  </pre>
+ *  Parse times are the best of the given number of repetitions (default
+ *  5), each of which reads about the given number of tokens (default
+ *  1000000).  The -l flag generates both parsers with lazy lookahead.
+ *  The benchmark must be run with a JDK, so that the parsers can be
+ *  compiled.  Any semantic actions or other code in the grammars must
+ *  compile on their own, so the grammars will usually have no actions.
+ */
+public class ParserBenchmark {
+    public static void main(String[] args) {
+        int         reps      = 5;
+        int         numTokens = 1000000;
+        boolean     lazy      = false;
+        PrintWriter out       = new PrintWriter(System.out, true);
+
+        for (int i=0; i<args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-n") && i+1<args.length) {
+                reps = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-t") && i+1<args.length) {
+                numTokens = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-l")) {
+                lazy = true;
+            } else if (arg.startsWith("-")) {
+                System.err.println("usage: jacc.ParserBenchmark [-n reps]"
+                                   + " [-t num] [-l] file.jacc ...");
+                System.exit(1);
+            }
+        }
+
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac==null) {
+            System.err.println("No Java compiler is available;"
+                               + " the benchmark must be run with a JDK");
+            System.exit(1);
+        }
+        for (int i=0; i<args.length; i++) {
+            if (args[i].endsWith(".jacc")) {
+                try {
+                    run(out, javac, args[i], lazy, numTokens, reps);
+                } catch (InvocationTargetException e) {
+                    out.println(", " + e.getCause());
+                } catch (Exception e) {
+                    out.println(args[i] + ": " + e);
+                }
+            }
+        }
+    }
+
+    /** Extra code for the generated parsers.  Tokens are read from the
+     *  array yyin, and a parser can be run on each of a list of inputs
+     *  with a single call to yybench.
+     */
+    private static final String POST_TEXT
+        = "  private int[] yyin;\n"
+        + "  private int   yyip;\n"
+        + "  protected int yygrowth;\n"
+        + "\n"
+        + "  private int yynext() {\n"
+        + "    if (yyip+1>=yyin.length) {\n"
+        + "      throw new IllegalStateException(\"no more input\");\n"
+        + "    }\n"
+        + "    return yyin[++yyip];\n"
+        + "  }\n"
+        + "\n"
+        + "  private void yyerror(String msg) {\n"
+        + "  }\n"
+        + "\n"
+        + "  public int yybench(int[][] inputs) {\n"
+        + "    int accepted = 0;\n"
+        + "    for (int i=0; i<inputs.length; i++) {\n"
+        + "      yyin = inputs[i];\n"
+        + "      yyip = 0;\n"
+        + "      yygrowth = 0;\n"
+        + "      try {\n"
+        + "        if (parse()) {\n"
+        + "          accepted++;\n"
+        + "        }\n"
+        + "      } catch (IllegalStateException e) {\n"
+        + "        // treat as a rejected input\n"
+        + "      }\n"
+        + "    }\n"
+        + "    return accepted;\n"
+        + "  }\n";
+
+    /** A subclass of each generated parser that limits the size of the
+     *  parse stack.  In a grammar with conflicts, the parser can loop
+     *  without reading any input, pushing states as it goes, and this
+     *  turns an input that would exhaust the heap into a rejected one.
+     */
+    private static final String LIMIT_TEXT
+        = "class %1$sLimit extends %1$s {\n"
+        + "  protected void yyexpand() {\n"
+        + "    if (++yygrowth>12) {\n"
+        + "      throw new IllegalStateException(\"stack overflow\");\n"
+        + "    }\n"
+        + "    super.yyexpand();\n"
+        + "  }\n"
+        + "}\n";
+
+    /** Generate, compile, and run both kinds of parser for a grammar,
+     *  and report the results.
+     */
+    private static void run(PrintWriter out, JavaCompiler javac,
+                            String inputFile, boolean lazy,
+                            int numTokens, int reps)
+      throws Exception {
+        Handler  handler  = new SimpleHandler();
+        Settings settings = new Settings();
+        settings.setLazyLookahead(lazy);
+        settings.setGetToken("yyin[yyip]");
+        settings.setNextToken("yynext()");
+        settings.setGetSemantic("null");
+        JaccJob  job      = new JaccJob(handler, null, settings);
+        job.parseGrammarFile(inputFile);
+        job.buildTables();
+        if (handler.getNumFailures()>0) {
+            return;
+        }
+        settings.setClassName("BenchCodeParser");
+        settings.fillBlanks("Bench");
+        settings.addPostText(POST_TEXT);
+
+        int[][] inputs = sentences(job.getGrammar(), numTokens);
+        int     total  = 0;
+        for (int i=0; i<inputs.length; i++) {
+            total += inputs[i].length;
+        }
+        out.println(inputFile + ": " + inputs.length + " sentences, "
+                    + total + " tokens");
+
+        File dir = Files.createTempDirectory("jacc").toFile();
+        try {
+            File tokens = new File(dir, settings.getInterfaceName()+".java");
+            new TokensOutput(handler, job).write(tokens.getPath());
+            compile(javac, dir, tokens);        // warm up the compiler
+
+            String[] names = { "BenchCodeParser", "BenchTableParser" };
+            for (int k=0; k<names.length; k++) {
+                settings.setClassName(names[k]);
+                settings.setTableDriven(k==1);
+                File src = new File(dir, names[k] + ".java");
+                new ParserOutput(handler, job).write(src.getPath());
+                report(out, (k==1) ? "tables" : "code  ",
+                       javac, dir, tokens, src, settings, inputs, total, reps);
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /** Compile and run one of the generated parsers, and report the
+     *  results.
+     */
+    private static void report(PrintWriter out, String kind,
+                               JavaCompiler javac, File dir,
+                               File tokens, File src, Settings settings,
+                               int[][] inputs, int total, int reps)
+      throws Exception {
+        String pkg   = settings.getPackageName();
+        String name  = settings.getClassName();
+        File   limit = new File(dir, name + "Limit.java");
+        String text  = String.format(LIMIT_TEXT, name);
+        if (pkg!=null) {
+            text = "package " + pkg + ";\n\n" + text;
+        }
+        Files.write(limit.toPath(), text.getBytes());
+
+        long   start = System.nanoTime();
+        String error = compile(javac, dir, tokens, src, limit);
+        long   time  = System.nanoTime() - start;
+        out.print("  " + kind + ": " + lines(src) + " lines"
+                  + ", compiled in " + (time/1000000) + " ms");
+        if (error!=null) {
+            out.println(", " + error);
+            return;
+        }
+
+        String path = (pkg==null) ? name : (pkg.replace('.', '/') + "/" + name);
+        File   cls  = new File(dir, path + ".class");
+        URLClassLoader loader
+            = new URLClassLoader(new URL[] { dir.toURI().toURL() });
+        try {
+            Class<?>       c    = loader.loadClass(path.replace('/', '.')
+                                                   + "Limit");
+            Constructor<?> cons = c.getDeclaredConstructor();
+            Method         m    = c.getMethod("yybench", int[][].class);
+            cons.setAccessible(true);
+            m.setAccessible(true);
+            Object parser   = cons.newInstance();
+            long   best     = Long.MAX_VALUE;
+            int    accepted = 0;
+            for (int r=0; r<reps; r++) {
+                start    = System.nanoTime();
+                accepted = ((Integer)m.invoke(parser,
+                                              (Object)inputs)).intValue();
+                time     = System.nanoTime() - start;
+                if (time<best) {
+                    best = time;
+                }
+            }
+            out.println(", " + (cls.length()/1024) + " KB"
+                        + ", " + (best/1000000) + " ms to parse"
+                        + ", " + (total*1000000L/Math.max(best, 1))
+                        + " tokens/ms"
+                        + ", " + accepted + " accepted");
+        } finally {
+            loader.close();
+        }
+    }
+
+    /** Compile a list of source files, returning the first error
+     *  message, or null if compilation succeeds.
+     */
+    private static String compile(JavaCompiler javac, File dir,
+                                  File... srcs) {
+        ByteArrayOutputStream err  = new ByteArrayOutputStream();
+        String[]              args = new String[3+srcs.length];
+        args[0] = "-nowarn";
+        args[1] = "-d";
+        args[2] = dir.getPath();
+        for (int i=0; i<srcs.length; i++) {
+            args[3+i] = srcs[i].getPath();
+        }
+        if (javac.run(null, null, err, args)==0) {
+            return null;
+        }
+        String msgs = err.toString();
+        int    i    = msgs.indexOf("error: ");
+        int    j    = msgs.indexOf('\n', i);
+        return (i<0) ? "failed" : msgs.substring(i, (j<0) ? msgs.length()
+                                                           : j).trim();
+    }
+
+    /** Return the number of lines in a file.
+     */
+    private static int lines(File file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        int    count = 0;
+        for (int i=0; i<bytes.length; i++) {
+            if (bytes[i]=='\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** Delete a file, or a directory and everything in it.
+     */
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files!=null) {
+            for (int i=0; i<files.length; i++) {
+                delete(files[i]);
+            }
+        }
+        file.delete();
+    }
+
+    /** Generate random sentences of a grammar, with a total length of
+     *  at least numTokens.  Each sentence is an array of token codes,
+     *  ending with ENDINPUT.  Below a randomly chosen depth, or once a
+     *  sentence is long enough, we use the production for each
+     *  nonterminal that gives the shallowest derivations, so that every
+     *  sentence is finite.  Productions that use the error token are
+     *  never chosen.
+     */
+    private static int[][] sentences(Grammar grammar, int numTokens) {
+        int   numNTs  = grammar.getNumNTs();
+        int[] height  = new int[numNTs];
+        int[] minProd = new int[numNTs];
+        for (int nt=0; nt<numNTs; nt++) {
+            height[nt] = Integer.MAX_VALUE;
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int nt=0; nt<numNTs; nt++) {
+                Grammar.Prod[] prods = grammar.getProds(nt);
+                for (int j=0; j<prods.length; j++) {
+                    int h = prodHeight(grammar, height, prods[j]);
+                    if (h<height[nt]) {
+                        height[nt]  = h;
+                        minProd[nt] = j;
+                        changed     = true;
+                    }
+                }
+            }
+        }
+
+        Random  random = new Random(42);
+        int[][] sents  = new int[16][];
+        int     n      = 0;
+        int[]   buf    = new int[64];
+        int[]   stack  = new int[64];   // pairs of symbol and depth
+        for (int total=0; total<numTokens; ) {
+            int len = 0;
+            int sp  = 0;
+            stack[sp++] = 0;            // the start symbol
+            stack[sp++] = 3 + random.nextInt(38);
+            while (sp>0) {
+                int depth = stack[--sp];
+                int sym   = stack[--sp];
+                if (grammar.isTerminal(sym)) {
+                    if (len+1>=buf.length) {
+                        int[] newbuf = new int[2*buf.length];
+                        System.arraycopy(buf, 0, newbuf, 0, len);
+                        buf = newbuf;
+                    }
+                    buf[len++] = ((JaccSymbol)grammar.getSymbol(sym))
+                                  .getNum();
+                } else {
+                    Grammar.Prod[] prods = grammar.getProds(sym);
+                    Grammar.Prod   prod  = prods[minProd[sym]];
+                    if (depth>0 && len<2000) {
+                        Grammar.Prod p
+                            = prods[random.nextInt(prods.length)];
+                        if (prodHeight(grammar, height, p)
+                            <Integer.MAX_VALUE) {
+                            prod = p;
+                        }
+                    }
+                    int[] rhs = prod.getRhs();
+                    if (sp+2*rhs.length>stack.length) {
+                        int[] newstack
+                            = new int[2*(sp+2*rhs.length)];
+                        System.arraycopy(stack, 0, newstack, 0, sp);
+                        stack = newstack;
+                    }
+                    for (int i=rhs.length-1; i>=0; i--) {
+                        stack[sp++] = rhs[i];
+                        stack[sp++] = depth-1;
+                    }
+                }
+            }
+            if (n>=sents.length) {
+                int[][] newsents = new int[2*sents.length][];
+                System.arraycopy(sents, 0, newsents, 0, n);
+                sents = newsents;
+            }
+            sents[n] = new int[len+1];          // ends with ENDINPUT = 0
+            System.arraycopy(buf, 0, sents[n++], 0, len);
+            total += len+1;
+        }
+        int[][] result = new int[n][];
+        System.arraycopy(sents, 0, result, 0, n);
+        return result;
+    }
+
+    /** Return the height of the shallowest derivation tree for a
+     *  production, given the current heights for each nonterminal, or
+     *  Integer.MAX_VALUE if the production uses the error token or a
+     *  nonterminal with no known derivation.
+     */
+    private static int prodHeight(Grammar grammar, int[] height,
+                                  Grammar.Prod prod) {
+        int[] rhs = prod.getRhs();
+        int   h   = 0;
+        for (int i=0; i<rhs.length; i++) {
+            if (grammar.isNonterminal(rhs[i])) {
+                if (height[rhs[i]]==Integer.MAX_VALUE) {
+                    return Integer.MAX_VALUE;
+                }
+                h = Math.max(h, height[rhs[i]]);
+            } else if (grammar.getSymbol(rhs[i]).getName().equals("error")) {
+                return Integer.MAX_VALUE;
+            }
+        }
+        return h+1;
+    }
+}
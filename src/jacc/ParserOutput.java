@@ -6,6 +6,7 @@
 package jacc;
 
 import java.io.PrintWriter;
+import java.util.Arrays;
 import jacc.grammar.Grammar;
 import jacc.grammar.Tables;
 import compiler.Handler;
@@ -27,11 +28,14 @@ import compiler.Failure;
  *  I wanted to reduce the amount of code that appears in the main
  *  parser loop because current JVMs don't allow methods with more than
  *  64K of bytecode ... which could be a problem for large parsers.
+ *  For very large grammars, a table driven parser, with yacc style
+ *  packed tables, can be generated instead.
  */
 public class ParserOutput extends Output {
     public ParserOutput(Handler handler, JaccJob job) {
         super(handler, job);
         tables.analyzeRows();
+        tables.mergeStates();
     }
 
     /** Output a description of a generated machine to a Writer.
@@ -59,19 +63,14 @@ public class ParserOutput extends Output {
         int[] ntBranchCount = new int[numNTs];
         stNumSwitches       = new int[numStates];
         for (int i=0; i<numStates; i++) {
+            if (isMerged(i)) {
+                continue;
+            }
             int[] ts = machine.getGotosAt(i);
             for (int j=0; j<ts.length; j++) {
                 ntBranchCount[machine.getEntry(ts[j])]++;
             }
-            byte[] action    = tables.getActionAt(i);
-            int[]  arg       = tables.getArgAt(i);
-            int    def       = tables.getDefaultRowAt(i);
-            stNumSwitches[i] = 0;
-            for (int j=0; j<action.length; j++) {
-                if (def<0 || action[j]!=action[def] || arg[j]!=arg[def]) {
-                    stNumSwitches[i]++;
-                }
-            }
+            stNumSwitches[i] = isLazyAt(i) ? 0 : tables.indexAt(i).length;
         }
 
         ntGoto     = new int[numNTs][];
@@ -83,10 +82,13 @@ public class ParserOutput extends Output {
             ntGotoSrc[nt] = new int[ntBranchCount[nt]];
         }
         for (int i=0; i<numStates; i++) {
+            if (isMerged(i)) {
+                continue;
+            }
             int[] ts = machine.getGotosAt(i);
             for (int j=0; j<ts.length; j++) {
                 int nt = machine.getEntry(ts[j]);
-                ntGoto[nt][--ntBranchCount[nt]]  = ts[j];
+                ntGoto[nt][--ntBranchCount[nt]]  = tables.getMergedAt(ts[j]);
                 ntGotoSrc[nt][ntBranchCount[nt]] = i;
             }
         }
@@ -149,27 +151,46 @@ public class ParserOutput extends Output {
         if (errUsed) {
             indent(out, 1, "private int yyerrstatus = 3;");
         }
+        if (settings.getLazyLookahead()) {
+            indent(out, 1, "private boolean yypending = false;");
+        }                               // next token not yet read
         indent(out, 1, "private " + settings.getTypeName() + "[] yysv;");
                                         // holds semantic stack
         indent(out, 1, "private " + settings.getTypeName() + " yyrv;");
                                         // holds semantic result of prod'n
         out.println();
 
-        defineParse(out, 1);
+        boolean tabled = settings.getTableDriven();
+        if (tabled) {
+            defineTableParse(out, 1);
+        } else {
+            defineParse(out, 1);
+        }
         defineExpand(out, 1);
         defineErrRec(out, 1);
-        for (int st=0; st<numStates; st++) {
-            defineState(out, 1, st);
+        if (tabled) {
+            defineReduceSwitch(out, 1);
+        } else {
+            for (int st=0; st<numStates; st++) {
+                if (!isMerged(st)) {
+                    defineState(out, 1, st);
+                }
+            }
         }
         for (int i=0; i<numNTs; i++) {
             Grammar.Prod[] prods = grammar.getProds(i);
             for (int j=0; j<prods.length; j++) {
                 defineReduce(out, 1, prods[j], i);
             }
-            defineNonterminal(out, 1, i);
+            if (!tabled) {
+                defineNonterminal(out, 1, i);
+            }
         }
 
         defineErrMsgs(out);
+        if (tabled) {
+            defineTables(out, 1);
+        }
 
         if (settings.getPostText()!=null) {
             out.println(settings.getPostText());
@@ -181,7 +202,7 @@ public class ParserOutput extends Output {
     /** Output the array of custom error messages.
      */
     private void defineErrMsgs(PrintWriter out) {
-        if (errMsgs) {
+        if (errMsgs && !settings.getTableDriven()) {
             indent(out, 1, new String[] {
               "private int yyerr(int e, int n) {",
               "    yyerrno = e;",
@@ -208,6 +229,22 @@ public class ParserOutput extends Output {
     private int yyaccept, yyabort;
     private int stack_overflow, error_handler, user_error_handler;
 
+    /** Test to see if a state has been merged with a lower numbered
+     *  state, in which case no code is generated for it, and all uses
+     *  refer to the lower numbered state instead.
+     */
+    private boolean isMerged(int st) {
+        return tables.getMergedAt(st)!=st;
+    }
+
+    /** Test to see if the generated code for a state should reduce
+     *  without reading the next token.  This is only done when the
+     *  user has asked for lazy lookahead, and only in consistent states.
+     */
+    private boolean isLazyAt(int st) {
+        return settings.getLazyLookahead() && tables.isConsistentAt(st);
+    }
+
     /** Records the number of cases to switch over at each state.
      */
     private int[] stNumSwitches;
@@ -274,6 +311,14 @@ public class ParserOutput extends Output {
             indent(out, ind,   "}");
             out.println();
             indent(out,ind, "public void yyclearin() {");
+            if (settings.getLazyLookahead()) {
+                indent(out, ind+1, new String[] {
+                    "if (yypending) {",
+                    "    yypending = false;",
+                    "    " + settings.getNextToken(),
+                    "    ;",
+                    "}" });
+            }
             indent(out, ind+1, "yytok = (" + settings.getNextToken());
             indent(out, ind+1, "        );");
             indent(out,ind, "}");
@@ -292,6 +337,9 @@ public class ParserOutput extends Output {
         if (errUsed) {
             indent(out, ind+1, "yyerrstatus = 3;");
         }
+        if (settings.getLazyLookahead()) {
+            indent(out, ind+1, "yypending = false;");
+        }
         if (errMsgs) {
             indent(out, ind+1, "yyerrno = (-1);");
         }
@@ -303,7 +351,9 @@ public class ParserOutput extends Output {
             "    for (;;) {",
             "        switch (yyn) {" });
         for (int st=0; st<numStates; st++) {
-            stateCases(out, ind+3, st);
+            if (!isMerged(st)) {
+                stateCases(out, ind+3, st);
+            }
         }
 
         // Stack overflow, accept, and abort:
@@ -333,8 +383,12 @@ public class ParserOutput extends Output {
         if (grammar.isTerminal(machine.getEntry(st))) {
             indent(out, ind+1, "yysv[yysp] = (" + settings.getGetSemantic());
             indent(out, ind+1, "             );");
-            indent(out, ind+1, "yytok = (" + settings.getNextToken());
-            indent(out, ind+1, "        );");
+            if (isLazyAt(st)) {
+                indent(out, ind+1, "yypending = true;");
+            } else {
+                indent(out, ind+1, "yytok = (" + settings.getNextToken());
+                indent(out, ind+1, "        );");
+            }
             if (errUsed) {
                 indent(out, ind+1, "yyerrstatus++;");
             }
@@ -346,7 +400,23 @@ public class ParserOutput extends Output {
             "}" });
 
         indent(out, ind, "case "+(st+numStates)+":");
-        if (stNumSwitches[st]>5) {
+        if (settings.getLazyLookahead()
+            && grammar.isNonterminal(machine.getEntry(st))
+            && !tables.isConsistentAt(st)) {
+            // Read the next token, if that was put off in an earlier state
+            indent(out, ind+1, new String[] {
+                "if (yypending) {",
+                "    yypending = false;",
+                "    yytok = (" + settings.getNextToken(),
+                "            );",
+                "}" });
+        }
+        if (isLazyAt(st)) {
+            continueTo(out, ind+1,
+                       codeAction(st, Tables.REDUCE,
+                                  tables.getRowArgsAt(st)[0]),
+                       true);
+        } else if (stNumSwitches[st]>5) {
             continueTo(out, ind+1, "yys"+st+"()", true);
         } else {
             switchState(out, ind+1, st, true);
@@ -381,35 +451,30 @@ public class ParserOutput extends Output {
     /** Generate the main switch for a particular state.
      */
     private void switchState(PrintWriter out, int ind, int st, boolean inLoop) {
-        byte[] action = tables.getActionAt(st);
-        int[]  arg    = tables.getArgAt(st);
-        int    def    = tables.getDefaultRowAt(st);
+        int def = tables.getDefaultActionAt(st);
         if (stNumSwitches[st]>0) {
             indent(out, ind, "switch (yytok) {");
             int[] idx = tables.indexAt(st);
             for (int j=0; j<idx.length;) {
-                int  oj = idx[j];
-                byte aj = action[oj];
-                int  bj = arg[oj];
+                int  aj = tables.getAction(st, idx[j]);
+                int  bj = tables.getArg(st, idx[j]);
                 int  k  = j;
-                while (++k<idx.length && action[idx[k]]==aj
-                                      && arg[idx[k]]==bj) {
+                while (++k<idx.length && tables.getAction(st, idx[k])==aj
+                                      && tables.getArg(st, idx[k])==bj) {
                     // empty body
                 }
                 // rows idx[j], idx[j+1], ... , idx[k-1] are the same
-                if (def<0 || aj!=action[def] || bj!=arg[def]) {
-                    for (int l=j; l<k; l++) {
-                        indent(out, ind+1);
-                        out.print("case ");
-                        if (idx[l]==numTs-1) {
-                            out.print("ENDINPUT");
-                        } else {
-                            out.print(grammar.getTerminal(idx[l]).getName());
-                        }
-                        out.println(":");
+                for (int l=j; l<k; l++) {
+                    indent(out, ind+1);
+                    out.print("case ");
+                    if (idx[l]==numTs-1) {
+                        out.print("ENDINPUT");
+                    } else {
+                        out.print(grammar.getTerminal(idx[l]).getName());
                     }
-                    continueTo(out, ind+2, codeAction(st, aj, bj), inLoop);
+                    out.println(":");
                 }
+                continueTo(out, ind+2, codeAction(st, aj, bj), inLoop);
                 j = k;
             }
             indent(out, ind, "}");
@@ -418,7 +483,7 @@ public class ParserOutput extends Output {
             continueTo(out, ind, Integer.toString(error_handler), inLoop);
         } else {
             continueTo(out, ind,
-                       codeAction(st, action[def], arg[def]),
+                       codeAction(st, def, tables.getDefaultArgAt(st)),
                        inLoop);
         }
     }
@@ -432,7 +497,8 @@ public class ParserOutput extends Output {
         } else if (act==Tables.REDUCE) {
             return "yyr" + machine.reduceItem(st,arg).getSeqNo() +"()";
         } else {
-            return Integer.toString((arg<0) ? yyaccept : arg);
+            return Integer.toString((arg<0) ? yyaccept
+                                            : tables.getMergedAt(arg));
         }
     }
 
@@ -448,9 +514,11 @@ public class ParserOutput extends Output {
     private void defineReduce(PrintWriter out, int ind,
                               Grammar.Prod prod, int nt) {
         if (prod instanceof JaccProd && ntDefault[nt]>=0) {
-            JaccProd jprod = (JaccProd)prod;
+            JaccProd jprod  = (JaccProd)prod;
+            boolean  tabled = settings.getTableDriven();
             indent(out, ind);
-            out.print("private int yyr" + jprod.getSeqNo() + "() { // ");
+            out.print("private " + (tabled ? "void" : "int"));
+            out.print(" yyr" + jprod.getSeqNo() + "() { // ");
             out.print(grammar.getSymbol(nt).getName() + " : ");
             out.println(grammar.displaySymbols(jprod.getRhs(),
                                                "/* empty */", " "));
@@ -463,7 +531,9 @@ public class ParserOutput extends Output {
             } else if (n>0) {
                 indent(out, ind+1, "yysp -= " + n + ";");
             }
-            gotoNonterminal(out, ind+1, nt);
+            if (!tabled) {
+                gotoNonterminal(out, ind+1, nt);
+            }
             indent(out, ind, "}");
             out.println();
         }
@@ -614,11 +684,15 @@ public class ParserOutput extends Output {
                 "        switch(yyst[yysp-1]) {"});
 
             for (int st=0; st<numStates; st++) {
+                if (isMerged(st)) {
+                    continue;
+                }
                 int[] shifts = machine.getShiftsAt(st);
                 for (int j=0; j<shifts.length; j++) {
                     if (machine.getEntry(shifts[j])==errTok) {
+                        int dst = tables.getMergedAt(shifts[j]);
                         indent(out, ind+4, "case " + st + ":");
-                        indent(out, ind+5, "yyn = " + shifts[j] + ";");
+                        indent(out, ind+5, "yyn = " + dst + ";");
                         indent(out, ind+5, "continue loop;");
                     }
                 }
@@ -632,4 +706,431 @@ public class ParserOutput extends Output {
                 "}"});
         }
     }
+
+    //- Table driven parsers -------------------------------------------------
+
+    /** Output the main loop for a table driven parser.  Each iteration
+     *  of the outer loop pushes the state in yyn.  The inner loop then
+     *  looks up the action for the state on top of the stack and the
+     *  current token, using the default for the state if there is no
+     *  matching entry in the packed tables.  Actions are encoded as
+     *  described in defineTables().
+     */
+    private void defineTableParse(PrintWriter out, int ind) {
+        boolean lazy = settings.getLazyLookahead();
+        indent(out, ind, "public boolean parse() {");
+        indent(out, ind+1, new String[] {
+            "int yyn = 0;",
+            "yysp = 0;",
+            "yyst = new int[yyss];" });
+        if (errUsed) {
+            indent(out, ind+1, "yyerrstatus = 3;");
+        }
+        if (lazy) {
+            indent(out, ind+1, "yypending = false;");
+        }
+        if (errMsgs) {
+            indent(out, ind+1, "yyerrno = (-1);");
+        }
+        indent(out, ind+1, "yysv = new " + settings.getTypeName() + "[yyss];");
+        indent(out, ind+1, "yytok = (" + settings.getGetToken());
+        indent(out, ind+1, "         );");
+        indent(out, ind, new String[] {
+            "loop:",
+            "    for (;;) {",
+            "        yyst[yysp] = yyn;",
+            "        if (++yysp>=yyst.length) {",
+            "            yyexpand();",
+            "        }",
+            "        for (;;) {",
+            "            int yys   = yyst[yysp-1];",
+            "            int yyact = yydefact[yys];",
+            "            int yyi   = yypact[yys];" });
+        int ind3 = ind+3;
+        if (lazy) {
+            // States that do not need the next token have no row
+            indent(out, ind3, "if (yyi!=" + LAZY + ") {");
+            indent(out, ind3+1, new String[] {
+                "if (yypending) {",
+                "    yypending = false;",
+                "    yytok = (" + settings.getNextToken(),
+                "            );",
+                "}" });
+            lookupAction(out, ind3+1);
+            indent(out, ind3, "}");
+        } else {
+            lookupAction(out, ind3);
+        }
+
+        indent(out, ind3, new String[] {
+            "if (yyact<0) {",
+            "    yyreduce(-yyact);",
+            "    int yynt = yylhs[-yyact];",
+            "    yys = yyst[yysp-1];",
+            "    yyi = yypgoto[yynt] + yys;",
+            "    if (yyi>=0 && yyi<yycheck.length && yycheck[yyi]==yys) {",
+            "        yyn = yytable[yyi];",
+            "    } else {",
+            "        yyn = yydefgoto[yynt];",
+            "    }",
+            "    continue loop;",
+            "} else if (yyact>0 && yyact<" + numStates + ") {" });
+        shiftToken(out, ind3+1);
+        indent(out, ind3, new String[] {
+            "    yyn = yyact;",
+            "    continue loop;",
+            "} else if (yyact==" + numStates + ") {",
+            "    return true;",
+            "}" });
+        if (errMsgs) {
+            indent(out, ind3, new String[] {
+                "if (yyact>" + numStates + ") {",
+                "    yyerrno = yyact - " + (numStates+1) + ";",
+                "}" });
+        }
+        tableErrorCases(out, ind3);
+        indent(out, ind, new String[] {
+               "        }",
+               "    }",
+               "}" });
+        out.println();
+    }
+
+    /** The base that is used in yypact for a state that reduces without
+     *  reading the next token.
+     */
+    private static final String LAZY = "Integer.MIN_VALUE";
+
+    /** Produce code to find the entry for the current token in the row
+     *  whose base is in yyi, replacing the default in yyact if there is
+     *  a matching entry.
+     */
+    private void lookupAction(PrintWriter out, int ind) {
+        indent(out, ind, new String[] {
+            "int yyt = (yytok>=0 && yytok<yytrans.length)",
+            "          ? yytrans[yytok] : " + numTs + ";",
+            "yyi += yyt;",
+            "if (yyi>=0 && yyi<yycheck.length && yycheck[yyi]==yyt) {",
+            "    yyact = yytable[yyi];",
+            "}" });
+    }
+
+    /** Produce code to shift the current token, after its state has been
+     *  stored in yyn.
+     */
+    private void shiftToken(PrintWriter out, int ind) {
+        indent(out, ind, "yysv[yysp] = (" + settings.getGetSemantic());
+        indent(out, ind, "             );");
+        if (settings.getLazyLookahead()) {
+            indent(out, ind, "yypending = true;");
+        } else {
+            indent(out, ind, "yytok = (" + settings.getNextToken());
+            indent(out, ind, "        );");
+        }
+        if (errUsed) {
+            indent(out, ind, "yyerrstatus++;");
+        }
+    }
+
+    /** Produce code to report a syntax error, and to recover from it if
+     *  the grammar uses the error token.  This follows the same steps as
+     *  errorCases() in the generated code for each state, except that
+     *  the state to shift to on the error token is found in the tables.
+     */
+    private void tableErrorCases(PrintWriter out, int ind) {
+        if (!errUsed) {
+            indent(out, ind, new String[] {
+                "yyerror(\"syntax error\");",
+                "return false;"});
+        } else {
+            int errIdx = errTok - numNTs;
+            indent(out, ind, new String[] {
+                "if (yyerrstatus>2) {",
+                "    yyerror(\"syntax error\");",
+                "}",
+                "if (yyerrstatus==0) {",
+                "    if ((" + settings.getGetToken(),
+                "         )==ENDINPUT) {",
+                "        return false;",
+                "    }",
+                "    " + settings.getNextToken(),
+                "    ;",
+                "    continue;",
+                "}",
+                "yyerrstatus = 0;",
+                "while (yysp>0) {",
+                "    yys = yyst[yysp-1];",
+                "    yyi = yypact[yys] + " + errIdx + ";",
+                "    if (yyi>=0 && yyi<yycheck.length"
+                                  + " && yycheck[yyi]==" + errIdx,
+                "        && yytable[yyi]>0"
+                                  + " && yytable[yyi]<" + numStates + ") {",
+                "        yyn = yytable[yyi];" });
+            shiftToken(out, ind+2);
+            indent(out, ind, new String[] {
+                "        continue loop;",
+                "    }",
+                "    yysp--;",
+                "}",
+                "return false;" });
+        }
+    }
+
+    /** Output the function that a table driven parser uses to call the
+     *  reduce function for a given production.  Productions are taken
+     *  in blocks of 1024, with a separate switch for each block, so
+     *  that the size of each method stays well within the limits of
+     *  the JVM.
+     */
+    private void defineReduceSwitch(PrintWriter out, int ind) {
+        int[] seqNos = new int[grammar.getNumProds()];
+        int   n      = 0;
+        for (int nt=0; nt<numNTs; nt++) {
+            if (ntDefault[nt]>=0) {
+                Grammar.Prod[] prods = grammar.getProds(nt);
+                for (int j=0; j<prods.length; j++) {
+                    if (prods[j] instanceof JaccProd) {
+                        seqNos[n++] = prods[j].getSeqNo();
+                    }
+                }
+            }
+        }
+        Arrays.sort(seqNos, 0, n);
+        int numBlocks = (n==0) ? 1 : 1 + (seqNos[n-1] >> 10);
+        if (numBlocks>1) {
+            indent(out, ind,   "private void yyreduce(int yyr) {");
+            indent(out, ind+1, "switch (yyr >> 10) {");
+            for (int b=0; b<numBlocks; b++) {
+                indent(out, ind+2, "case " + b + ": yyreduce" + b
+                                   + "(yyr); break;");
+            }
+            indent(out, ind+1, "}");
+            indent(out, ind,   "}");
+            out.println();
+        }
+        for (int b=0, i=0; b<numBlocks; b++) {
+            String name = (numBlocks>1) ? ("yyreduce" + b) : "yyreduce";
+            indent(out, ind,   "private void " + name + "(int yyr) {");
+            indent(out, ind+1, "switch (yyr) {");
+            for (; i<n && (seqNos[i]>>10)==b; i++) {
+                indent(out, ind+2, "case " + seqNos[i] + ": yyr"
+                                   + seqNos[i] + "(); break;");
+            }
+            indent(out, ind+1, "}");
+            indent(out, ind,   "}");
+            out.println();
+        }
+    }
+
+    /** Output the packed parse tables for a table driven parser.  The
+     *  entries for state st are in a row of yytable and yycheck, using
+     *  the base in yypact[st] and the token number as the key, and
+     *  yydefact[st] gives the action for every token that is not in the
+     *  row.  Actions are encoded as follows: 0 is an error, n>0 shifts
+     *  to state n, numStates accepts, numStates+1+e is an error with
+     *  custom message e, and n<0 reduces with the production whose
+     *  sequence number is -n.  Similarly, the gotos for nonterminal nt
+     *  are in a row with base yypgoto[nt], using the state as the key,
+     *  with default yydefgoto[nt].  Rows that are the same as the
+     *  default are not stored, and neither are the rows for states
+     *  that have been merged.
+     */
+    private void defineTables(PrintWriter out, int ind) {
+        CombVector comb   = new CombVector(numStates + numNTs);
+        int[]      defact = new int[numStates];
+        int[]      keys   = new int[Math.max(numTs, numStates)];
+        int[]      vals   = new int[keys.length];
+        for (int st=0; st<numStates; st++) {
+            if (isMerged(st)) {
+                continue;
+            } else if (isLazyAt(st)) {
+                defact[st] = encodeAction(st, Tables.REDUCE,
+                                          tables.getRowArgsAt(st)[0]);
+                continue;
+            }
+            int def    = tables.getDefaultActionAt(st);
+            defact[st] = (def<0) ? 0
+                         : encodeAction(st, def, tables.getDefaultArgAt(st));
+            int[] idx  = tables.indexAt(st);
+            int   n    = 0;
+            for (int j=0; j<idx.length; j++) {
+                int v = encodeAction(st, tables.getAction(st, idx[j]),
+                                         tables.getArg(st, idx[j]));
+                if (v!=defact[st]) {
+                    keys[n]   = idx[j];
+                    vals[n++] = v;
+                }
+            }
+            comb.setRow(st, keys, vals, n);
+        }
+
+        int[] defgoto = new int[numNTs];
+        for (int nt=0; nt<numNTs; nt++) {
+            if (ntDefault[nt]>=0) {
+                defgoto[nt] = ntGoto[nt][ntDefault[nt]];
+                int n = 0;
+                for (int j=0; j<ntGoto[nt].length; j++) {
+                    if (ntGoto[nt][j]!=defgoto[nt]) {
+                        keys[n]   = ntGotoSrc[nt][j];
+                        vals[n++] = ntGoto[nt][j];
+                    }
+                }
+                comb.setRow(numStates+nt, keys, vals, n);
+            }
+        }
+        comb.pack();
+
+        // Merged states are never entered, so their entries are only
+        // filled in to keep the tables tidy.
+        int[] pact = new int[numStates];
+        for (int st=0; st<numStates; st++) {
+            int rep    = tables.getMergedAt(st);
+            pact[st]   = isLazyAt(rep) ? Integer.MIN_VALUE : comb.getBase(rep);
+            defact[st] = defact[rep];
+        }
+        int[] pgoto = new int[numNTs];
+        for (int nt=0; nt<numNTs; nt++) {
+            pgoto[nt] = comb.getBase(numStates+nt);
+        }
+        int[] lhs = new int[grammar.getNumProds()+1];
+        for (int nt=0; nt<numNTs; nt++) {
+            Grammar.Prod[] prods = grammar.getProds(nt);
+            for (int j=0; j<prods.length; j++) {
+                int seqNo = prods[j].getSeqNo();
+                if (seqNo>=lhs.length) {
+                    lhs = Arrays.copyOf(lhs, seqNo+1);
+                }
+                lhs[seqNo] = nt;
+            }
+        }
+        int[] codes = new int[numTs];
+        for (int t=0; t<numTs-1; t++) {
+            codes[t] = ((JaccSymbol)grammar.getTerminal(t)).getNum();
+        }
+        codes[numTs-1] = 0;     // ENDINPUT
+
+        out.println();
+        defineArray(out, ind, "yypact",    pact);
+        defineArray(out, ind, "yydefact",  defact);
+        defineArray(out, ind, "yypgoto",   pgoto);
+        defineArray(out, ind, "yydefgoto", defgoto);
+        defineArray(out, ind, "yytable",   comb.getTable());
+        defineArray(out, ind, "yycheck",   comb.getCheck());
+        defineArray(out, ind, "yylhs",     lhs);
+        defineArray(out, ind, "yytokens",  codes);
+        indent(out, ind, "private static final int[] yytrans"
+                         + " = yytranslate(yytokens);");
+        out.println();
+        indent(out, ind, new String[] {
+            "private static int[] yyunpack(int len, String[] strs) {",
+            "    int[] vals = new int[len];",
+            "    int   n    = 0;",
+            "    for (int i=0; i<strs.length; i++) {",
+            "        String s = strs[i];",
+            "        for (int j=0; j<s.length(); j++) {",
+            "            int c = s.charAt(j);",
+            "            if (c==0xffff) {",
+            "                c  = (s.charAt(j+1) << 16) | s.charAt(j+2);",
+            "                j += 2;",
+            "            }",
+            "            vals[n++] = c;",
+            "        }",
+            "    }",
+            "    return vals;",
+            "}" });
+        out.println();
+        indent(out, ind, new String[] {
+            "private static int[] yytranslate(int[] codes) {",
+            "    int max = 0;",
+            "    for (int i=0; i<codes.length; i++) {",
+            "        max = Math.max(max, codes[i]);",
+            "    }",
+            "    int[] trans = new int[max+1];",
+            "    for (int i=0; i<=max; i++) {",
+            "        trans[i] = codes.length;",
+            "    }",
+            "    for (int i=0; i<codes.length; i++) {",
+            "        trans[codes[i]] = i;",
+            "    }",
+            "    return trans;",
+            "}" });
+    }
+
+    /** Return the code for a particular action in a table driven parser.
+     */
+    private int encodeAction(int st, int act, int arg) {
+        if (act==Tables.NONE) {
+            return (arg==0) ? 0 : (numStates + arg);
+        } else if (act==Tables.REDUCE) {
+            return -machine.reduceItem(st, arg).getSeqNo();
+        } else {
+            return (arg<0) ? numStates : tables.getMergedAt(arg);
+        }
+    }
+
+    /** Output the declaration of a constant array of integers.  The
+     *  values are stored in string literals, which take much less space
+     *  in the class initializer than an array initializer would.  Each
+     *  value from 0 to 0xfffe is a single character, and other values
+     *  are written as 0xffff followed by the high and low halves.  A
+     *  new string is started before the limit on the length of a string
+     *  constant is reached.
+     */
+    private void defineArray(PrintWriter out, int ind,
+                             String name, int[] vals) {
+        indent(out, ind, "private static final int[] " + name
+                         + " = yyunpack(" + vals.length
+                         + ", new String[] {");
+        int i = 0;
+        do {
+            StringBuffer line  = new StringBuffer("\"");
+            int          bytes = 0;     // length in the class file
+            while (i<vals.length && bytes<60000) {
+                bytes += appendValue(line, vals[i++]);
+                if (line.length()>=56 && i<vals.length && bytes<60000) {
+                    indent(out, ind+2, line + "\" +");
+                    line = new StringBuffer("\"");
+                }
+            }
+            indent(out, ind+2, line + ((i<vals.length) ? "\"," : "\""));
+        } while (i<vals.length);
+        indent(out, ind, "});");
+        out.println();
+    }
+
+    /** Append the encoding of a value to a string literal, returning the
+     *  number of bytes that it will take in the class file.
+     */
+    private static int appendValue(StringBuffer buf, int v) {
+        if (v>=0 && v<0xffff) {
+            return appendChar(buf, (char)v);
+        } else {
+            return appendChar(buf, (char)0xffff)
+                 + appendChar(buf, (char)(v >>> 16))
+                 + appendChar(buf, (char)v);
+        }
+    }
+
+    /** Append a character to a string literal, using an escape if it
+     *  is not a printable ASCII character, and return the number of
+     *  bytes that it will take in the class file.
+     */
+    private static int appendChar(StringBuffer buf, char c) {
+        if (c>=' ' && c<='~' && c!='"' && c!='\\') {
+            buf.append(c);
+        } else if (c<0x100) {
+            buf.append('\\');
+            buf.append((char)('0' + (c>>6)));
+            buf.append((char)('0' + ((c>>3) & 7)));
+            buf.append((char)('0' + (c & 7)));
+        } else {
+            String hex = Integer.toHexString(c);
+            buf.append("\\u");
+            for (int k=hex.length(); k<4; k++) {
+                buf.append('0');
+            }
+            buf.append(hex);
+        }
+        return (c!=0 && c<0x80) ? 1 : ((c<0x800) ? 2 : 3);
+    }
 }
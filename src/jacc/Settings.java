@@ -6,10 +6,12 @@
 package jacc;
 
 import jacc.grammar.Grammar;
+import jacc.grammar.IncrementalBuild;
 import jacc.grammar.LookaheadMachine;
 import jacc.grammar.LR0Machine;
 import jacc.grammar.SLRMachine;
-import jacc.grammar.LALRMachine;
+import jacc.grammar.DigraphLALRMachine;
+import jacc.grammar.LR1Machine;
 
 /** Records settings for Jacc generated parsers.
  */
@@ -30,6 +32,10 @@ public class Settings {
      */
     public static final int LALR1 = 2;
 
+    /** Indicates that the grammar should be treated as LR(1).
+     */
+    public static final int LR1   = 3;
+
     /** Set the type of the machine to be generated.
      */
     public void setMachineType(int machineType) {
@@ -45,19 +51,104 @@ public class Settings {
     /** Generate a machine of the appropriate type from a grammar.
      *  This localizes the connection between the symbolic constants for
      *  machine types specified above and the classes that are used to
-     *  implement them.
+     *  implement them.  LALR(1) lookaheads are calculated using the
+     *  DeRemer and Pennello method, which gives the same results as
+     *  LALRMachine, but is faster on the grammars that we have tried.
      */
     public LookaheadMachine makeMachine(Grammar grammar) {
+        return makeMachine(grammar, null);
+    }
+
+    /** Generate a machine of the appropriate type from a grammar, reusing
+     *  what we can from a previous build (or building from scratch if
+     *  previous is null).  LR(1) machines are always built from scratch
+     *  because their states are not determined by their kernels.
+     */
+    public LookaheadMachine makeMachine(Grammar grammar,
+                                        IncrementalBuild previous) {
         if (machineType == LR0) {
-            return new LR0Machine(grammar);
+            return new LR0Machine(grammar, numThreads, previous);
         } else if (machineType == SLR1) {
-            return new SLRMachine(grammar);
+            return new SLRMachine(grammar, numThreads, previous);
+        } else if (machineType == LR1) {
+            return new LR1Machine(grammar, numThreads);
         } else {
-            return new LALRMachine(grammar);
+            return new DigraphLALRMachine(grammar, numThreads, previous);
         }
     }
 
 
+    //- Number of threads used to build the machine ---------------------------
+    private int numThreads = 1;
+
+    /** Set the number of threads that can be used to build the machine.
+     *  The generated machine is the same for any number of threads.
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    /** Return the number of threads that can be used to build the machine.
+     */
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+
+    //- Directory used to cache machines and tables ---------------------------
+    private String cacheDir;
+
+    /** Set the directory in which machines and parse tables are cached,
+     *  or null if no cache should be used.
+     */
+    public void setCacheDir(String cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /** Return the directory in which machines and parse tables are cached,
+     *  or null if no cache should be used.
+     */
+    public String getCacheDir() {
+        return cacheDir;
+    }
+
+
+    //- Reading lookahead tokens only when they are needed --------------------
+    private boolean lazyLookahead = false;
+
+    /** Set whether the generated parser should delay reading the next
+     *  token until it reaches a state whose action depends on it.
+     */
+    public void setLazyLookahead(boolean lazyLookahead) {
+        this.lazyLookahead = lazyLookahead;
+    }
+
+    /** Return true if the generated parser should delay reading the
+     *  next token until it reaches a state whose action depends on it.
+     */
+    public boolean getLazyLookahead() {
+        return lazyLookahead;
+    }
+
+
+    //- Style of generated parser ---------------------------------------------
+    private boolean tableDriven = false;
+
+    /** Set whether the generated parser should use packed tables and a
+     *  fixed driver loop instead of generating code for each state.
+     */
+    public void setTableDriven(boolean tableDriven) {
+        this.tableDriven = tableDriven;
+    }
+
+    /** Return true if the generated parser should use packed tables and
+     *  a fixed driver loop instead of generating code for each state.
+     */
+    public boolean getTableDriven() {
+        return tableDriven;
+    }
+
+
     //- Name of the package for generated classes -----------------------------
     private String packageName;
 
@@ -0,0 +1,880 @@
+// Copyright (c) Mark P Jones, OGI School of Science & Engineering
+// Subject to conditions of distribution and use; see LICENSE for details
+// 
+
+package jacc;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import jacc.grammar.DigraphLALRMachine;
+import jacc.grammar.Grammar;
+import jacc.grammar.IncrementalBuild;
+import jacc.grammar.LR0Items;
+import jacc.grammar.LookaheadMachine;
+import jacc.grammar.RestoredMachine;
+import jacc.util.IntSet;
+import jacc.util.TokenSet;
+
+/** Saves and loads snapshots of the machine, conflicts, and parse tables
+ *  that are built for a grammar.  Snapshots are stored in a cache
+ *  directory, in files whose names are calculated from a fingerprint of
+ *  the grammar, the machine type, and the version of jacc, so that a
+ *  snapshot is only ever used for the grammar that it was built from.
+ *  The grammar itself is still read from the input each time because
+ *  semantic actions, and other text in the input, can change without
+ *  affecting the tables.  Snapshots are read using memory mapped I/O.
+ */
+class Snapshot {
+    /** Identifies the format of snapshot files.  This must be changed
+     *  whenever the format changes, and whenever a change to jacc could
+     *  produce different machines or tables for the same grammar.
+     */
+    private static final int VERSION = 7;
+
+    /** Appears at the start of every snapshot file ("Jacc").
+     */
+    private static final int MAGIC = 0x4a616363;
+
+    /** The suffix for snapshot files.
+     */
+    private static final String SUFFIX = ".snap";
+
+    /** The suffix for files that record the most recent snapshot for a
+     *  parser.
+     */
+    private static final String LAST_SUFFIX = ".last";
+
+    private JaccResolver     resolver;
+    private JaccTables       tables;
+    private IncrementalBuild previous;
+
+    private Snapshot(JaccResolver resolver, JaccTables tables) {
+        this.resolver = resolver;
+        this.tables   = tables;
+    }
+
+    /** Return the resolver that was loaded from a snapshot.
+     */
+    JaccResolver getResolver() {
+        return resolver;
+    }
+
+    /** Return the tables (and hence the machine) that were loaded from
+     *  a snapshot.
+     */
+    JaccTables getTables() {
+        return tables;
+    }
+
+    /** Return an incremental build that reuses the machine and tables
+     *  from a snapshot that was loaded by loadPrevious().
+     */
+    IncrementalBuild getIncrementalBuild() {
+        return previous;
+    }
+
+    //---------------------------------------------------------------------
+    // Fingerprints:
+
+    /** Return the name of the file in a given cache directory that
+     *  would hold a snapshot with the given key.
+     */
+    static File fileFor(String cacheDir, String key) {
+        return new File(cacheDir, key + SUFFIX);
+    }
+
+    /** Return the name of the file in a given cache directory that holds
+     *  the key of the most recent snapshot for a given parser and type
+     *  of machine.
+     */
+    private static File lastFor(String cacheDir, String name,
+                                int machineType) {
+        return new File(cacheDir, name + "-" + machineType + LAST_SUFFIX);
+    }
+
+    /** Calculate a key for the snapshot of a given grammar and type of
+     *  machine.  The key covers everything that can affect the machine
+     *  and tables: the symbols and their fixities, the productions in
+     *  order, and the version of jacc.  The version is the build time
+     *  that is recorded in the manifest of the jacc jar file, so every
+     *  new build of jacc uses new keys.  If there is no version, for
+     *  example because jacc is not running from its jar file, then we
+     *  cannot tell whether a snapshot was made by the same code, so
+     *  the result is null, and no cache is used.
+     */
+    static String fingerprint(Grammar grammar, int machineType) {
+        byte[] desc = describe(grammar, machineType);
+        if (desc==null) {
+            return null;
+        }
+        try {
+            byte[]       hash = MessageDigest.getInstance("SHA-256")
+                                             .digest(desc);
+            StringBuffer buf  = new StringBuffer();
+            for (int i=0; i<hash.length; i++) {
+                buf.append(Character.forDigit((hash[i]>>4) & 0xf, 16));
+                buf.append(Character.forDigit(hash[i] & 0xf, 16));
+            }
+            return buf.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return null;            // run without a cache
+        }
+    }
+
+    /** Describe a grammar and type of machine, together with the version
+     *  of jacc, as an array of bytes.  The fingerprint of a grammar is
+     *  calculated from this description, and it is also stored in each
+     *  snapshot so that the grammar can be reconstructed when the
+     *  snapshot is used for an incremental build.  Returns null if the
+     *  version of jacc is not known.
+     */
+    private static byte[] describe(Grammar grammar, int machineType) {
+        String impl = Snapshot.class.getPackage().getImplementationVersion();
+        if (impl==null) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream      out   = new DataOutputStream(bytes);
+        try {
+            out.writeInt(VERSION);
+            out.writeUTF(impl);
+            out.writeInt(machineType);
+            int numSyms = grammar.getNumSyms();
+            int numNTs  = grammar.getNumNTs();
+            out.writeInt(numSyms);
+            out.writeInt(numNTs);
+            for (int i=0; i<numSyms; i++) {
+                Grammar.Symbol sym = grammar.getSymbol(i);
+                out.writeUTF(sym.getName());
+                writeFixity(out, (sym instanceof JaccSymbol)
+                                 ? ((JaccSymbol)sym).getFixity() : null);
+            }
+            for (int nt=0; nt<numNTs; nt++) {
+                Grammar.Prod[] prods = grammar.getProds(nt);
+                out.writeInt(prods.length);
+                for (int j=0; j<prods.length; j++) {
+                    int[] rhs = prods[j].getRhs();
+                    out.writeInt(prods[j].getSeqNo());
+                    out.writeInt(rhs.length);
+                    for (int k=0; k<rhs.length; k++) {
+                        out.writeInt(rhs[k]);
+                    }
+                    writeFixity(out, (prods[j] instanceof JaccProd)
+                                     ? ((JaccProd)prods[j]).getFixity()
+                                     : null);
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            return null;            // cannot happen for a byte array
+        }
+    }
+
+    /** Reconstruct a grammar from a description that was produced by
+     *  describe(), returning null if the description is not valid, or
+     *  if it was made by a different version of jacc or for a different
+     *  type of machine.
+     */
+    private static Grammar undescribe(byte[] desc, int machineType) {
+        String impl = Snapshot.class.getPackage().getImplementationVersion();
+        DataInputStream in
+            = new DataInputStream(new ByteArrayInputStream(desc));
+        try {
+            if (in.readInt()!=VERSION
+             || !in.readUTF().equals(impl)
+             || in.readInt()!=machineType) {
+                return null;
+            }
+            int          numSyms = in.readInt();
+            int          numNTs  = in.readInt();
+            JaccSymbol[] symbols = new JaccSymbol[numSyms];
+            for (int i=0; i<numSyms; i++) {
+                symbols[i] = new JaccSymbol(in.readUTF());
+                symbols[i].setTokenNo(i);
+                Fixity fixity = readFixity(in);
+                if (fixity!=null) {
+                    symbols[i].setFixity(fixity);
+                }
+            }
+            JaccProd[][] prods = new JaccProd[numNTs][];
+            for (int nt=0; nt<numNTs; nt++) {
+                prods[nt] = new JaccProd[in.readInt()];
+                for (int j=0; j<prods[nt].length; j++) {
+                    int          seqNo = in.readInt();
+                    JaccSymbol[] rhs   = new JaccSymbol[in.readInt()];
+                    for (int k=0; k<rhs.length; k++) {
+                        rhs[k] = symbols[in.readInt()];
+                    }
+                    prods[nt][j] = new JaccProd(readFixity(in), rhs,
+                                                null, null, seqNo);
+                    prods[nt][j].fixup();
+                }
+            }
+            return new Grammar(symbols, prods);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /** Write a fixity as part of a grammar description.
+     */
+    private static void writeFixity(DataOutputStream out, Fixity fixity)
+      throws IOException {
+        if (fixity==null) {
+            out.writeInt(0);
+            out.writeInt(0);
+        } else {
+            out.writeInt(fixity.getAssoc());
+            out.writeInt(fixity.getPrec());
+        }
+    }
+
+    /** Read a fixity from a grammar description.
+     */
+    private static Fixity readFixity(DataInputStream in) throws IOException {
+        int assoc = in.readInt();
+        int prec  = in.readInt();
+        switch (assoc) {
+            case Fixity.LEFT   : return Fixity.left(prec);
+            case Fixity.NONASS : return Fixity.nonass(prec);
+            case Fixity.RIGHT  : return Fixity.right(prec);
+        }
+        return null;
+    }
+
+    //---------------------------------------------------------------------
+    // Saving snapshots:
+    //
+    // A snapshot file contains the following values, all stored as
+    // big-endian ints, except for the key, the grammar, and the actions:
+    //
+    //   MAGIC, VERSION, the key (as 64 bytes of ASCII)
+    //   the length of the grammar description, and the description
+    //   numStates, numTs
+    //   entry[numStates]
+    //   item sets, as start[numStates+1] and data[start[numStates]]
+    //   successors, as start[numStates+1] and data[start[numStates]]
+    //   numReduces, then each lookahead set, as a count followed by
+    //   the tokens in the set
+    //   the rows of the tables, as start[numStates+1], followed by
+    //   the tokens and then the arguments for the entries in each row
+    //   a 0 or 1 for each production, to record if it is used
+    //   numConflicts, then (state, isSR, arg1, arg2, token) for each
+    //   actions for the entries in each row, as start[numStates] bytes
+    //   numGotos, or -1 if the machine does not record Follow sets for
+    //   its gotos, then the Follow set of each goto, as a count followed
+    //   by the tokens in the set, and the reads and includes relations,
+    //   each as start[numGotos+1] and data[start[numGotos]]
+    //   the CRC-32 of all of the preceding bytes, as a long
+
+    /** Save a snapshot of a machine and its tables, together with any
+     *  conflicts that were found while the tables were built.  The file
+     *  is written under a temporary name and then renamed, so readers
+     *  never see a partial snapshot.
+     */
+    static void save(File file, String key, int machineType,
+                     JaccResolver resolver, JaccTables tables)
+      throws IOException {
+        LookaheadMachine machine   = tables.getMachine();
+        Grammar          grammar   = machine.getGrammar();
+        int              numStates = machine.getNumStates();
+        int              numTs     = grammar.getNumTs();
+        byte[]           desc      = describe(grammar, machineType);
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir!=null) {
+            dir.mkdirs();
+        }
+        File tmp = File.createTempFile("jacc", ".tmp", dir);
+        try {
+            CRC32 crc = new CRC32();
+            DataOutputStream out
+                = new DataOutputStream(
+                   new BufferedOutputStream(
+                    new CheckedOutputStream(new FileOutputStream(tmp), crc)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeBytes(key);
+                out.writeInt(desc.length);
+                out.write(desc);
+                out.writeInt(numStates);
+                out.writeInt(numTs);
+
+                for (int st=0; st<numStates; st++) {
+                    out.writeInt(machine.getEntry(st));
+                }
+
+                int total = 0;
+                out.writeInt(total);
+                for (int st=0; st<numStates; st++) {
+                    total += machine.getItemsAt(st).size();
+                    out.writeInt(total);
+                }
+                for (int st=0; st<numStates; st++) {
+                    IntSet its = machine.getItemsAt(st);
+                    for (int i=0; i<its.size(); i++) {
+                        out.writeInt(its.at(i));
+                    }
+                }
+
+                total = 0;
+                out.writeInt(total);
+                for (int st=0; st<numStates; st++) {
+                    total += machine.getNumSuccsAt(st);
+                    out.writeInt(total);
+                }
+                for (int st=0; st<numStates; st++) {
+                    int n = machine.getNumSuccsAt(st);
+                    for (int i=0; i<n; i++) {
+                        out.writeInt(machine.getSuccAt(st, i));
+                    }
+                }
+
+                int numReds = 0;
+                for (int st=0; st<numStates; st++) {
+                    numReds += machine.getNumReducesAt(st);
+                }
+                out.writeInt(numReds);
+                for (int st=0; st<numStates; st++) {
+                    int n = machine.getNumReducesAt(st);
+                    for (int i=0; i<n; i++) {
+                        int[] la = machine.getLookaheadAt(st, i).toArray();
+                        out.writeInt(la.length);
+                        for (int j=0; j<la.length; j++) {
+                            out.writeInt(la[j]);
+                        }
+                    }
+                }
+
+                total = 0;
+                out.writeInt(total);
+                for (int st=0; st<numStates; st++) {
+                    total += tables.getRowTokensAt(st).length;
+                    out.writeInt(total);
+                }
+                for (int st=0; st<numStates; st++) {
+                    int[] toks = tables.getRowTokensAt(st);
+                    for (int i=0; i<toks.length; i++) {
+                        out.writeInt(toks[i]);
+                    }
+                }
+                for (int st=0; st<numStates; st++) {
+                    int[] args = tables.getRowArgsAt(st);
+                    for (int i=0; i<args.length; i++) {
+                        out.writeInt(args[i]);
+                    }
+                }
+
+                for (int nt=0; nt<grammar.getNumNTs(); nt++) {
+                    boolean[] used = tables.getProdsUsedAt(nt);
+                    for (int j=0; j<used.length; j++) {
+                        out.writeInt(used[j] ? 1 : 0);
+                    }
+                }
+
+                int numConflicts = 0;
+                for (int st=0; st<numStates; st++) {
+                    Conflicts cs = resolver.getConflictListAt(st);
+                    for (; cs!=null; cs=cs.getNext()) {
+                        numConflicts++;
+                    }
+                }
+                out.writeInt(numConflicts);
+                for (int st=0; st<numStates; st++) {
+                    Conflicts cs = resolver.getConflictListAt(st);
+                    for (; cs!=null; cs=cs.getNext()) {
+                        out.writeInt(st);
+                        out.writeInt(cs.isSR() ? 1 : 0);
+                        out.writeInt(cs.getArg1());
+                        out.writeInt(cs.getArg2());
+                        out.writeInt(tokenNo(grammar, cs.getSym()));
+                    }
+                }
+
+                for (int st=0; st<numStates; st++) {
+                    out.write(tables.getRowActionsAt(st));
+                }
+
+                if (machine instanceof DigraphLALRMachine) {
+                    DigraphLALRMachine lalr     = (DigraphLALRMachine)machine;
+                    int                numGotos = lalr.getNumGotos();
+                    out.writeInt(numGotos);
+                    for (int g=0; g<numGotos; g++) {
+                        int[] follow = lalr.getFollowAt(g).toArray();
+                        out.writeInt(follow.length);
+                        for (int j=0; j<follow.length; j++) {
+                            out.writeInt(follow[j]);
+                        }
+                    }
+                    writeInts(out, lalr.getReadStart());
+                    writeInts(out, lalr.getReadData());
+                    writeInts(out, lalr.getIncludesStart());
+                    writeInts(out, lalr.getIncludesData());
+                } else {
+                    out.writeInt(-1);
+                }
+                out.flush();
+                out.writeLong(crc.getValue());
+            } finally {
+                out.close();
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /** Write the elements of an array.
+     */
+    private static void writeInts(DataOutputStream out, int[] a)
+      throws IOException {
+        for (int i=0; i<a.length; i++) {
+            out.writeInt(a[i]);
+        }
+    }
+
+    /** Find the terminal number for a given symbol.
+     */
+    private static int tokenNo(Grammar grammar, Grammar.Symbol sym) {
+        for (int t=0; t<grammar.getNumTs(); t++) {
+            if (grammar.getTerminal(t)==sym) {
+                return t;
+            }
+        }
+        return (-1);
+    }
+
+    //---------------------------------------------------------------------
+    // Loading snapshots:
+
+    /** Load a snapshot for a grammar from a given file, returning null
+     *  if the file does not exist, or does not contain a valid snapshot
+     *  with the expected key.
+     */
+    static Snapshot load(File file, String key, Grammar grammar) {
+        MappedByteBuffer buf = map(file);
+        if (buf==null) {
+            return null;
+        }
+        try {
+            if (!readKey(buf, key)) {
+                return null;
+            }
+            int len = buf.getInt();
+            buf.position(buf.position() + len);     // skip the grammar
+            return read(buf, grammar);
+        } catch (RuntimeException e) {
+            return null;            // treat a damaged snapshot as missing
+        }
+    }
+
+    /** Load the most recent snapshot for a given parser and type of
+     *  machine, for use in an incremental build.  The grammar is
+     *  reconstructed from the snapshot, and it will usually be an
+     *  earlier version of the grammar that is now being built.  Returns
+     *  null if there is no such snapshot, or if it was made by a
+     *  different version of jacc.
+     */
+    static Snapshot loadPrevious(String cacheDir, String name,
+                                 int machineType) {
+        String key = readLast(lastFor(cacheDir, name, machineType));
+        if (key==null) {
+            return null;
+        }
+        MappedByteBuffer buf = map(fileFor(cacheDir, key));
+        if (buf==null) {
+            return null;
+        }
+        try {
+            if (!readKey(buf, key)) {
+                return null;
+            }
+            byte[] desc = new byte[buf.getInt()];
+            buf.get(desc);
+            Grammar grammar = undescribe(desc, machineType);
+            if (grammar==null) {
+                return null;
+            }
+            Snapshot snapshot = read(buf, grammar);
+            if (snapshot!=null) {
+                snapshot.previous = readGotos(buf, snapshot.tables);
+            }
+            return snapshot;
+        } catch (RuntimeException e) {
+            return null;            // treat a damaged snapshot as missing
+        }
+    }
+
+    /** Record the key of the most recent snapshot for a given parser and
+     *  type of machine.
+     */
+    static void saveLast(String cacheDir, String name, int machineType,
+                         String key) throws IOException {
+        File file = lastFor(cacheDir, name, machineType);
+        File dir  = file.getAbsoluteFile().getParentFile();
+        if (dir!=null) {
+            dir.mkdirs();
+        }
+        File tmp = File.createTempFile("jacc", ".tmp", dir);
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(key.getBytes("US-ASCII"));
+            } finally {
+                out.close();
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /** Read the key from a file that was written by saveLast(), or return
+     *  null if there is no such file.
+     */
+    private static String readLast(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return new String(Files.readAllBytes(file.toPath()), "US-ASCII");
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Map the contents of a file into memory, returning null if the
+     *  file does not exist or cannot be read.
+     */
+    private static MappedByteBuffer map(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            FileChannel ch = FileChannel.open(file.toPath(),
+                                              StandardOpenOption.READ);
+            try {
+                return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            } finally {
+                ch.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Read the start of a snapshot from a buffer, returning true if
+     *  it holds a complete snapshot with the expected key and a correct
+     *  checksum.
+     */
+    private static boolean readKey(MappedByteBuffer buf, String key) {
+        if (buf.getInt()!=MAGIC || buf.getInt()!=VERSION
+         || !validChecksum(buf)) {
+            return false;
+        }
+        byte[] k = new byte[key.length()];
+        buf.get(k);
+        for (int i=0; i<k.length; i++) {
+            if (k[i]!=key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Check the CRC-32 at the end of a snapshot against the bytes
+     *  that precede it.
+     */
+    private static boolean validChecksum(MappedByteBuffer buf) {
+        int len = buf.limit() - 8;
+        if (len<0) {
+            return false;
+        }
+        ByteBuffer data = buf.duplicate();
+        data.position(0);
+        data.limit(len);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue()==buf.getLong(len);
+    }
+
+    /** Read the machine, conflicts, and tables for a grammar from a
+     *  buffer, starting after the grammar description, and returning
+     *  null if they do not match the grammar.  Every state, symbol,
+     *  item, token, and reduction number is checked before it is used,
+     *  so a damaged snapshot cannot produce a machine or tables that do
+     *  not make sense.
+     */
+    private static Snapshot read(MappedByteBuffer buf, Grammar grammar) {
+        int numStates = buf.getInt();
+        int numTs     = buf.getInt();
+        if (numStates<=0 || numTs!=grammar.getNumTs()) {
+            return null;
+        }
+
+        // Read all of the integer data through a single view:
+        IntBuffer ints      = buf.slice().asIntBuffer();
+        int[]     entry     = ints(ints, numStates);
+        int[]     setStart  = ints(ints, numStates+1);
+        int[]     setData   = ints(ints, setStart[numStates]);
+        int[]     succStart = ints(ints, numStates+1);
+        int[]     succData  = ints(ints, succStart[numStates]);
+        int       numItems  = new LR0Items(grammar).getNumItems();
+        if (!validRelation(setStart, setData, numItems)
+         || !validRelation(succStart, succData, numStates)) {
+            return null;
+        }
+        for (int st=0; st<numStates; st++) {
+            if (entry[st]<0 || entry[st]>=grammar.getNumSyms()) {
+                return null;
+            }
+        }
+
+        IntSet[] stateSets = new IntSet[numStates];
+        for (int st=0; st<numStates; st++) {
+            IntSet set = IntSet.empty();
+            for (int i=setStart[st]; i<setStart[st+1]; i++) {
+                set.add(setData[i]);
+            }
+            stateSets[st] = set;
+        }
+
+        int numReds = ints.get();
+        if (numReds<0 || numReds>ints.remaining()) {
+            return null;
+        }
+        TokenSet[] lookaheads = new TokenSet[numReds];
+        for (int r=0; r<numReds; r++) {
+            TokenSet la = new TokenSet(numTs);
+            int      n  = ints.get();
+            for (int j=0; j<n; j++) {
+                int t = ints.get();
+                if (t<0 || t>=numTs) {
+                    return null;
+                }
+                la.add(t);
+            }
+            lookaheads[r] = la;
+        }
+        RestoredMachine machine
+            = new RestoredMachine(grammar, stateSets, entry,
+                                  succStart, succData, lookaheads);
+        for (int st=0; st<numStates; st++) {
+            numReds -= machine.getNumReducesAt(st);
+        }
+        if (numReds!=0) {
+            return null;
+        }
+
+        int[]   rowStart = ints(ints, numStates+1);
+        int[][] rowToken = new int[numStates][];
+        int[][] rowArg   = new int[numStates][];
+        if (!validStart(rowStart)) {
+            return null;
+        }
+        for (int st=0; st<numStates; st++) {
+            rowToken[st] = ints(ints, rowStart[st+1]-rowStart[st]);
+            int last = (-1);
+            for (int i=0; i<rowToken[st].length; i++) {
+                if (rowToken[st][i]<=last || rowToken[st][i]>=numTs) {
+                    return null;
+                }
+                last = rowToken[st][i];
+            }
+        }
+        for (int st=0; st<numStates; st++) {
+            rowArg[st] = ints(ints, rowStart[st+1]-rowStart[st]);
+        }
+
+        int         numNTs   = grammar.getNumNTs();
+        boolean[][] prodUsed = new boolean[numNTs][];
+        for (int nt=0; nt<numNTs; nt++) {
+            prodUsed[nt] = new boolean[grammar.getProds(nt).length];
+            for (int j=0; j<prodUsed[nt].length; j++) {
+                prodUsed[nt][j] = (ints.get()!=0);
+            }
+        }
+
+        JaccResolver resolver     = new JaccResolver(machine);
+        int          numConflicts = ints.get();
+        for (int c=0; c<numConflicts; c++) {
+            int st  = ints.get();
+            int sr  = ints.get();
+            int a1  = ints.get();
+            int a2  = ints.get();
+            int tok = ints.get();
+            if (st<0 || st>=numStates || tok<0 || tok>=numTs
+             || !(sr!=0 ? validShift(machine, a1)
+                        : validReduce(machine, st, a1))
+             || !validReduce(machine, st, a2)) {
+                return null;
+            }
+            resolver.restoreConflict(st, sr!=0, a1, a2,
+                                     grammar.getTerminal(tok));
+        }
+
+        // The action tables follow the integer data:
+        buf.position(buf.position() + 4*ints.position());
+        byte[][] rowAction = new byte[numStates][];
+        for (int st=0; st<numStates; st++) {
+            rowAction[st] = new byte[rowToken[st].length];
+            buf.get(rowAction[st]);
+            for (int i=0; i<rowAction[st].length; i++) {
+                int arg = rowArg[st][i];
+                switch (rowAction[st][i]) {
+                    case JaccTables.NONE:   // custom error number, if any
+                        break;
+                    case JaccTables.SHIFT:
+                        if (!validShift(machine, arg)) {
+                            return null;
+                        }
+                        break;
+                    case JaccTables.REDUCE:
+                        if (!validReduce(machine, st, arg)) {
+                            return null;
+                        }
+                        break;
+                    default:
+                        return null;
+                }
+            }
+        }
+        JaccTables tables
+            = new JaccTables(machine, resolver,
+                             rowToken, rowAction, rowArg, prodUsed);
+        return new Snapshot(resolver, tables);
+    }
+
+    /** Check that a shift argument names a state in a given machine, or
+     *  the accept state, which is numbered (-1).
+     */
+    private static boolean validShift(RestoredMachine machine, int st) {
+        return st>=(-1) && st<machine.getNumStates();
+    }
+
+    /** Check that a reduce argument is the offset of one of the reduce
+     *  items in a given state.
+     */
+    private static boolean validReduce(RestoredMachine machine, int st,
+                                       int redNo) {
+        int n = machine.getNumReducesAt(st);
+        for (int i=0; i<n; i++) {
+            if (machine.getReduceAt(st, i)==redNo) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Read the Follow sets and relations for the gotos of a machine from
+     *  a buffer, if they were saved, and return an incremental build that
+     *  will reuse them together with the given tables.
+     */
+    private static IncrementalBuild readGotos(MappedByteBuffer buf,
+                                              JaccTables tables) {
+        IncrementalBuild previous = new IncrementalBuild(tables);
+        IntBuffer        ints     = buf.slice().asIntBuffer();
+        int              numGotos = ints.get();
+        if (numGotos>=0) {
+            int        numTs  = tables.getMachine().getGrammar().getNumTs();
+            TokenSet[] follow = new TokenSet[numGotos];
+            for (int g=0; g<numGotos; g++) {
+                follow[g] = new TokenSet(numTs);
+                int n     = ints.get();
+                for (int j=0; j<n; j++) {
+                    int t = ints.get();
+                    if (t<0 || t>=numTs) {
+                        return previous;
+                    }
+                    follow[g].add(t);
+                }
+            }
+            int[] readStart = ints(ints, numGotos+1);
+            int[] readData  = ints(ints, readStart[numGotos]);
+            int[] incStart  = ints(ints, numGotos+1);
+            int[] incData   = ints(ints, incStart[numGotos]);
+            if (validRelation(readStart, readData)
+             && validRelation(incStart, incData)) {
+                previous.setGotoFollow(follow, readStart, readData,
+                                       incStart, incData);
+            }
+        }
+        return previous;
+    }
+
+    /** Check that a relation in compressed sparse row format is well
+     *  formed, with every element in range.
+     */
+    private static boolean validRelation(int[] start, int[] data) {
+        return validRelation(start, data, start.length-1);
+    }
+
+    /** Check that a relation in compressed sparse row format is well
+     *  formed, with every element between 0 and max-1.
+     */
+    private static boolean validRelation(int[] start, int[] data, int max) {
+        if (!validStart(start) || start[start.length-1]!=data.length) {
+            return false;
+        }
+        for (int i=0; i<data.length; i++) {
+            if (data[i]<0 || data[i]>=max) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Check that an array of starting offsets, as used for a relation
+     *  in compressed sparse row format, begins at zero and never
+     *  decreases.
+     */
+    private static boolean validStart(int[] start) {
+        if (start[0]!=0) {
+            return false;
+        }
+        for (int i=1; i<start.length; i++) {
+            if (start[i]<start[i-1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Read an array of a given length from a buffer.  A length that
+     *  is out of range is treated like a truncated buffer, rather than
+     *  risking a huge allocation.
+     */
+    private static int[] ints(IntBuffer ints, int len) {
+        if (len<0 || len>ints.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        int[] a = new int[len];
+        ints.get(a);
+        return a;
+    }
+}
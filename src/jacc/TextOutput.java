@@ -6,6 +6,7 @@
 package jacc;
 
 import java.io.PrintWriter;
+import jacc.grammar.Reachable;
 import jacc.grammar.Tables;
 import compiler.Handler;
 import jacc.util.IntSet;
@@ -40,25 +41,22 @@ public class TextOutput extends Output {
             out.println();
 
             // Output main action table:
-            byte[] action = tables.getActionAt(i);
-            int[]  arg    = tables.getArgAt(i);
-            int    def    = tables.getDefaultRowAt(i);
-            int[]  idx    = tables.indexAt(i);
-            for (int j=0; j<action.length; j++) {
+            int   def = tables.getDefaultActionAt(i);
+            int[] idx = tables.indexAt(i);
+            for (int j=0; j<idx.length; j++) {
                 int xj = idx[j];
-                if (def<0 || action[xj]!=action[def] || arg[xj]!=arg[def]) {
-                    indent(out, 1);
-                    out.print(grammar.getTerminal(xj).getName());
-                    out.print(' ');
-                    out.println(describeAction(i, action[xj], arg[xj]));
-                }
+                indent(out, 1);
+                out.print(grammar.getTerminal(xj).getName());
+                out.print(' ');
+                out.println(describeAction(i, tables.getAction(i, xj),
+                                              tables.getArg(i, xj)));
             }
             indent(out, 1);
             if (def<0) {
                 out.println(". error");
             } else {
                 out.print(". ");
-                out.println(describeAction(i, action[def], arg[def]));
+                out.println(describeAction(i, def, tables.getDefaultArgAt(i)));
             }
             out.println();
 
@@ -85,9 +83,24 @@ public class TextOutput extends Output {
             out.println();
         }
 
-        // Output list of unused productions
-        if (tables.getProdUnused()>0) {
+        // Output list of unreachable nonterminals
+        Reachable reachable = grammar.getReachable();
+        if (reachable.getNumUnreachable()>0) {
+            for (int nt=0; nt<numNTs; nt++) {
+                if (!reachable.at(nt)) {
+                    out.print("Nonterminal not reachable: ");
+                    out.println(grammar.getNonterminal(nt).getName());
+                }
+            }
+            out.println();
+        }
+
+        // Output list of unused productions for reachable nonterminals
+        if (job.getNumRulesNeverReduced()>0) {
             for (int nt=0; nt<numNTs; nt++) {
+                if (!reachable.at(nt)) {
+                    continue;
+                }
                 boolean[] used = tables.getProdsUsedAt(nt);
                 for (int j=0; j<used.length; j++) {
                     if (!used[j]) {
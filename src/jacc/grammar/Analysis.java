@@ -17,6 +17,11 @@ package jacc.grammar;
  *         analysis at the point concerned.
  *    </li>
  *  </ul>
+ *  By default, the members of each component are analyzed in repeated
+ *  passes until a whole pass makes no change.  If the analysis passes
+ *  topDown() or bottomUp() a description of which points must be looked
+ *  at again after a change at point i, then we use a worklist instead,
+ *  and only reanalyze those points.
  */
 public abstract class Analysis {
     /** Records the underlying set of components, starting with the ones
@@ -31,6 +36,16 @@ public abstract class Analysis {
         this.comps = comps;
     }
 
+    /** Counts the number of calls to analyze().
+     */
+    private int numEvaluations = 0;
+
+    /** Return the number of times that analyze() was called.
+     */
+    public int getNumEvaluations() {
+        return numEvaluations;
+    }
+
     /** Method used to run a bottom-up analysis.  This is an analysis
      *  in which each object passes data to the things that depend on it.
      */
@@ -49,6 +64,34 @@ public abstract class Analysis {
         }
     }
 
+    /** Method used to run a bottom-up analysis using a worklist.  If a
+     *  call to analyze(i) returns true, then only the points listed in
+     *  users[i] are analyzed again.
+     */
+    protected void bottomUp(int[][] users) {
+        startWorklist();
+        for (int i=0; i<comps.length; i++) {
+            analyzeComponent(i, users);
+        }
+        compOf = null;
+        queued = null;
+        queue  = null;
+    }
+
+    /** Method used to run a top-down analysis using a worklist.  If a
+     *  call to analyze(i) returns true, then only the points listed in
+     *  users[i] are analyzed again.
+     */
+    protected void topDown(int[][] users) {
+        startWorklist();
+        for (int i=comps.length; i-- >0; ) {
+            analyzeComponent(i, users);
+        }
+        compOf = null;
+        queued = null;
+        queue  = null;
+    }
+
     /** Method used to run an analysis over the elements of a component.
      *  The analysis is iterated until no changes are detected.
      */
@@ -57,11 +100,74 @@ public abstract class Analysis {
         while (changed) {
             changed = false;
             for (int j=0; j<comp.length; j++) {
+                numEvaluations++;
                 changed |= analyze(comp[j]);
             }
         }
     }
 
+    /** Workspace for the worklist algorithm: compOf[i] is the number of
+     *  the component containing i, queued[i] is true if i is waiting to
+     *  be analyzed, and queue is a circular buffer of waiting points.
+     */
+    private int[]     compOf;
+    private boolean[] queued;
+    private int[]     queue;
+
+    /** Allocate the workspace for the worklist algorithm.
+     */
+    private void startWorklist() {
+        int numPoints = 0;
+        int maxSize   = 0;
+        for (int c=0; c<comps.length; c++) {
+            numPoints += comps[c].length;
+            maxSize    = Math.max(maxSize, comps[c].length);
+        }
+        compOf = new int[numPoints];
+        queued = new boolean[numPoints];
+        queue  = new int[maxSize];
+        for (int c=0; c<comps.length; c++) {
+            for (int j=0; j<comps[c].length; j++) {
+                compOf[comps[c][j]] = c;
+            }
+        }
+    }
+
+    /** Method used to run an analysis over the elements of a component
+     *  using a worklist.  Every member is analyzed once, and then a
+     *  point is only analyzed again if one of the points that it uses
+     *  has changed.  Each point is in the queue at most once, so the
+     *  queue never holds more than comp.length entries.
+     */
+    private void analyzeComponent(int c, int[][] users) {
+        int[] comp  = comps[c];
+        int   size  = comp.length;
+        int   head  = 0;
+        int   count = size;
+        for (int j=0; j<size; j++) {
+            queue[j]        = comp[j];
+            queued[comp[j]] = true;
+        }
+        while (count>0) {
+            int i = queue[head];
+            head  = (head+1) % size;
+            count--;
+            queued[i] = false;
+            numEvaluations++;
+            if (analyze(i)) {
+                int[] us = users[i];
+                for (int k=0; k<us.length; k++) {
+                    int u = us[k];
+                    if (compOf[u]==c && !queued[u]) {
+                        queue[(head+count) % size] = u;
+                        queued[u]                  = true;
+                        count++;
+                    }
+                }
+            }
+        }
+    }
+
     /** Run the analysis at a particular point.  Return a boolean true
      *  if this changed the current approximation at this point.
      */
@@ -0,0 +1,706 @@
+// Copyright (c) Mark P Jones, OGI School of Science & Engineering
+// Subject to conditions of distribution and use; see LICENSE for details
+// 
+
+package jacc.grammar;
+
+import java.util.Arrays;
+
+import jacc.util.IntSet;
+import jacc.util.SCC;
+import jacc.util.TokenSet;
+import jacc.util.TokenSetPool;
+
+/** A machine that provides LALR lookahead sets for each reduction,
+ *  calculated using the method of DeRemer and Pennello.  We build the
+ *  reads, includes, and lookback relations between the gotos in the
+ *  machine explicitly, by walking forward from each goto along the
+ *  right hand sides of the productions for its nonterminal, and then
+ *  solve the resulting set equations with the linear time digraph
+ *  algorithm.  The lookahead sets are the same as those produced by
+ *  LALRMachine, but we avoid tracing back through every path that
+ *  leads to each goto and reduction.
+ */
+public class DigraphLALRMachine extends LookaheadMachine {
+    // For convenience, we cache the following fields from grammar:
+    protected Nullable nullable;
+
+    /** Construct a machine for a given grammar.
+     */
+    public DigraphLALRMachine(Grammar grammar) {
+        this(grammar, 1);
+    }
+
+    /** Construct a machine for a given grammar, using up to numThreads
+     *  threads during construction.
+     */
+    public DigraphLALRMachine(Grammar grammar, int numThreads) {
+        this(grammar, numThreads, null);
+    }
+
+    /** Construct a machine for a given grammar, reusing the states and
+     *  the Follow sets of the gotos of a previous build where possible.
+     *  The relations between the gotos are always built in full, but
+     *  the Follow sets are only calculated for gotos that depend on a
+     *  goto whose directly read set or relations are different from
+     *  the corresponding goto in the previous machine.
+     */
+    public DigraphLALRMachine(Grammar grammar, int numThreads,
+                              IncrementalBuild previous) {
+        super(grammar, numThreads, previous);
+        this.nullable = grammar.getNullable();
+        if (previous!=null && previous.hasGotos()) {
+            this.previous = previous;
+        }
+        calcGotos();
+        calcReads();
+        calcIncludes();
+        calcLookahead();
+        this.previous = null;
+    }
+
+    /** The total number of gotos in all states.
+     */
+    private int numGotos;
+
+    /** An array mapping each state to the number of the first goto
+     *  in that state.
+     */
+    private int[] stateFirstGoto;
+
+    /** An array mapping each goto number to the number of the state
+     *  in which it starts.
+     */
+    private int[] gotoSource;
+
+    /** An array mapping each goto number to the corresponding goto.
+     */
+    private int[] gotoTrans;
+
+    /** Records the lookahead sets for each goto.  These start out as
+     *  the directly read sets, then become the Read sets, and finally
+     *  the Follow sets of DeRemer and Pennello.
+     */
+    private TokenSet[] gotoLA;
+
+    /** Records the reads and includes relations between gotos, using
+     *  the same layout as Machine.succStart and Machine.succData.
+     */
+    private int[] readStart;
+    private int[] readData;
+    private int[] incStart;
+    private int[] incData;
+
+    /** Holds the previous build, if its Follow sets can be reused, while
+     *  the lookaheads are being calculated.
+     */
+    private IncrementalBuild previous;
+
+    /** Records the corresponding goto in the previous machine for each
+     *  goto, or (-1) if there is none, and whether each goto has to be
+     *  calculated from scratch.  These are only used if there is a
+     *  previous build.
+     */
+    private int[]     oldGoto;
+    private boolean[] changed;
+
+    /** Records the lookback relation: for each i, the reduction with
+     *  index lbRed[i] in state lbState[i] looks back to goto lbGoto[i].
+     */
+    private int   numLookbacks;
+    private int[] lbState;
+    private int[] lbRed;
+    private int[] lbGoto;
+
+    /** Records the lookahead sets for reduce items.  Lookahead sets are
+     *  stored in the order specified by Machine.getReducesAt().
+     */
+    private TokenSet[][] laReds;
+
+    /** Return lookahead sets for the reductions at a given state.
+     */
+    public TokenSet getLookaheadAt(int st, int i) {
+        return laReds[st][i];
+    }
+
+    /** Return the number of gotos in this machine.
+     */
+    public int getNumGotos() {
+        return numGotos;
+    }
+
+    /** Return the Follow set for a given goto.  Gotos are numbered in
+     *  order of their source state, and then in the order given by
+     *  Machine.getGotoAt().
+     */
+    public TokenSet getFollowAt(int g) {
+        return gotoLA[g];
+    }
+
+    /** Return the reads relation between gotos, in compressed sparse
+     *  row format: goto g reads the gotos listed in
+     *  getReadData()[getReadStart()[g]..getReadStart()[g+1]-1].
+     */
+    public int[] getReadStart() {
+        return readStart;
+    }
+
+    public int[] getReadData() {
+        return readData;
+    }
+
+    /** Return the includes relation between gotos, in the same format
+     *  as the reads relation.
+     */
+    public int[] getIncludesStart() {
+        return incStart;
+    }
+
+    public int[] getIncludesData() {
+        return incData;
+    }
+
+    /** Number the gotos in the machine, and find the tokens that can be
+     *  shifted directly after each one.  If there is a previous build,
+     *  we also find the corresponding gotos in the previous machine, and
+     *  compare their directly read sets.
+     */
+    private void calcGotos() {
+        stateFirstGoto = new int[numStates];
+        numGotos       = 0;
+        for (int st=0; st<numStates; st++) {
+            stateFirstGoto[st] = numGotos;
+            numGotos          += getNumGotosAt(st);
+        }
+        gotoSource = new int[numGotos];
+        gotoTrans  = new int[numGotos];
+        gotoLA     = new TokenSet[numGotos];
+        int count  = 0;
+        for (int st=0; st<numStates; st++) {
+            int n = getNumGotosAt(st);
+            for (int i=0; i<n; i++) {
+                int      st1 = getGotoAt(st, i);
+                TokenSet dr  = new TokenSet(numTs);
+                int      ns  = getNumShiftsAt(st1);
+                for (int j=0; j<ns; j++) {
+                    int dst = getShiftAt(st1, j);
+                    if (dst<0) {
+                        dr.add(numTs-1);            // accept on $end
+                    } else {
+                        dr.add(entry[dst]-numNTs);
+                    }
+                }
+                gotoSource[count] = st;
+                gotoTrans[count]  = st1;
+                gotoLA[count]     = dr;
+                count++;
+            }
+        }
+        if (previous!=null) {
+            oldGoto = new int[numGotos];
+            changed = new boolean[numGotos];
+            for (int g=0; g<numGotos; g++) {
+                oldGoto[g] = previous.getOldGoto(gotoSource[g],
+                                                 entry[gotoTrans[g]]);
+                if (oldGoto[g]<0) {
+                    changed[g] = true;
+                } else {
+                    TokenSet dr = previous.getOldDirectReads(oldGoto[g]);
+                    changed[g]  = (dr==null || !dr.equals(gotoLA[g]));
+                }
+            }
+        }
+    }
+
+    /** Calculate the Read set for each goto.  A goto from st to st1
+     *  reads each goto out of st1 on a nullable nonterminal.
+     */
+    private void calcReads() {
+        int[] relStart = new int[numGotos+1];
+        for (int g=0; g<numGotos; g++) {
+            int st1 = gotoTrans[g];
+            int n   = getNumGotosAt(st1);
+            int num = 0;
+            for (int i=0; i<n; i++) {
+                if (nullable.at(entry[getGotoAt(st1, i)])) {
+                    num++;
+                }
+            }
+            relStart[g+1] = relStart[g] + num;
+        }
+        int[] relData = new int[relStart[numGotos]];
+        int   pos     = 0;
+        for (int g=0; g<numGotos; g++) {
+            int st1 = gotoTrans[g];
+            int n   = getNumGotosAt(st1);
+            for (int i=0; i<n; i++) {
+                if (nullable.at(entry[getGotoAt(st1, i)])) {
+                    relData[pos++] = stateFirstGoto[st1] + i;
+                }
+            }
+        }
+        readStart = relStart;
+        readData  = relData;
+        if (previous!=null) {
+            for (int g=0; g<numGotos; g++) {
+                if (!changed[g]) {
+                    int[] olds = previous.getOldReads(oldGoto[g]);
+                    changed[g] = !sameEdges(relStart, relData, g, olds);
+                }
+            }
+        }
+        solve(relStart, relData, gotoLA);
+    }
+
+    /** Calculate the includes and lookback relations, and then the
+     *  Follow set for each goto.  For each goto from st on a nonterminal
+     *  B, and each production B -> w, we walk forward from st along w.
+     *  Whenever we pass a nonterminal A with only nullable symbols
+     *  after it in w, the goto on A includes the goto on B, and the
+     *  reduction of B -> w in the state at the end of the walk looks
+     *  back to the goto on B.
+     */
+    private void calcIncludes() {
+        int   numIncs = 0;
+        int[] incFrom = new int[numGotos];
+        int[] incTo   = new int[numGotos];
+        numLookbacks  = 0;
+        lbState       = new int[numGotos];
+        lbRed         = new int[numGotos];
+        lbGoto        = new int[numGotos];
+
+        for (int g=0; g<numGotos; g++) {
+            int            lhs   = entry[gotoTrans[g]];
+            Grammar.Prod[] prods = grammar.getProds(lhs);
+            for (int k=0; k<prods.length; k++) {
+                int[] rhs = prods[k].getRhs();
+                int   f   = rhs.length;
+                while (f>0 && grammar.isNonterminal(rhs[f-1])
+                           && nullable.at(rhs[f-1])) {
+                    f--;
+                }
+                int st = gotoSource[g];
+                for (int i=0; i<rhs.length; i++) {
+                    if (i+1>=f && grammar.isNonterminal(rhs[i])) {
+                        if (numIncs>=incFrom.length) {
+                            incFrom = grow(incFrom);
+                            incTo   = grow(incTo);
+                        }
+                        incFrom[numIncs] = findGoto(st, rhs[i]);
+                        incTo[numIncs]   = g;
+                        numIncs++;
+                    }
+                    st = findSucc(st, rhs[i]);
+                }
+
+                int it = items.getFirstKernel(lhs, k)
+                       + Math.max(rhs.length, 1) - 1;
+                if (numLookbacks>=lbState.length) {
+                    lbState = grow(lbState);
+                    lbRed   = grow(lbRed);
+                    lbGoto  = grow(lbGoto);
+                }
+                lbState[numLookbacks] = st;
+                lbRed[numLookbacks]   = findReduce(st, it);
+                lbGoto[numLookbacks]  = g;
+                numLookbacks++;
+            }
+        }
+
+        // Build the includes relation, indexed by the including goto:
+        int[] relStart = new int[numGotos+1];
+        for (int i=0; i<numIncs; i++) {
+            relStart[incFrom[i]+1]++;
+        }
+        for (int g=0; g<numGotos; g++) {
+            relStart[g+1] += relStart[g];
+        }
+        int[] fill = new int[numGotos];
+        for (int g=0; g<numGotos; g++) {
+            fill[g] = relStart[g];
+        }
+        int[] relData = new int[numIncs];
+        for (int i=0; i<numIncs; i++) {
+            relData[fill[incFrom[i]]++] = incTo[i];
+        }
+        incStart = relStart;
+        incData  = relData;
+        if (previous!=null) {
+            reuseFollow();
+        } else {
+            solve(relStart, relData, gotoLA);
+        }
+    }
+
+    /** Calculate the Follow sets using the Follow sets of the previous
+     *  build.  The Follow set of a goto depends only on the directly read
+     *  sets of the gotos that it reaches through the reads and includes
+     *  relations.  So if none of those gotos has changed, then its Follow
+     *  set is the same as before.  The Follow sets of the other gotos are
+     *  found by solving the equations for those gotos only, treating the
+     *  sets of unchanged gotos as constants.
+     */
+    private void reuseFollow() {
+        for (int g=0; g<numGotos; g++) {
+            if (!changed[g]) {
+                int[] olds = previous.getOldIncludes(oldGoto[g]);
+                changed[g] = !sameEdges(incStart, incData, g, olds);
+            }
+        }
+
+        // Mark every goto that reaches a changed goto as changed:
+        int[] predStart = new int[numGotos+1];
+        for (int g=0; g<numGotos; g++) {
+            countPreds(readStart, readData, g, predStart);
+            countPreds(incStart, incData, g, predStart);
+        }
+        for (int g=0; g<numGotos; g++) {
+            predStart[g+1] += predStart[g];
+        }
+        int[] fill = new int[numGotos];
+        System.arraycopy(predStart, 0, fill, 0, numGotos);
+        int[] predData = new int[predStart[numGotos]];
+        for (int g=0; g<numGotos; g++) {
+            for (int i=readStart[g]; i<readStart[g+1]; i++) {
+                predData[fill[readData[i]]++] = g;
+            }
+            for (int i=incStart[g]; i<incStart[g+1]; i++) {
+                predData[fill[incData[i]]++] = g;
+            }
+        }
+        int[] work = new int[numGotos];
+        int   top  = 0;
+        for (int g=0; g<numGotos; g++) {
+            if (changed[g]) {
+                work[top++] = g;
+            }
+        }
+        while (top>0) {
+            int g = work[--top];
+            for (int i=predStart[g]; i<predStart[g+1]; i++) {
+                int p = predData[i];
+                if (!changed[p]) {
+                    changed[p]  = true;
+                    work[top++] = p;
+                }
+            }
+        }
+
+        // Copy the Follow sets of unchanged gotos, and solve for the rest:
+        for (int g=0; g<numGotos; g++) {
+            if (!changed[g]) {
+                TokenSet follow = previous.getOldFollow(oldGoto[g]);
+                if (follow!=null) {
+                    gotoLA[g] = follow;
+                    previous.numReusedGotos++;
+                } else {
+                    changed[g] = true;
+                }
+            }
+        }
+        digraph(incStart, incData, gotoLA, changed);
+        oldGoto = null;
+        changed = null;
+    }
+
+    /** Count one more predecessor for each element that is related to
+     *  x by the relation in relStart and relData.
+     */
+    private static void countPreds(int[] relStart, int[] relData, int x,
+                                   int[] predStart) {
+        for (int i=relStart[x]; i<relStart[x+1]; i++) {
+            predStart[relData[i]+1]++;
+        }
+    }
+
+    /** Determine whether the gotos related to g are the gotos that
+     *  correspond to a list of gotos in the previous machine.
+     */
+    private boolean sameEdges(int[] relStart, int[] relData, int g,
+                              int[] olds) {
+        int n = relStart[g+1] - relStart[g];
+        if (n!=olds.length) {
+            return false;
+        }
+        int[] mapped = new int[n];
+        for (int i=0; i<n; i++) {
+            mapped[i] = oldGoto[relData[relStart[g]+i]];
+            if (mapped[i]<0) {
+                return false;
+            }
+        }
+        Arrays.sort(mapped);
+        Arrays.sort(olds);
+        for (int i=0; i<n; i++) {
+            if (mapped[i]!=olds[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Calculate lookahead sets by taking the union of the Follow sets
+     *  for each goto that a reduction looks back to.  Many of these sets
+     *  are identical, so the Follow sets and the lookahead sets are all
+     *  interned in a single pool.  A reduction that looks back to just
+     *  one goto shares the Follow set of that goto, and we only make a
+     *  copy of it when a second goto adds something new.
+     */
+    private void calcLookahead() {
+        TokenSetPool pool = new TokenSetPool();
+        for (int g=0; g<numGotos; g++) {
+            gotoLA[g] = pool.intern(gotoLA[g]);
+        }
+        laReds          = new TokenSet[numStates][];
+        boolean[][] own = new boolean[numStates][];
+        for (int st=0; st<numStates; st++) {
+            laReds[st] = new TokenSet[getNumReducesAt(st)];
+            own[st]    = new boolean[laReds[st].length];
+        }
+        for (int i=0; i<numLookbacks; i++) {
+            int      st = lbState[i];
+            int      j  = lbRed[i];
+            TokenSet fs = gotoLA[lbGoto[i]];
+            TokenSet la = laReds[st][j];
+            if (la==null) {
+                laReds[st][j] = fs;
+            } else if (la!=fs) {
+                if (!own[st][j]) {
+                    TokenSet copy = new TokenSet(numTs);
+                    copy.addAll(la);
+                    laReds[st][j] = copy;
+                    own[st][j]    = true;
+                }
+                laReds[st][j].addAll(fs);
+            }
+        }
+        TokenSet empty = pool.intern(new TokenSet(numTs));
+        for (int st=0; st<numStates; st++) {
+            for (int j=0; j<laReds[st].length; j++) {
+                TokenSet la   = laReds[st][j];
+                laReds[st][j] = (la==null) ? empty : pool.intern(la);
+            }
+        }
+        lbState = null;
+        lbRed   = null;
+        lbGoto  = null;
+    }
+
+    /** Return the state that we reach from st on a given symbol.
+     */
+    private int findSucc(int st, int sym) {
+        int n = getNumSuccsAt(st);
+        for (int i=0; i<n; i++) {
+            int dst = getSuccAt(st, i);
+            if (entry[dst]==sym) {
+                return dst;
+            }
+        }
+        throw new IllegalStateException("no transition from state " + st);
+    }
+
+    /** Return the number of the goto from st on a given nonterminal.
+     */
+    private int findGoto(int st, int nt) {
+        int n = getNumGotosAt(st);
+        for (int i=0; i<n; i++) {
+            if (entry[getGotoAt(st, i)]==nt) {
+                return stateFirstGoto[st] + i;
+            }
+        }
+        throw new IllegalStateException("no goto from state " + st);
+    }
+
+    /** Return the index of the reduction on a given item in state st.
+     */
+    private int findReduce(int st, int it) {
+        int off = stateSets[st].indexOf(it);
+        int n   = getNumReducesAt(st);
+        for (int j=0; j<n; j++) {
+            if (getReduceAt(st, j)==off) {
+                return j;
+            }
+        }
+        throw new IllegalStateException("no reduction in state " + st);
+    }
+
+    /** Return a copy of an array with twice as many elements.
+     */
+    private static int[] grow(int[] arr) {
+        int[] bigger = new int[2*arr.length+1];
+        System.arraycopy(arr, 0, bigger, 0, arr.length);
+        return bigger;
+    }
+
+    /** Solve the equations for the relation given by relStart and
+     *  relData, as described for digraph().  If more than one thread is
+     *  available, we find the strongly connected components of the
+     *  relation and solve each one as soon as the components that it
+     *  depends on have been solved.  This gives the same sets as
+     *  digraph(), which is used when there is only one thread.
+     */
+    private void solve(final int[] relStart, final int[] relData,
+                       final TokenSet[] sets) {
+        if (numThreads>1) {
+            int[][] comps = SCC.get(relStart, relData, sets.length);
+            if (comps.length>1) {
+                new ParallelComponents(relStart, relData, comps) {
+                    protected void process(int[] comp) {
+                        unite(relStart, relData, sets, comp);
+                    }
+                }.run(numThreads);
+                return;
+            }
+        }
+        digraph(relStart, relData, sets);
+    }
+
+    /** Find the set for each element of a component, assuming that the
+     *  sets of the components that it depends on are already complete.
+     *  Every element of a component has the same set: the union of the
+     *  starting sets of its elements and of the sets of the elements
+     *  that they are related to.  This only changes the sets of elements
+     *  in the component.
+     */
+    private static void unite(int[] relStart, int[] relData,
+                              TokenSet[] sets, int[] comp) {
+        TokenSet all = sets[comp[0]];
+        for (int i=0; i<comp.length; i++) {
+            int x = comp[i];
+            if (i>0) {
+                all.addAll(sets[x]);
+            }
+            for (int j=relStart[x]; j<relStart[x+1]; j++) {
+                if (relData[j]!=comp[0]) {
+                    all.addAll(sets[relData[j]]);
+                }
+            }
+        }
+        for (int i=1; i<comp.length; i++) {
+            sets[comp[i]].addAll(all);
+        }
+    }
+
+    /** Solve a set of equations of the form F(x) = F'(x) + U{ F(y) | x R y }
+     *  using the digraph algorithm of DeRemer and Pennello.  The relation
+     *  R is given by relStart and relData, using the same layout as
+     *  Machine.succStart and Machine.succData.  On entry, sets holds F'
+     *  and on exit it holds F.  Each element keeps its own set, so the
+     *  results can be used as the starting point for another call, even
+     *  if several elements have the same value.  This uses an
+     *  explicit stack instead of recursion so that long chains of gotos
+     *  do not overflow the Java stack.
+     */
+    private static void digraph(int[] relStart, int[] relData,
+                                TokenSet[] sets) {
+        digraph(relStart, relData, sets, null);
+    }
+
+    /** Solve the equations as for digraph(), but only for the elements
+     *  x with todo[x] set, or for every element if todo is null.  The
+     *  sets for the other elements must already be complete.
+     */
+    private static void digraph(int[] relStart, int[] relData,
+                                TokenSet[] sets, boolean[] todo) {
+        int   n     = sets.length;
+        int[] depth = new int[n];           // 0 = not yet visited
+        if (todo!=null) {
+            for (int x=0; x<n; x++) {
+                if (!todo[x]) {
+                    depth[x] = Integer.MAX_VALUE;
+                }
+            }
+        }
+        int[] stack = new int[n];           // nodes in open components
+        int   sp    = 0;
+        int[] call  = new int[n];           // nodes being traversed
+        int[] edge  = new int[n];           // next edge for each call
+        int[] base  = new int[n];           // depth of each call
+        for (int x=0; x<n; x++) {
+            if (depth[x]!=0) {
+                continue;
+            }
+            int cp       = 0;
+            stack[sp++]  = x;
+            depth[x]     = sp;
+            call[cp]     = x;
+            edge[cp]     = relStart[x];
+            base[cp++]   = sp;
+            while (cp>0) {
+                int v = call[cp-1];
+                if (edge[cp-1]<relStart[v+1]) {
+                    int w = relData[edge[cp-1]++];
+                    if (depth[w]==0) {
+                        stack[sp++] = w;
+                        depth[w]    = sp;
+                        call[cp]    = w;
+                        edge[cp]    = relStart[w];
+                        base[cp++]  = sp;
+                    } else {
+                        if (depth[w]<depth[v]) {
+                            depth[v] = depth[w];
+                        }
+                        sets[v].addAll(sets[w]);
+                    }
+                } else {
+                    cp--;
+                    if (depth[v]==base[cp]) {
+                        int w;
+                        do {
+                            w        = stack[--sp];
+                            depth[w] = Integer.MAX_VALUE;
+                            sets[w].addAll(sets[v]);
+                        } while (w!=v);
+                    }
+                    if (cp>0) {
+                        int u = call[cp-1];
+                        if (depth[v]<depth[u]) {
+                            depth[u] = depth[v];
+                        }
+                        sets[u].addAll(sets[v]);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Output the results of lookahead calculations for
+     *  debugging and inspection.
+     */
+    public void display(java.io.PrintWriter out) {
+        super.display(out);
+
+        // Display lookahead information for each goto.
+        for (int g=0; g<numGotos; g++) {
+            out.println("Goto #"+g
+                        + ", in state "
+                        + gotoSource[g]
+                        + " on symbol "
+                        + grammar.getSymbol(getEntry(gotoTrans[g]))
+                        + " to state "
+                        + gotoTrans[g]);
+            out.print("  Follow   : {");
+            out.print(grammar.displaySymbolSet(gotoLA[g], numNTs));
+            out.println("}");
+        }
+
+        // Display lookahead information for each reduce item.
+        for (int st=0; st<numStates; st++) {
+            int[]  rs  = getReducesAt(st);
+            if (rs.length>0) {
+                out.println("State " + st + ": ");
+                IntSet its = getItemsAt(st);
+                for (int j=0; j<rs.length; j++) {
+                    LR0Items.Item it = items.getItem(its.at(rs[j]));
+                    out.print("  Item     : ");
+                    it.display(out);
+                    out.println();
+                    out.print("  Lookahead: {");
+                    out.print(grammar.displaySymbolSet(laReds[st][j],
+                                                       numNTs));
+                    out.println("}");
+                }
+            }
+        }
+    }
+}
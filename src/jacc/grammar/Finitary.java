@@ -22,6 +22,13 @@ final public class Finitary extends Analysis {
     /** Construct a finitary analysis for a given grammar.
      */
     public Finitary(Grammar grammar) {
+        this(grammar, true);
+    }
+
+    /** Construct a finitary analysis for a given grammar, either using a
+     *  worklist or making repeated passes over each component.
+     */
+    public Finitary(Grammar grammar, boolean worklist) {
         super(grammar.getComponents());
         this.grammar = grammar;
         this.numNTs  = grammar.getNumNTs();
@@ -31,7 +38,11 @@ final public class Finitary extends Analysis {
             finitary[i] = false;
             consider[i] = true;
         }
-        bottomUp();
+        if (worklist) {
+            bottomUp(grammar.getRevdeps());
+        } else {
+            bottomUp();
+        }
     }
 
     /** Run the analysis at a particular point.  Return a boolean true
@@ -6,64 +6,85 @@
 package jacc.grammar;
 
 import jacc.util.BitSet;
+import jacc.util.Relation;
+import jacc.util.TokenSet;
 
 /** Calculation of first sets.  The first set of a given nonterminal X
  *  is the set of all terminal symbols that can appear at the beginning
  *  of a string derived from X.
+ *
+ *  We build the "begins with" relation, in which X is related to Y if
+ *  there is a production X -> w Y v where w is nullable, together with
+ *  the set of terminals that appear directly after a nullable prefix in
+ *  the productions for each X.  The first set of X is the union of those
+ *  sets for each nonterminal that X begins with, directly or indirectly,
+ *  which Relation.closure calculates in a single pass over the
+ *  components of the relation.
  */
-public final class First extends Analysis {
-    private Grammar  grammar;
-    private Nullable nullable;
-    private int      numNTs;
-    private int      numTs;
-    private int[][]  first;
+public final class First {
+    private Grammar    grammar;
+    private Nullable   nullable;
+    private int        numNTs;
+    private int        numTs;
+    private TokenSet[] first;
 
     /** Construct a first set analysis for a given grammar.
      */
     public First(Grammar grammar, Nullable nullable) {
-        super(grammar.getComponents());
         this.grammar  = grammar;
         this.nullable = nullable;
         this.numNTs   = grammar.getNumNTs();
         this.numTs    = grammar.getNumTs();
-        first         = new int[numNTs][];
+        int[] relStart = new int[numNTs+1];
+        for (int c=0; c<numNTs; c++) {
+            relStart[c+1] = relStart[c] + scanProds(c, null, 0, null);
+        }
+        int[]    relData = new int[relStart[numNTs]];
+        long[][] direct  = new long[numNTs][];
+        for (int c=0; c<numNTs; c++) {
+            direct[c] = BitSet.make(numTs);
+            scanProds(c, relData, relStart[c], direct[c]);
+        }
+        long[][] firsts = Relation.closure(relStart, relData, direct);
+        first           = new TokenSet[numNTs];
         for (int i=0; i<numNTs; i++) {
-            first[i] = BitSet.make(numTs);
+            first[i] = TokenSet.fromBitSet(firsts[i], numTs);
         }
-        bottomUp();
     }
 
-    /** Run the analysis at a particular point.  Return a boolean true
-     *  if this changed the current approximation at this point.
+    /** Scan the productions for c, up to and including the first symbol
+     *  in each that is not nullable.  Return the number of nonterminals
+     *  that we pass, saving them in relData from position pos onwards,
+     *  and adding the terminals that we reach to direct, if relData and
+     *  direct are not null.
      */
-    protected boolean analyze(int c) {
-        boolean changed = false;
+    private int scanProds(int c, int[] relData, int pos, long[] direct) {
+        int            count = 0;
         Grammar.Prod[] prods = grammar.getProds(c);
         for (int k=0; k<prods.length; k++) {
             int[] rhs = prods[k].getRhs();
-            int   l   = 0;
-            for (; l<rhs.length; l++) {
+            for (int l=0; l<rhs.length; l++) {
                 if (grammar.isTerminal(rhs[l])) {
-                    if (BitSet.addTo(first[c], rhs[l] - numNTs)) {
-                        changed = true;
+                    if (direct!=null) {
+                        BitSet.set(direct, rhs[l]-numNTs);
                     }
                     break;
-                } else {
-                    if (BitSet.addTo(first[c], first[rhs[l]])) {
-                        changed = true;
-                    }
-                    if (!nullable.at(rhs[l])) {
-                        break;
-                    }
+                }
+                if (relData!=null) {
+                    relData[pos+count] = rhs[l];
+                }
+                count++;
+                if (!nullable.at(rhs[l])) {
+                    break;
                 }
             }
         }
-        return changed;
+        return count;
     }
 
-    /** Return a bitset of the first symbols for a given nonterminal.
+    /** Return the set of first symbols for a given nonterminal.
      */
-    public int[] at(int i) {
+    public TokenSet at(int i) {
         return first[i];
     }
 
@@ -6,79 +6,90 @@
 package jacc.grammar;
 
 import jacc.util.BitSet;
+import jacc.util.Relation;
+import jacc.util.TokenSet;
 
 /** Calculation of follow sets.  The follow set of a given nonterminal X
  *  is the set of all terminal symbols that can appear immediately after
  *  a string derived from X.  This information is used, for example, in
  *  the calculation of SLR lookaheads.
+ *
+ *  We visit each occurrence of X in the grammar once, using the index
+ *  in Grammar, to find the tokens that can come after X within the same
+ *  production.  If the rest of the production A -> v X w is nullable,
+ *  then the follow set of A is also included in the follow set of X.
+ *  The follow sets are then the closure of these "tail" links over the
+ *  sets of tokens found directly, which Relation.closure calculates in
+ *  a single pass over the components of the links.
  */
-public final class Follow extends Analysis {
-    private Grammar  grammar;
-    private Nullable nullable;
-    private First    first;
-    private int      numNTs;
-    private int      numTs;
-    private int[][]  follow;
+public final class Follow {
+    private Grammar    grammar;
+    private Nullable   nullable;
+    private First      first;
+    private int        numNTs;
+    private int        numTs;
+    private TokenSet[] follow;
 
     /** Construct a follow set analysis for a given grammar.
      */
     public Follow(Grammar grammar, Nullable nullable, First first) {
-        super(grammar.getComponents());
         this.grammar  = grammar;
         this.nullable = nullable;
         this.first    = first;
         this.numNTs   = grammar.getNumNTs();
         this.numTs    = grammar.getNumTs();
-        follow        = new int[numNTs][];
+        int numOccs   = 0;
+        for (int x=0; x<numNTs; x++) {
+            numOccs += grammar.getNumOccurrences(x);
+        }
+        int[]    tailStart = new int[numNTs+1];
+        int[]    tailData  = new int[numOccs];
+        long[][] direct    = new long[numNTs][];
+        for (int x=0; x<numNTs; x++) {
+            direct[x] = BitSet.make(numTs);
+            int pos   = tailStart[x];
+            int n     = grammar.getNumOccurrences(x);
+            for (int i=0; i<n; i++) {
+                int   lhs = grammar.getOccurrenceLhs(x, i);
+                int   k   = grammar.getOccurrenceProd(x, i);
+                int   l   = grammar.getOccurrencePos(x, i);
+                int[] rhs = grammar.getProds(lhs)[k].getRhs();
+                if (addFirsts(direct[x], rhs, l+1) && lhs!=x
+                     && (pos==tailStart[x] || tailData[pos-1]!=lhs)) {
+                    tailData[pos++] = lhs;
+                }
+            }
+            tailStart[x+1] = pos;
+        }
+        BitSet.set(direct[0], numTs-1);
+        long[][] follows = Relation.closure(tailStart, tailData, direct);
+        follow           = new TokenSet[numNTs];
         for (int i=0; i<numNTs; i++) {
-            follow[i] = BitSet.make(numTs);
+            follow[i] = TokenSet.fromBitSet(follows[i], numTs);
         }
-        BitSet.set(follow[0], numTs-1);
-        topDown();
     }
 
-    /** Run the analysis at a particular point.  Return a boolean true
-     *  if this changed the current approximation at this point.
+    /** Add the tokens that can appear at the start of the symbols from
+     *  position l onwards in rhs to a given bitset.  Return true if all
+     *  of those symbols are nullable.
      */
-    protected boolean analyze(int c) {
-        boolean changed      = false;
-        Grammar.Prod[] prods = grammar.getProds(c);
-        for (int k=0; k<prods.length; k++) {
-            int[] rhs = prods[k].getRhs();
-            int   l   = 0;
-            for (; l<rhs.length; l++) {
-                if (grammar.isNonterminal(rhs[l])) {
-                    int m = l+1;
-                    for (; m<rhs.length; m++) {
-                        if (grammar.isTerminal(rhs[m])) {
-                            if (BitSet.addTo(follow[rhs[l]], rhs[m]-numNTs)) {
-                                changed = true;
-                            }
-                            break;
-                        } else {
-                            if (BitSet.addTo(follow[rhs[l]],
-                                             first.at(rhs[m]))) {
-                                changed = true;
-                            }
-                            if (!nullable.at(rhs[m])) {
-                                break;
-                            }
-                        }
-                    }
-                    if (m>=rhs.length) {
-                        if (BitSet.addTo(follow[rhs[l]], follow[c])) {
-                            changed = true;
-                        }
-                    }
-                }
+    private boolean addFirsts(long[] fs, int[] rhs, int l) {
+        for (; l<rhs.length; l++) {
+            if (grammar.isTerminal(rhs[l])) {
+                BitSet.set(fs, rhs[l]-numNTs);
+                return false;
+            }
+            first.at(rhs[l]).unionInto(fs);
+            if (!nullable.at(rhs[l])) {
+                return false;
             }
         }
-        return changed;
+        return true;
     }
 
-    /** Return a bitset of the follow symbols for a given nonterminal.
+    /** Return the set of follow symbols for a given nonterminal.
      */
-    public int[] at(int i) {
+    public TokenSet at(int i) {
         return follow[i];
     }
 
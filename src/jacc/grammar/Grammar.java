@@ -8,6 +8,7 @@ package jacc.grammar;
 import jacc.util.SCC;
 import jacc.util.BitSet;
 import jacc.util.Interator;
+import jacc.util.TokenSet;
 
 /** A representation for context free grammars.
  */
@@ -71,8 +72,9 @@ public class Grammar {
         this.prods   = prods;
         numNTs       = prods.length;
         numTs        = numSyms - numNTs;
+        calcOccurrences();
         calcDepends();
-        comps        = SCC.get(depends, revdeps,numNTs);
+        comps        = SCC.get(depends, numNTs);
     }
 
     /** Records the total number of symbols for this grammar.
@@ -177,6 +179,50 @@ public class Grammar {
         return comps;
     }
 
+    /** Return the dependencies between nonterminals: the ith entry lists
+     *  the nonterminals that appear on the right hand side of productions
+     *  for nonterminal i.
+     */
+    public int[][] getDepends() {
+        return depends;
+    }
+
+    /** Return the reverse dependencies between nonterminals: the ith entry
+     *  lists the nonterminals with productions that refer to nonterminal i.
+     */
+    public int[][] getRevdeps() {
+        return revdeps;
+    }
+
+    /** Return the number of places where a given symbol appears on the
+     *  right hand side of a production.
+     */
+    public int getNumOccurrences(int sym) {
+        return occStart[sym+1] - occStart[sym];
+    }
+
+    /** Return the nonterminal whose production holds the ith occurrence
+     *  of a given symbol.  The occurrences of each symbol are listed in
+     *  order of nonterminal, then production, then position.
+     */
+    public int getOccurrenceLhs(int sym, int i) {
+        return occLhs[occStart[sym]+i];
+    }
+
+    /** Return the number, within the productions for its nonterminal, of
+     *  the production that holds the ith occurrence of a given symbol.
+     */
+    public int getOccurrenceProd(int sym, int i) {
+        return occProd[occStart[sym]+i];
+    }
+
+    /** Return the position on the right hand side of its production of
+     *  the ith occurrence of a given symbol.
+     */
+    public int getOccurrencePos(int sym, int i) {
+        return occPos[occStart[sym]+i];
+    }
+
     /** Validate a given set of symbols and productions.  This function
      *  allows a user to test a potential set of arguments for the Grammar
      *  constructor without actually attempting to build the grammar.
@@ -232,6 +278,54 @@ public class Grammar {
         }
     }
 
+    //---------------------------------------------------------------------
+    // Occurrence index:
+
+    /** The occurrences of symbol s on the right hand sides of productions
+     *  are held at positions occStart[s] to occStart[s+1]-1 of occLhs,
+     *  occProd and occPos, which record the nonterminal, the number of
+     *  the production for that nonterminal, and the position in its rhs.
+     */
+    private int[] occStart;
+    private int[] occLhs;
+    private int[] occProd;
+    private int[] occPos;
+
+    /** Build the occurrence index with one pass to count the occurrences
+     *  of each symbol and a second to fill them in.
+     */
+    private void calcOccurrences() {
+        occStart = new int[numSyms+1];
+        for (int i=0; i<numNTs; i++) {
+            for (int j=0; j<prods[i].length; j++) {
+                int[] rhs = prods[i][j].getRhs();
+                for (int k=0; k<rhs.length; k++) {
+                    occStart[rhs[k]+1]++;
+                }
+            }
+        }
+        for (int s=0; s<numSyms; s++) {
+            occStart[s+1] += occStart[s];
+        }
+        int   numOccs = occStart[numSyms];
+        int[] fill    = new int[numSyms];
+        System.arraycopy(occStart, 0, fill, 0, numSyms);
+        occLhs  = new int[numOccs];
+        occProd = new int[numOccs];
+        occPos  = new int[numOccs];
+        for (int i=0; i<numNTs; i++) {
+            for (int j=0; j<prods[i].length; j++) {
+                int[] rhs = prods[i][j].getRhs();
+                for (int k=0; k<rhs.length; k++) {
+                    int o      = fill[rhs[k]]++;
+                    occLhs[o]  = i;
+                    occProd[o] = j;
+                    occPos[o]  = k;
+                }
+            }
+        }
+    }
+
     //---------------------------------------------------------------------
     // Dependency calculations:
 
@@ -244,33 +338,40 @@ public class Grammar {
     private int[][] revdeps;
 
     /** Calculate the dependencies between nonterminal symbols in the
-     *  grammar.
+     *  grammar.  The reverse dependencies are read directly from the
+     *  occurrence index, where they are already in order, and then each
+     *  reverse dependency gives a forward dependency.
      */
     private void calcDepends() {
-        int[][] deps = new int[numNTs][];
-        int[]   nts  = BitSet.make(numNTs);
-        depends      = new int[numNTs][];
-
-        for (int i=0; i<numNTs; i++) {
-            deps[i] = BitSet.make(numNTs);
-        }
-        for (int i=0; i<numNTs; i++) {
-            BitSet.clear(nts);
-            for (int j=0; j<prods[i].length; j++) {
-                int[] rhs = prods[i][j].getRhs();
-                for (int k=0; k<rhs.length; k++) {
-                    if (isNonterminal(rhs[k])) {
-                        BitSet.set(deps[rhs[k]], i);
-                        BitSet.set(nts, rhs[k]);
-                    }
+        int[] count = new int[numNTs];
+        revdeps     = new int[numNTs][];
+        for (int s=0; s<numNTs; s++) {
+            int num = 0;
+            for (int o=occStart[s]; o<occStart[s+1]; o++) {
+                if (o==occStart[s] || occLhs[o]!=occLhs[o-1]) {
+                    num++;
+                }
+            }
+            revdeps[s] = new int[num];
+            num        = 0;
+            for (int o=occStart[s]; o<occStart[s+1]; o++) {
+                if (o==occStart[s] || occLhs[o]!=occLhs[o-1]) {
+                    revdeps[s][num++] = occLhs[o];
+                    count[occLhs[o]]++;
                 }
             }
-            depends[i] = BitSet.members(nts);
         }
 
-        revdeps = new int[numNTs][];
+        depends = new int[numNTs][];
         for (int i=0; i<numNTs; i++) {
-            revdeps[i] = BitSet.members(deps[i]);
+            depends[i] = new int[count[i]];
+            count[i]   = 0;
+        }
+        for (int s=0; s<numNTs; s++) {
+            for (int k=0; k<revdeps[s].length; k++) {
+                int i = revdeps[s][k];
+                depends[i][count[i]++] = s;
+            }
         }
     }
 
@@ -303,6 +404,19 @@ public class Grammar {
         return finitary;
     }
 
+    /** Holds a reachability analyis, if one has been requested.
+     */
+    private Reachable reachable;
+
+    /** Return a reachability analysis for this grammar.
+     */
+    public Reachable getReachable() {
+        if (reachable==null) {
+            reachable = new Reachable(this);
+        }
+        return reachable;
+    }
+
     /** Holds a left analyis, if one has been requested.
      */
     private Left left;
@@ -376,6 +490,11 @@ public class Grammar {
         } else {
             finitary.display(out);
         }
+        if (reachable==null) {
+            out.println("No reachability analysis");
+        } else {
+            reachable.display(out);
+        }
         if (left==null) {
             out.println("No left analysis");
         } else {
@@ -432,15 +551,27 @@ public class Grammar {
 
     /** Output a set of symbols from a bitset.
      */
-    public String displaySymbolSet(int[] s, int offset) {
+    public String displaySymbolSet(long[] s, int offset) {
+        return displaySymbols(BitSet.interator(s, offset), 0);
+    }
+
+    /** Output a set of symbols from a set of tokens.
+     */
+    public String displaySymbolSet(TokenSet s, int offset) {
+        return displaySymbols(s.interator(), offset);
+    }
+
+    /** Output the symbols produced by an iterator, each increased by
+     *  a given offset.
+     */
+    private String displaySymbols(Interator mems, int offset) {
         StringBuffer buf = new StringBuffer();
         int count        = 0;
-        Interator mems   = BitSet.interator(s, offset);
         while (mems.hasNext()) {
             if (count++ != 0) {
                 buf.append(", ");
             }
-            buf.append(symbols[mems.next()].getName());
+            buf.append(symbols[offset + mems.next()].getName());
         }
         return buf.toString();
     }
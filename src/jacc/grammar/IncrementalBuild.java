@@ -0,0 +1,638 @@
+// Copyright (c) Mark P Jones, OGI School of Science & Engineering
+// Subject to conditions of distribution and use; see LICENSE for details
+// 
+
+package jacc.grammar;
+
+import java.util.HashMap;
+
+import jacc.util.BitSet;
+import jacc.util.IntSet;
+import jacc.util.TokenSet;
+
+/** Supports the construction of a machine and parse tables for a grammar
+ *  using the results of a previous build for an earlier version of the
+ *  same grammar.  Symbols in the two grammars are matched by name, and
+ *  productions are matched by their right hand sides.  Three parts of
+ *  the previous build can be reused:
+ *  <ul>
+ *  <li> The transitions out of a state are copied if every item in its
+ *       kernel comes from a matching production and no nonterminal with
+ *       different productions can appear in its closure (see Machine).
+ *  <li> The Follow set of a goto is copied if the gotos that it depends
+ *       on, directly or indirectly, have the same directly read sets and
+ *       the same reads and includes relations as before (see
+ *       DigraphLALRMachine).
+ *  <li> The row for a state in the parse tables is copied if it has the
+ *       same items, shifts, and lookahead sets as before, and the
+ *       resolver can reuse its conflicts (see Tables).
+ *  </ul>
+ *  Everything else is calculated from scratch, and states are numbered
+ *  in the usual order, so the results are exactly the same as for a
+ *  full rebuild.  An IncrementalBuild can only be used for one build.
+ */
+public class IncrementalBuild {
+    private Tables           prevTables;
+    private LookaheadMachine previous;
+    private Grammar          prevGrammar;
+    private LR0Items         prevItems;
+    private Grammar          grammar;
+    private LR0Items         items;
+
+    /** Prepare to reuse the machine and parse tables from a previous
+     *  build.  The grammar of the previous machine is compared with the
+     *  new grammar when the new machine is constructed.
+     */
+    public IncrementalBuild(Tables previous) {
+        this.prevTables  = previous;
+        this.previous    = previous.getMachine();
+        this.prevGrammar = this.previous.getGrammar();
+        this.prevItems   = this.previous.getItems();
+    }
+
+    /** Return the parse tables of the previous build.
+     */
+    public Tables getPreviousTables() {
+        return prevTables;
+    }
+
+    //---------------------------------------------------------------------
+    // Statistics:
+
+    int numReusedStates;
+    int numReusedGotos;
+    int numReusedRows;
+
+    /** Return the number of states whose transitions were copied from
+     *  the previous machine.
+     */
+    public int getNumReusedStates() {
+        return numReusedStates;
+    }
+
+    /** Return the number of gotos whose Follow sets were copied from
+     *  the previous machine.
+     */
+    public int getNumReusedGotos() {
+        return numReusedGotos;
+    }
+
+    /** Return the number of rows that were copied from the previous
+     *  parse tables.
+     */
+    public int getNumReusedRows() {
+        return numReusedRows;
+    }
+
+    //---------------------------------------------------------------------
+    // Comparing the two grammars:
+
+    /** Map symbols and items between the two grammars, using (-1) if
+     *  there is no corresponding symbol or item.
+     */
+    private int[] oldToNewSym;
+    private int[] newToOldSym;
+    private int[] oldToNewItem;
+    private int[] newToOldItem;
+
+    /** Maps terminal numbers in the previous grammar to terminal numbers
+     *  in the new grammar, using (-1) if there is no such terminal.
+     */
+    private int[] oldToNewTok;
+
+    /** Set if the terminals that appear in both grammars are numbered
+     *  in the same order.  Rows in the parse tables are only reused if
+     *  this is true, because the conflicts at a state are found in
+     *  order of terminal number.
+     */
+    private boolean sameTokenOrder;
+
+    /** A bitset of the nonterminals in the new grammar whose closure
+     *  might be different in the previous grammar.
+     */
+    private long[] affected;
+
+    /** Compare the new grammar, and its items, with the grammar of the
+     *  previous machine.  This is called by the Machine constructor.
+     */
+    void begin(Grammar grammar, LR0Items items) {
+        this.grammar = grammar;
+        this.items   = items;
+        long[] changed = calcChanges();
+        calcAffected(changed);
+        calcTokens();
+        indexPrevious();
+    }
+
+    /** Match up the symbols and items of the two grammars, returning
+     *  a bitset of the nonterminals in the new grammar that do not have
+     *  exactly the same productions (in any order) as before.
+     */
+    private long[] calcChanges() {
+        int numSyms = grammar.getNumSyms();
+        int numNTs  = grammar.getNumNTs();
+        HashMap<String,Integer> names = new HashMap<String,Integer>();
+        for (int i=0; i<numSyms; i++) {
+            names.put(grammar.getSymbol(i).getName(), Integer.valueOf(i));
+        }
+        oldToNewSym = new int[prevGrammar.getNumSyms()];
+        newToOldSym = new int[numSyms];
+        for (int i=0; i<numSyms; i++) {
+            newToOldSym[i] = (-1);
+        }
+        for (int i=0; i<oldToNewSym.length; i++) {
+            Integer n = names.get(prevGrammar.getSymbol(i).getName());
+            if (n!=null && prevGrammar.isNonterminal(i)
+                               ==grammar.isNonterminal(n.intValue())) {
+                oldToNewSym[i]            = n.intValue();
+                newToOldSym[n.intValue()] = i;
+            } else {
+                oldToNewSym[i] = (-1);
+            }
+        }
+
+        newToOldItem = new int[items.getNumItems()];
+        oldToNewItem = new int[prevItems.getNumItems()];
+        for (int i=0; i<newToOldItem.length; i++) {
+            newToOldItem[i] = (-1);
+        }
+        for (int i=0; i<oldToNewItem.length; i++) {
+            oldToNewItem[i] = (-1);
+        }
+        if (newToOldSym[0]==0) {        // Start symbol is unchanged
+            mapItem(items.getStartItem(), prevItems.getStartItem());
+            mapItem(items.getEndItem(),   prevItems.getEndItem());
+        }
+
+        long[] changed = BitSet.make(numNTs);
+        for (int nt=0; nt<numNTs; nt++) {
+            int ont = newToOldSym[nt];
+            if (ont<0 || !matchProds(nt, ont)) {
+                BitSet.set(changed, nt);
+            }
+        }
+        return changed;
+    }
+
+    /** Match the productions of a nonterminal in the new grammar with
+     *  those of the corresponding nonterminal in the previous grammar,
+     *  mapping the items of each pair of matching productions.  Returns
+     *  true if every production has a match.
+     */
+    private boolean matchProds(int nt, int ont) {
+        Grammar.Prod[] prods   = grammar.getProds(nt);
+        Grammar.Prod[] olds    = prevGrammar.getProds(ont);
+        boolean[]      taken   = new boolean[olds.length];
+        int            matched = 0;
+        int            next    = 0;
+        for (int j=0; j<prods.length; j++) {
+            for (int n=0; n<olds.length; n++) {
+                int k = (next+n) % olds.length;
+                if (!taken[k] && sameRhs(prods[j], olds[k])) {
+                    int len = Math.max(1, prods[j].getRhs().length);
+                    int i   = items.getFirstKernel(nt, j);
+                    int o   = prevItems.getFirstKernel(ont, k);
+                    for (int p=0; p<len; p++) {
+                        mapItem(i+p, o+p);
+                    }
+                    taken[k] = true;
+                    next     = k+1;
+                    matched++;
+                    break;
+                }
+            }
+        }
+        return matched==prods.length && matched==olds.length;
+    }
+
+    /** Record a correspondence between items in the two grammars.
+     */
+    private void mapItem(int newItem, int oldItem) {
+        newToOldItem[newItem] = oldItem;
+        oldToNewItem[oldItem] = newItem;
+    }
+
+    /** Determine whether a production in the new grammar has the same
+     *  right hand side as a production in the previous grammar.
+     */
+    private boolean sameRhs(Grammar.Prod prod, Grammar.Prod old) {
+        int[] rhs  = prod.getRhs();
+        int[] orhs = old.getRhs();
+        if (rhs.length!=orhs.length) {
+            return false;
+        }
+        for (int k=0; k<rhs.length; k++) {
+            if (oldToNewSym[orhs[k]]!=rhs[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Find the nonterminals whose closure includes productions for a
+     *  changed nonterminal.  Any other nonterminal has a closure that
+     *  is built from matching productions, so it is the same in both
+     *  grammars.
+     */
+    private void calcAffected(long[] changed) {
+        Left left   = grammar.getLeft();
+        int  numNTs = grammar.getNumNTs();
+        affected    = BitSet.make(numNTs);
+        for (int nt=0; nt<numNTs; nt++) {
+            if (!BitSet.disjoint(left.at(nt), changed)) {
+                BitSet.set(affected, nt);
+            }
+        }
+    }
+
+    /** Map the terminals of the previous grammar to terminals of the new
+     *  grammar, and check whether they are in the same order.
+     */
+    private void calcTokens() {
+        int oldNTs     = prevGrammar.getNumNTs();
+        int numNTs     = grammar.getNumNTs();
+        oldToNewTok    = new int[prevGrammar.getNumTs()];
+        sameTokenOrder = true;
+        int last       = (-1);
+        for (int t=0; t<oldToNewTok.length; t++) {
+            int sym = oldToNewSym[oldNTs+t];
+            if (sym<0) {
+                oldToNewTok[t] = (-1);
+            } else {
+                oldToNewTok[t] = sym-numNTs;
+                if (oldToNewTok[t]<last) {
+                    sameTokenOrder = false;
+                }
+                last = oldToNewTok[t];
+            }
+        }
+    }
+
+    /** Return the number of the symbol in the new grammar that matches a
+     *  symbol in the previous grammar, or (-1) if there is none.
+     */
+    public int getNewSymbol(int oldSym) {
+        return oldToNewSym[oldSym];
+    }
+
+    /** Return the number of the terminal in the new grammar that matches
+     *  a terminal in the previous grammar, or (-1) if there is none.
+     */
+    int getNewToken(int oldTok) {
+        return oldToNewTok[oldTok];
+    }
+
+    /** Return the number of the item in the previous grammar that matches
+     *  an item in the new grammar, or (-1) if there is none.
+     */
+    int getOldItem(int item) {
+        return newToOldItem[item];
+    }
+
+    /** Return true if the terminals that appear in both grammars are in
+     *  the same order.
+     */
+    boolean getSameTokenOrder() {
+        return sameTokenOrder;
+    }
+
+    /** Translate a set of terminals in the previous grammar into a set of
+     *  terminals in the new grammar, or return null if one of them does
+     *  not have a counterpart.
+     */
+    TokenSet translate(TokenSet olds) {
+        TokenSet set = new TokenSet(grammar.getNumTs());
+        for (int t=olds.nextMember(0); t>=0; t=olds.nextMember(t+1)) {
+            if (oldToNewTok[t]<0) {
+                return null;
+            }
+            set.add(oldToNewTok[t]);
+        }
+        return set;
+    }
+
+    //---------------------------------------------------------------------
+    // Finding states in the previous machine:
+
+    /** The kernel of each state in the previous machine, and a hash
+     *  table for finding the state with a given kernel.
+     */
+    private IntSet[] prevKernels;
+    private int[]    bucket;
+    private int[]    nextInBucket;
+
+    /** Build a hash table of the kernels in the previous machine.
+     */
+    private void indexPrevious() {
+        int numStates = previous.getNumStates();
+        int size      = 16;
+        while (size<numStates) {
+            size *= 2;
+        }
+        prevKernels  = new IntSet[numStates];
+        bucket       = new int[size];
+        nextInBucket = new int[numStates];
+        for (int i=0; i<size; i++) {
+            bucket[i] = (-1);
+        }
+        for (int st=0; st<numStates; st++) {
+            IntSet its    = previous.getItemsAt(st);
+            IntSet kernel = IntSet.empty();
+            for (int k=0; k<its.size(); k++) {
+                if (!prevItems.isNullRed(its.at(k))) {
+                    kernel.add(its.at(k));
+                }
+            }
+            int b            = bucketFor(kernel);
+            prevKernels[st]  = kernel;
+            nextInBucket[st] = bucket[b];
+            bucket[b]        = st;
+        }
+    }
+
+    /** Return the bucket that holds a given kernel.
+     */
+    private int bucketFor(IntSet kernel) {
+        int h = kernel.hashCode();
+        h ^= (h >>> 16);
+        return h & (bucket.length-1);
+    }
+
+    /** Return the number of the state in the previous machine whose
+     *  kernel corresponds to a given kernel in the new grammar, or (-1)
+     *  if there is no such state.
+     */
+    private int findPrevious(IntSet kernel) {
+        IntSet old = IntSet.empty();
+        for (int k=0; k<kernel.size(); k++) {
+            int i = kernel.at(k);
+            if (!items.isNullRed(i)) {
+                int o = newToOldItem[i];
+                if (o<0) {
+                    return (-1);
+                }
+                old.add(o);
+            }
+        }
+        for (int st=bucket[bucketFor(old)]; st>=0; st=nextInBucket[st]) {
+            if (prevKernels[st].equals(old)) {
+                return st;
+            }
+        }
+        return (-1);
+    }
+
+    //---------------------------------------------------------------------
+    // Reusing transitions:
+
+    /** Return the transitions out of a state with a given kernel by
+     *  copying them from the previous machine, or null if they must be
+     *  calculated from scratch.  This only reads data that was set up
+     *  by begin(), so it may be called from several threads at once.
+     */
+    Machine.Successors reuse(IntSet kernel) {
+        for (int k=0; k<kernel.size(); k++) {
+            int i = kernel.at(k);
+            if (items.canGoto(i)) {
+                int sym = items.getNextSym(i);
+                if (grammar.isNonterminal(sym) && BitSet.get(affected, sym)) {
+                    return null;
+                }
+            }
+        }
+        int st = findPrevious(kernel);
+        if (st<0) {
+            return null;
+        }
+
+        // Translate the transitions into the new grammar, keeping them
+        // in order of increasing symbol number:
+        Machine.Successors succs = new Machine.Successors();
+        int n         = previous.getNumSuccsAt(st);
+        succs.syms    = new int[n];
+        succs.kernels = new IntSet[n];
+        for (int j=0; j<n; j++) {
+            int dst = previous.getSuccAt(st, j);
+            if (dst<0) {
+                return null;
+            }
+            int    sym = oldToNewSym[previous.getEntry(dst)];
+            IntSet ker = translate(prevKernels[dst]);
+            if (sym<0 || ker==null) {
+                return null;
+            }
+            int k = j;
+            for (; k>0 && succs.syms[k-1]>sym; k--) {
+                succs.syms[k]    = succs.syms[k-1];
+                succs.kernels[k] = succs.kernels[k-1];
+            }
+            succs.syms[k]    = sym;
+            succs.kernels[k] = ker;
+        }
+
+        // Translate the null reductions:
+        IntSet its = previous.getItemsAt(st);
+        for (int k=0; k<its.size(); k++) {
+            int o = its.at(k);
+            if (prevItems.isNullRed(o)) {
+                if (oldToNewItem[o]<0) {
+                    return null;
+                }
+                if (succs.nullReds==null) {
+                    succs.nullReds = IntSet.empty();
+                }
+                succs.nullReds.add(oldToNewItem[o]);
+            }
+        }
+        return succs;
+    }
+
+    /** Translate a set of items from the previous grammar into a new
+     *  set of items for the new grammar, or return null if one of the
+     *  items does not have a counterpart.
+     */
+    private IntSet translate(IntSet olds) {
+        IntSet set = IntSet.empty();
+        for (int k=0; k<olds.size(); k++) {
+            int i = oldToNewItem[olds.at(k)];
+            if (i<0) {
+                return null;
+            }
+            set.add(i);
+        }
+        return set;
+    }
+
+    //---------------------------------------------------------------------
+    // Matching the states of the two machines:
+
+    /** Map states between the two machines, using (-1) if there is no
+     *  state with a corresponding kernel.
+     */
+    private int[] newToOldState;
+    private int[] oldToNewState;
+
+    /** Match each state of a new machine with the state of the previous
+     *  machine, if any, that has the corresponding kernel.  This is
+     *  called by the Machine constructor once the states are complete.
+     */
+    void mapStates(Machine machine) {
+        int numStates = machine.getNumStates();
+        newToOldState = new int[numStates];
+        oldToNewState = new int[previous.getNumStates()];
+        for (int i=0; i<oldToNewState.length; i++) {
+            oldToNewState[i] = (-1);
+        }
+        for (int st=0; st<numStates; st++) {
+            int o = findPrevious(machine.getItemsAt(st));
+            newToOldState[st] = o;
+            if (o>=0) {
+                oldToNewState[o] = st;
+            }
+        }
+    }
+
+    /** Return the state in the previous machine that corresponds to a
+     *  state in the new machine, or (-1) if there is none.  The accept
+     *  state, (-1), corresponds to itself.
+     */
+    public int getOldState(int st) {
+        return (st<0) ? st : newToOldState[st];
+    }
+
+    /** Return the state in the new machine that corresponds to a state
+     *  in the previous machine, or (-1) if there is none.  The accept
+     *  state, (-1), corresponds to itself.
+     */
+    public int getNewState(int oldSt) {
+        return (oldSt<0) ? oldSt : oldToNewState[oldSt];
+    }
+
+    //---------------------------------------------------------------------
+    // Gotos in the previous machine:
+
+    /** The Follow set for each goto in the previous machine, and the
+     *  reads and includes relations between them, or null if these are
+     *  not known.  Gotos are numbered as in DigraphLALRMachine.
+     */
+    private TokenSet[] prevFollow;
+    private int[]      prevReadStart;
+    private int[]      prevReadData;
+    private int[]      prevIncStart;
+    private int[]      prevIncData;
+
+    /** The number of the first goto in each state of the previous
+     *  machine, and the target of each goto.
+     */
+    private int[] prevFirstGoto;
+    private int[] prevGotoTrans;
+
+    /** Record the Follow sets of the gotos in the previous machine, and
+     *  the reads and includes relations that were used to calculate
+     *  them, as described by DigraphLALRMachine.  These are ignored if
+     *  they do not match the previous machine.
+     */
+    public void setGotoFollow(TokenSet[] follow,
+                              int[] readStart, int[] readData,
+                              int[] incStart, int[] incData) {
+        int numStates = previous.getNumStates();
+        int numGotos  = 0;
+        prevFirstGoto = new int[numStates];
+        for (int st=0; st<numStates; st++) {
+            prevFirstGoto[st] = numGotos;
+            numGotos         += previous.getNumGotosAt(st);
+        }
+        if (follow.length!=numGotos
+         || readStart.length!=numGotos+1 || incStart.length!=numGotos+1) {
+            prevFirstGoto = null;
+            return;
+        }
+        prevGotoTrans = new int[numGotos];
+        for (int st=0; st<numStates; st++) {
+            int n = previous.getNumGotosAt(st);
+            for (int i=0; i<n; i++) {
+                prevGotoTrans[prevFirstGoto[st]+i] = previous.getGotoAt(st, i);
+            }
+        }
+        prevFollow    = follow;
+        prevReadStart = readStart;
+        prevReadData  = readData;
+        prevIncStart  = incStart;
+        prevIncData   = incData;
+    }
+
+    /** Return true if the Follow sets of the previous gotos are known.
+     */
+    boolean hasGotos() {
+        return prevFollow!=null;
+    }
+
+    /** Return the number of the goto in the previous machine that
+     *  corresponds to the goto on nt from st in the new machine, or (-1)
+     *  if there is none.
+     */
+    int getOldGoto(int st, int nt) {
+        int os  = newToOldState[st];
+        int ont = newToOldSym[nt];
+        if (os>=0 && ont>=0) {
+            int n = previous.getNumGotosAt(os);
+            for (int i=0; i<n; i++) {
+                if (previous.getEntry(previous.getGotoAt(os, i))==ont) {
+                    return prevFirstGoto[os] + i;
+                }
+            }
+        }
+        return (-1);
+    }
+
+    /** Return the tokens that are read directly after a goto in the
+     *  previous machine, translated into the new grammar, or null if one
+     *  of them does not have a counterpart.
+     */
+    TokenSet getOldDirectReads(int og) {
+        int      st     = prevGotoTrans[og];
+        int      oldNTs = prevGrammar.getNumNTs();
+        int      n      = previous.getNumShiftsAt(st);
+        TokenSet dr     = new TokenSet(grammar.getNumTs());
+        for (int j=0; j<n; j++) {
+            int dst = previous.getShiftAt(st, j);
+            int tok = (dst<0) ? (prevGrammar.getNumTs()-1)
+                              : (previous.getEntry(dst)-oldNTs);
+            if (oldToNewTok[tok]<0) {
+                return null;
+            }
+            dr.add(oldToNewTok[tok]);
+        }
+        return dr;
+    }
+
+    /** Return the Follow set of a goto in the previous machine,
+     *  translated into the new grammar, or null if one of its tokens does
+     *  not have a counterpart.
+     */
+    TokenSet getOldFollow(int og) {
+        return translate(prevFollow[og]);
+    }
+
+    /** Return the gotos in the previous machine that a given goto reads.
+     */
+    int[] getOldReads(int og) {
+        return slice(prevReadStart, prevReadData, og);
+    }
+
+    /** Return the gotos in the previous machine that a given goto
+     *  includes.
+     */
+    int[] getOldIncludes(int og) {
+        return slice(prevIncStart, prevIncData, og);
+    }
+
+    /** Return a copy of the entries for a given element in a relation
+     *  that is stored in compressed sparse row format.
+     */
+    private static int[] slice(int[] start, int[] data, int i) {
+        int[] res = new int[start[i+1]-start[i]];
+        System.arraycopy(data, start[i], res, 0, res.length);
+        return res;
+    }
+}
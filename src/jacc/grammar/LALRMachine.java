@@ -5,10 +5,11 @@
 
 package jacc.grammar;
 
-import jacc.util.BitSet;
 import jacc.util.IntSet;
 import jacc.util.SCC;
 import jacc.util.Interator;
+import jacc.util.TokenSet;
+import jacc.util.TokenSetPool;
 
 /** A machine that provides LALR lookahead sets for each reduction.
  */
@@ -20,18 +21,49 @@ public class LALRMachine extends LookaheadMachine {
     /** Construct a machine for a given grammar.
      */
     public LALRMachine(Grammar grammar) {
-        super(grammar);
+        this(grammar, 1);
+    }
+
+    /** Construct a machine for a given grammar, using up to numThreads
+     *  threads during construction.
+     */
+    public LALRMachine(Grammar grammar, int numThreads) {
+        super(grammar, numThreads);
         this.nullable = grammar.getNullable();
         this.first    = grammar.getFirst();
-        predState     = SCC.invert(succState, numStates);
+        calcPredStates();
         calcGotoLA();
         calcLookahead();
     }
 
     /** Records the states that we could have come from in a single step to
-     *  reach each state.
+     *  reach each state, using the same layout as Machine.succStart and
+     *  Machine.succData.
+     */
+    private int[] predStart;
+    private int[] predData;
+
+    /** Calculate predecessors by inverting the successor relation.
      */
-    private int[][] predState;
+    private void calcPredStates() {
+        predStart = new int[numStates+1];
+        predData  = new int[succStart[numStates]];
+        for (int j=0; j<predData.length; j++) {
+            predStart[succData[j]+1]++;
+        }
+        for (int st=0; st<numStates; st++) {
+            predStart[st+1] += predStart[st];
+        }
+        int[] fill = new int[numStates];
+        for (int st=0; st<numStates; st++) {
+            fill[st] = predStart[st+1];
+        }
+        for (int st=0; st<numStates; st++) {
+            for (int j=succStart[st]; j<succStart[st+1]; j++) {
+                predData[--fill[succData[j]]] = st;
+            }
+        }
+    }
 
     /** The total number of gotos in all states.
      */
@@ -53,7 +85,7 @@ public class LALRMachine extends LookaheadMachine {
 
     /** Records the lookahead sets for each goto.
      */
-    private int[][] gotoLA;
+    private TokenSet[] gotoLA;
 
     /** Records the target set for each goto.
      */
@@ -62,11 +94,11 @@ public class LALRMachine extends LookaheadMachine {
     /** Records the lookahead sets for reduce items.  Lookahead sets are
      *  stored in the order specified by Machine.getReducesAt().
      */
-    private int[][][] laReds;
+    private TokenSet[][] laReds;
 
     /** Return lookahead sets for the reductions at a given state.
      */
-    public int[] getLookaheadAt(int st, int i) {
+    public TokenSet getLookaheadAt(int st, int i) {
         return laReds[st][i];
     }
 
@@ -79,23 +111,23 @@ public class LALRMachine extends LookaheadMachine {
         numGotos       = 0;
         for (int st=0; st<numStates; st++) {
             stateFirstGoto[st] = numGotos;
-            numGotos          += getGotosAt(st).length;
+            numGotos          += getNumGotosAt(st);
         }
         gotoSource  = new int[numGotos];
         gotoTrans   = new int[numGotos];
         int count   = 0;
         for (int st=0; st<numStates; st++) {
-            int[] gotos = getGotosAt(st);
-            for (int i=0; i<gotos.length; i++) {
+            int n = getNumGotosAt(st);
+            for (int i=0; i<n; i++) {
                 gotoSource[count] = st;
-                gotoTrans[count]  = gotos[i];
+                gotoTrans[count]  = getGotoAt(st, i);
                 count++;
             }
         }
 
         // Now we calculate the targets and the immediate first
         // sets for each goto.
-        gotoLA      = new int[numGotos][];
+        gotoLA      = new TokenSet[numGotos];
         gotoTargets = new int[numGotos][];
         for (int g=0; g<numGotos; g++) {
             calcTargets(g);
@@ -114,7 +146,7 @@ public class LALRMachine extends LookaheadMachine {
                 for (int i=0; i<comp.length; i++) {
                     int[] ts = gotoTargets[comp[i]];
                     for (int j=0; j<ts.length; j++) {
-                        if (BitSet.addTo(gotoLA[comp[i]], gotoLA[ts[j]])) {
+                        if (gotoLA[comp[i]].addAll(gotoLA[ts[j]])) {
                             changed = true;
                         }
                     }
@@ -136,26 +168,26 @@ public class LALRMachine extends LookaheadMachine {
      *             index gn.
      */
     private void calcTargets(int g) {
-        int    st  = gotoSource[g];
-        int    st1 = gotoTrans[g];
-        int    nt  = getEntry(st1);
-        IntSet its = getItemsAt(st1);
-        int    sz  = its.size();
-        int[]  fs  = BitSet.make(numTs);
-        IntSet ts  = IntSet.empty();
+        int      st  = gotoSource[g];
+        int      st1 = gotoTrans[g];
+        int      nt  = getEntry(st1);
+        IntSet   its = getItemsAt(st1);
+        int      sz  = its.size();
+        TokenSet fs  = new TokenSet(numTs);
+        IntSet   ts  = IntSet.empty();
         for (int j=0; j<sz; j++) {
-            LR0Items.Item it  = items.getItem(its.at(j));
-            int           lhs = it.getLhs();
-            int           pos = it.getPos();
+            int it  = its.at(j);
+            int lhs = items.getLhs(it);
+            int pos = items.getPos(it);
             if (lhs>=0) {
-                int[] rhs = it.getProd().getRhs();
+                int[] rhs = items.getProd(it).getRhs();
                 if (pos>0 && rhs[--pos]==nt) {
-                    if (calcFirsts(fs, it).canReduce()) {
+                    if (items.canReduce(calcFirsts(fs, it))) {
                         findTargets(ts, st, lhs, rhs, pos);
                     }
                 }
             } else if (pos>0) {
-                BitSet.set(fs, numTs-1);
+                fs.add(numTs-1);
             }
         }
         gotoLA[g]      = fs;
@@ -171,24 +203,24 @@ public class LALRMachine extends LookaheadMachine {
      *  @param fs  An accumulating parameter that holds a bitset of the
      *             tokens that might occur at the beginning of the string
      *             to the right of the _ mark in the specified item.
-     *  @param it  An item of the grammar.
+     *  @param it  The number of an item of the grammar.
      */
-    private LR0Items.Item calcFirsts(int[] fs, LR0Items.Item it) {
-        while (it.canGoto()) {
-            int sym = it.getNextSym();
+    private int calcFirsts(TokenSet fs, int it) {
+        while (items.canGoto(it)) {
+            int sym = items.getNextSym(it);
             if (grammar.isTerminal(sym)) {
-                BitSet.addTo(fs,sym-numNTs);
+                fs.add(sym-numNTs);
                 break;
             } else {
-                BitSet.union(fs, first.at(sym));
+                fs.addAll(first.at(sym));
                 if (!nullable.at(sym)) {
                     break;
                 }
-                it = items.getItem(it.getNextItem());
+                it = items.getNextItem(it);
             }
         }
-        if (it.canAccept()) {
-            BitSet.set(fs,numTs-1);
+        if (items.canAccept(it)) {
+            fs.add(numTs-1);
         }
         return it;
     }
@@ -208,17 +240,17 @@ public class LALRMachine extends LookaheadMachine {
      */
     private void findTargets(IntSet ts, int st, int lhs, int[] rhs, int pos) {
         if (pos==0) {
-            int[] gotos = getGotosAt(st);
-            for (int i=0; i<gotos.length; i++) {
-                if (getEntry(gotos[i])==lhs) {
+            int n = getNumGotosAt(st);
+            for (int i=0; i<n; i++) {
+                if (getEntry(getGotoAt(st, i))==lhs) {
                     ts.add(stateFirstGoto[st]+i);
                     break;
                 }
             }
         } else {
             if (entry[st]==rhs[--pos]) {
-                for (int i=0; i<predState[st].length; i++) {
-                    findTargets(ts, predState[st][i], lhs, rhs, pos);
+                for (int i=predStart[st]; i<predStart[st+1]; i++) {
+                    findTargets(ts, predData[i], lhs, rhs, pos);
                 }
             }
         }
@@ -227,22 +259,28 @@ public class LALRMachine extends LookaheadMachine {
     /** Calculate lookahead sets.  Fills out the entries of laReds for
      *  each reduce item in each state by unioning together the lookaheads
      *  for each goto that is (potentially) reachable from this reduction.
+     *  Many of the resulting sets are identical, so they are interned,
+     *  together with the lookahead sets for the gotos, in a single pool.
      */
     private void calcLookahead() {
+        TokenSetPool pool = new TokenSetPool();
+        for (int g=0; g<numGotos; g++) {
+            gotoLA[g] = pool.intern(gotoLA[g]);
+        }
+
         // Fill out the entries of laRed to record lookaheads for
         // reduce items in individual states.
-        laReds = new int[numStates][][];
+        laReds = new TokenSet[numStates][];
         for (int st=0; st<numStates; st++) {
-            int[]  rs  = getReducesAt(st);
             IntSet its = getItemsAt(st);
-            laReds[st] = new int[rs.length][];
-            for (int j=0; j<rs.length; j++) {
-                LR0Items.Item it = items.getItem(its.at(rs[j]));
-                int   lhs        = it.getLhs();
-                int[] rhs        = it.getProd().getRhs();
-                int[] lookahead  = BitSet.make(numTs);
+            laReds[st] = new TokenSet[getNumReducesAt(st)];
+            for (int j=0; j<laReds[st].length; j++) {
+                int      it        = its.at(getReduceAt(st, j));
+                int      lhs       = items.getLhs(it);
+                int[]    rhs       = items.getProd(it).getRhs();
+                TokenSet lookahead = new TokenSet(numTs);
                 lookBack(lookahead, st, lhs, rhs, rhs.length);
-                laReds[st][j]    = lookahead;
+                laReds[st][j]      = pool.intern(lookahead);
             }
         }
     }
@@ -259,19 +297,19 @@ public class LALRMachine extends LookaheadMachine {
      *             that we have found our way back to a state
      *             that (potentially) contains a relevant goto.
      */
-    private void lookBack(int[] la, int st, int lhs, int[] rhs, int pos) {
+    private void lookBack(TokenSet la, int st, int lhs, int[] rhs, int pos) {
         if (pos==0) {
-            int[] gotos = getGotosAt(st);
-            for (int i=0; i<gotos.length; i++) {
-                if (getEntry(gotos[i])==lhs) {
-                    BitSet.union(la, gotoLA[stateFirstGoto[st]+i]);
+            int n = getNumGotosAt(st);
+            for (int i=0; i<n; i++) {
+                if (getEntry(getGotoAt(st, i))==lhs) {
+                    la.addAll(gotoLA[stateFirstGoto[st]+i]);
                     return;
                 }
             }
         } else {
             if (entry[st]==rhs[--pos]) {
-                for (int i=0; i<predState[st].length; i++) {
-                    lookBack(la, predState[st][i], lhs, rhs, pos);
+                for (int i=predStart[st]; i<predStart[st+1]; i++) {
+                    lookBack(la, predData[i], lhs, rhs, pos);
                 }
             }
         }
@@ -29,18 +29,23 @@ public class LR0Items {
                 numItems         += (len==0 ? 1 : len);
             }
         }
-        items       = new Item[numItems];
-        numItems    = 0;
-        new Item(-1,0,0);                   // Represents S' -> _ S $
-        new Item(-1,0,1);                   // Represents S' -> S _ $
+        lhs      = new int[numItems];
+        prodNo   = new int[numItems];
+        pos      = new int[numItems];
+        nextSym  = new int[numItems];
+        flags    = new byte[numItems];
+        items    = new Item[numItems];
+        numItems = 0;
+        addItem(-1, 0, 0, 0);               // Represents S' -> _ S $
+        addItem(-1, 0, 1, (-1));            // Represents S' -> S _ $
         for (int i=0; i<numNTs; i++) {
             Grammar.Prod[] prods = grammar.getProds(i);
             for (int j=0; j<prods.length; j++) {
                 int[] rhs = prods[j].getRhs();
                 for (int k=1; k<rhs.length; k++) {
-                    new Item(i, j, k);
+                    addItem(i, j, k, rhs[k]);
                 }
-                new Item(i, j, rhs.length);
+                addItem(i, j, rhs.length, (-1));
             }
         }
     }
@@ -49,10 +54,46 @@ public class LR0Items {
      */
     private int numItems;
 
-    /** An array of item objects, one for each of the items in this set.
+    /** Describe each item using a set of parallel arrays, indexed by
+     *  item number, so that the most frequently used properties of an
+     *  item can be read without following any pointers.  Item objects
+     *  are only created on demand, for the benefit of code that is not
+     *  performance critical.
      */
+    private int[]  lhs;
+    private int[]  prodNo;
+    private int[]  pos;
+    private int[]  nextSym;
+    private byte[] flags;
     private Item[] items;
 
+    /** Flags that are used to cache the results of canGoto, canReduce,
+     *  and canAccept for each item.
+     */
+    private static final byte GOTO   = 1;
+    private static final byte REDUCE = 2;
+    private static final byte ACCEPT = 4;
+
+    /** Add an item with a given lhs, production, and marker position,
+     *  and the symbol (or (-1) if there is none) that follows the marker.
+     */
+    private void addItem(int l, int p, int k, int sym) {
+        byte f = 0;
+        if (sym>=0) {
+            f |= GOTO;
+        } else if (l>=0) {
+            f |= REDUCE;
+        } else {
+            f |= ACCEPT;
+        }
+        lhs[numItems]     = l;
+        prodNo[numItems]  = p;
+        pos[numItems]     = k;
+        nextSym[numItems] = sym;
+        flags[numItems]   = f;
+        numItems++;
+    }
+
     /** Pointers to the first kernel item for each production in the
      *  grammar.
      */
@@ -64,10 +105,16 @@ public class LR0Items {
         return numItems;
     }
 
-    /** Return the item for a particular index value.
+    /** Return the item for a particular index value.  Item objects
+     *  hold no state of their own, so it does not matter if two threads
+     *  race to create the same item.
      */
     public Item getItem(int i) {
-        return items[i];
+        Item it = items[i];
+        if (it==null) {
+            it = items[i] = new Item(i);
+        }
+        return it;
     }
 
     /** Return the index of the item in which the parser should begin.
@@ -88,13 +135,80 @@ public class LR0Items {
         return firstKernel[symNo][prodNo];
     }
 
+    //---------------------------------------------------------------------
+    // Properties of items, indexed by item number.  Each of these has
+    // the same meaning as the corresponding method in Item.
+
+    /** Return the lhs of item i, or (-1) for one of the special items.
+     */
+    public int getLhs(int i) {
+        return lhs[i];
+    }
+
+    /** Return the production number (relative to its lhs) of item i.
+     */
+    public int getProdNo(int i) {
+        return prodNo[i];
+    }
+
+    /** Return the production for item i.
+     */
+    public Grammar.Prod getProd(int i) {
+        return grammar.getProds(lhs[i])[prodNo[i]];
+    }
+
+    /** Return the position of the marker in item i.
+     */
+    public int getPos(int i) {
+        return pos[i];
+    }
+
+    /** Determine whether we can advance item i by recognizing a symbol.
+     */
+    public boolean canGoto(int i) {
+        return (flags[i] & GOTO)!=0;
+    }
+
+    /** Determine whether we can reduce using item i.
+     */
+    public boolean canReduce(int i) {
+        return (flags[i] & REDUCE)!=0;
+    }
+
+    /** Determine whether item i can shift the $ end marker to accept.
+     */
+    public boolean canAccept(int i) {
+        return (flags[i] & ACCEPT)!=0;
+    }
+
+    /** Determine whether item i is a null reduction (that is, an item
+     *  with an empty rhs), rather than a kernel item.
+     */
+    public boolean isNullRed(int i) {
+        return lhs[i]>=0 && pos[i]==0;
+    }
+
+    /** Return the item that we reach by advancing item i.  This should
+     *  only be used if canGoto(i) is true.
+     */
+    public int getNextItem(int i) {
+        return (lhs[i]>=0) ? (i+1) : 1;
+    }
+
+    /** Return the symbol that we must pass to advance item i.  This
+     *  should only be used if canGoto(i) is true.
+     */
+    public int getNextSym(int i) {
+        return nextSym[i];
+    }
+
     /** Display all the items in this set for debugging or inspection.
      */
     public void displayAllItems(java.io.PrintWriter out) {
         out.println("Items:");
-        for (int i=0; i<items.length; i++) {
+        for (int i=0; i<numItems; i++) {
             out.print(i + ": ");
-            items[i].display(out);
+            getItem(i).display(out);
             out.println();
         }
     }
@@ -102,19 +216,12 @@ public class LR0Items {
     /** Provides a representation for the individual items in this set.
      */
     public class Item {
-        private int itemNo;
-        private int lhs;
-        private int prodNo;
-        private int pos;
+        private final int itemNo;
 
         /** Construct an item.
          */
-        private Item(int lhs, int prodNo, int pos) {
-            this.itemNo       = numItems;
-            this.lhs          = lhs;
-            this.prodNo       = prodNo;
-            this.pos          = pos;
-            items[numItems++] = this;
+        private Item(int itemNo) {
+            this.itemNo = itemNo;
         }
 
         /** Return the number for this item (that is, its index in the set).
@@ -127,7 +234,7 @@ public class LR0Items {
          *  the underlying production.
          */
         public int getLhs() {
-            return lhs;
+            return lhs[itemNo];
         }
 
         /** Return the index for this production in the array of
@@ -135,7 +242,7 @@ public class LR0Items {
          *  left hand side.
          */
         public int getProdNo() {
-            return prodNo;
+            return prodNo[itemNo];
         }
 
         /** Return the sequence number (with respect to the full grammar)
@@ -148,13 +255,13 @@ public class LR0Items {
         /** Return the body of the underlying production.
          */
         public Grammar.Prod getProd() {
-            return grammar.getProds(lhs)[prodNo];
+            return LR0Items.this.getProd(itemNo);
         }
 
         /** Return the position of the marker in the item.
          */
         public int getPos() {
-            return pos;
+            return pos[itemNo];
         }
 
         /** Determine whether we can advance from this item by recognizing
@@ -166,11 +273,7 @@ public class LR0Items {
          *  when we calculate lookaheads.
          */
         public boolean canGoto() {
-            if (lhs<0) {
-                return (pos==0);
-            } else {
-                return (pos!=getProd().getRhs().length);
-            }
+            return LR0Items.this.canGoto(itemNo);
         }
 
         /** Determine if this is an item on which we can reduce.
@@ -178,13 +281,13 @@ public class LR0Items {
          *  the special case treatment of S' -> S _ $.
          */
         public boolean canReduce() {
-            return (lhs>=0) && (pos==getProd().getRhs().length);
+            return LR0Items.this.canReduce(itemNo);
         }
 
         /** Determine if this item can shift the $ end marker to accept.
          */
         public boolean canAccept() {
-            return (lhs<0) && (pos==1);
+            return LR0Items.this.canAccept(itemNo);
         }
 
         /** Return the number of the next item that we can goto by
@@ -193,11 +296,7 @@ public class LR0Items {
          *  <code>true</code>.
          */
         public int getNextItem() {
-            if (lhs>=0) {
-                return itemNo+1;
-            } else {
-                return 1;
-            }
+            return LR0Items.this.getNextItem(itemNo);
         }
 
         /** Return the number of the symbol that we must pass to
@@ -206,16 +305,14 @@ public class LR0Items {
          *  <code>true</code>.
          */
         public int getNextSym() {
-            if (lhs>=0) {
-                return grammar.getProds(lhs)[prodNo].getRhs()[pos];
-            } else {
-                return 0;                   // the start symbol
-            }
+            return nextSym[itemNo];
         }
 
         /** Return a printable representation of this item.
          */
         public void display(java.io.PrintWriter out) {
+            int lhs = getLhs();
+            int pos = getPos();
             if (lhs<0) {
                 if (pos==0) {
                     out.print("$accept : _" + grammar.getStart() +
@@ -228,7 +325,7 @@ public class LR0Items {
             }
             out.print(grammar.getSymbol(lhs));
             out.print(" : ");
-            Grammar.Prod prod = grammar.getProds(lhs)[prodNo];
+            Grammar.Prod prod = getProd();
             int[]        rhs  = prod.getRhs();
             out.print(grammar.displaySymbols(rhs, 0, pos, "", " "));
             out.print("_");
@@ -5,7 +5,7 @@
 
 package jacc.grammar;
 
-import jacc.util.BitSet;
+import jacc.util.TokenSet;
 
 /** A machine that provides LR(0) lookahead sets for each reduction.
  *  LR(0) doesn't really provide any lookaheads at all, but we can
@@ -13,24 +13,39 @@ import jacc.util.BitSet;
  *  set in which all terminal symbols are set.
  */
 public class LR0Machine extends LookaheadMachine {
-    /** A bitset of all terminal symbols.
+    /** A set of all terminal symbols.
      */
-    int[] allTokens;
+    TokenSet allTokens;
 
     /** Construct a machine for a given grammar.
      */
     public LR0Machine(Grammar grammar) {
-        super(grammar);
+        this(grammar, 1);
+    }
+
+    /** Construct a machine for a given grammar, using up to numThreads
+     *  threads during construction.
+     */
+    public LR0Machine(Grammar grammar, int numThreads) {
+        this(grammar, numThreads, null);
+    }
+
+    /** Construct a machine for a given grammar, reusing the states of a
+     *  previous build where possible.
+     */
+    public LR0Machine(Grammar grammar, int numThreads,
+                      IncrementalBuild previous) {
+        super(grammar, numThreads, previous);
         int numTs = grammar.getNumTs();
-        allTokens = BitSet.make(numTs);
+        allTokens = new TokenSet(numTs);
         for (int i=0; i<numTs; i++) {
-            BitSet.set(allTokens, i);
+            allTokens.add(i);
         }
     }
 
     /** Return lookahead sets for the reductions at a given state.
      */
-    public int[] getLookaheadAt(int st, int i) {
+    public TokenSet getLookaheadAt(int st, int i) {
         return allTokens;
     }
 
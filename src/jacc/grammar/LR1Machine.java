@@ -0,0 +1,746 @@
+// Copyright (c) Mark P Jones, OGI School of Science & Engineering
+// Subject to conditions of distribution and use; see LICENSE for details
+// 
+
+package jacc.grammar;
+
+import jacc.util.BitSet;
+import jacc.util.IntSet;
+import jacc.util.TokenSet;
+import jacc.util.TokenSetPool;
+
+/** A machine that provides LR(1) lookahead sets for each reduction.
+ *  A canonical LR(1) machine can have many more states than the LALR(1)
+ *  machine for the same grammar, so we follow Pager's "practical general
+ *  method": LR(1) states are generated as usual, but a new state is
+ *  merged with an existing state that has the same core whenever their
+ *  lookaheads are weakly compatible.  Pager showed that such merges
+ *  never introduce conflicts into the machine for a grammar that is
+ *  LR(1), so we get the full power of LR(1) with a state count that
+ *  is usually very close to that of LALR(1).  (For a grammar that is
+ *  not LR(1), a merge of states that already have a conflict can add
+ *  conflicts on other tokens.)  Weak compatibility is tested whenever
+ *  lookaheads are added to a state, including when they are
+ *  propagated to a state that has already been merged.  Once the
+ *  states are complete, their lookaheads are recalculated from the
+ *  final transitions, so that no state keeps lookaheads from a
+ *  predecessor whose transition was moved to another state.
+ *
+ *  The cores of the LR(1) states are the states of the LR(0) machine
+ *  that is built by the Machine constructor.  Once the LR(1) states
+ *  have been calculated, they replace the LR(0) states, so that the
+ *  result can be used in exactly the same way as the other machines.
+ */
+public class LR1Machine extends LookaheadMachine {
+    // For convenience, we cache the following fields from grammar:
+    protected Nullable nullable;
+    protected First    first;
+
+    /** Construct a machine for a given grammar.
+     */
+    public LR1Machine(Grammar grammar) {
+        this(grammar, 1);
+    }
+
+    /** Construct a machine for a given grammar, using up to numThreads
+     *  threads during construction.
+     */
+    public LR1Machine(Grammar grammar, int numThreads) {
+        super(grammar, numThreads);
+        this.nullable = grammar.getNullable();
+        this.first    = grammar.getFirst();
+        numCores      = numStates;
+        coreSets      = stateSets;
+        coreSuccStart = succStart;
+        coreSuccData  = succData;
+        coreRedStart  = reduceStart;
+        coreRedData   = reduceData;
+        calcRules();
+        calcStates();
+        calcLookahead();
+        installStates();
+    }
+
+    //---------------------------------------------------------------------
+    // Cores:
+
+    /** The number of states in the underlying LR(0) machine.
+     */
+    private int numCores;
+
+    /** The item sets, successors, and reduce offsets for each state in
+     *  the underlying LR(0) machine.
+     */
+    private IntSet[] coreSets;
+    private int[]    coreSuccStart;
+    private int[]    coreSuccData;
+    private int[]    coreRedStart;
+    private int[]    coreRedData;
+
+    /** Describes how the lookahead set for one item in a state can be
+     *  calculated from the lookaheads on the kernel items of a (possibly
+     *  different) state: the result is the union of a fixed set of
+     *  "spontaneous" lookaheads, and the lookaheads of each of the
+     *  kernel items whose offsets are listed in prop.
+     */
+    private static class Rule {
+        long[] spont;           // spontaneous lookaheads, or null if none
+        int[]  prop;            // offsets of kernel items that propagate
+        Rule(long[] spont, int[] prop) {
+            this.spont = spont;
+            this.prop  = prop;
+        }
+    }
+
+    /** For each core c, and each successor j of c, succRules[c][j] holds
+     *  a rule for each kernel item in the successor, indexed by offset
+     *  in the successor's item set.  The entries for null reductions in
+     *  the successor are null.
+     */
+    private Rule[][][] succRules;
+
+    /** For each core c, nullRules[c] holds a rule for each of the null
+     *  reductions in c, indexed by offset.  The entries for kernel items
+     *  are null.
+     */
+    private Rule[][] nullRules;
+
+    /** Calculate the rules for the lookaheads in each core.
+     */
+    private void calcRules() {
+        succRules  = new Rule[numCores][][];
+        nullRules  = new Rule[numCores][];
+        firstAfter = new long[items.getNumItems()][];
+        nullAfter  = new boolean[items.getNumItems()];
+        long[]   leftnt = BitSet.make(numNTs);
+        long[][] spont  = new long[numNTs][];
+        IntSet[] prop   = new IntSet[numNTs];
+        for (int c=0; c<numCores; c++) {
+            calcRulesAt(c, leftnt, spont, prop);
+        }
+        firstAfter = null;
+        nullAfter  = null;
+    }
+
+    /** Calculate the rules for a given core.  We start by finding, for
+     *  each nonterminal B in the closure of the kernel, the spontaneous
+     *  lookaheads for items of the form B -> _ w, and the set of kernel
+     *  items whose lookaheads propagate to those items.  Those results
+     *  then determine the rules for the successor kernels and for any
+     *  null reductions.
+     */
+    private void calcRulesAt(int c, long[] leftnt, long[][] spont,
+                             IntSet[] prop) {
+        IntSet its = coreSets[c];
+        int    sz  = its.size();
+
+        // Find the nonterminals in the closure of the kernel:
+        BitSet.clear(leftnt);
+        for (int o=0; o<sz; o++) {
+            int it = its.at(o);
+            if (!items.isNullRed(it) && items.canGoto(it)
+                && grammar.isNonterminal(items.getNextSym(it))) {
+                BitSet.addTo(leftnt, left.at(items.getNextSym(it)));
+            }
+        }
+        int[] nts = BitSet.members(leftnt);
+        for (int i=0; i<nts.length; i++) {
+            spont[nts[i]] = BitSet.make(numTs);
+            prop[nts[i]]  = IntSet.empty();
+        }
+
+        // Add lookaheads that come directly from kernel items:
+        for (int o=0; o<sz; o++) {
+            int it = its.at(o);
+            if (!items.isNullRed(it) && items.canGoto(it)) {
+                int sym = items.getNextSym(it);
+                if (grammar.isNonterminal(sym)) {
+                    int nxt = items.getNextItem(it);
+                    BitSet.union(spont[sym], firstsAfter(nxt));
+                    if (nullAfter[nxt]) {
+                        prop[sym].add(o);
+                    }
+                }
+            }
+        }
+
+        // Iterate to push lookaheads through the closure:
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i=0; i<nts.length; i++) {
+                int            b     = nts[i];
+                Grammar.Prod[] prods = grammar.getProds(b);
+                for (int k=0; k<prods.length; k++) {
+                    int[] rhs = prods[k].getRhs();
+                    if (rhs.length>0 && grammar.isNonterminal(rhs[0])) {
+                        int nc  = rhs[0];
+                        int nxt = items.getFirstKernel(b, k);
+                        if (BitSet.addTo(spont[nc], firstsAfter(nxt))) {
+                            changed = true;
+                        }
+                        if (nullAfter[nxt]) {
+                            if (BitSet.addTo(spont[nc], spont[b])) {
+                                changed = true;
+                            }
+                            if (addAll(prop[nc], prop[b])) {
+                                changed = true;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        // Build rules for null reductions in this state:
+        Rule[] nulls = new Rule[sz];
+        for (int o=0; o<sz; o++) {
+            int it = its.at(o);
+            if (items.isNullRed(it)) {
+                nulls[o] = ruleFor(spont, prop, items.getLhs(it));
+            }
+        }
+        nullRules[c] = nulls;
+
+        // Build rules for the kernel items in each successor:
+        int      lo    = coreSuccStart[c];
+        Rule[][] rules = new Rule[coreSuccStart[c+1]-lo][];
+        for (int j=0; j<rules.length; j++) {
+            IntSet tits = coreSets[coreSuccData[lo+j]];
+            int    sym  = entry[coreSuccData[lo+j]];
+            rules[j]    = new Rule[tits.size()];
+            for (int o=0; o<sz; o++) {
+                int it = its.at(o);
+                if (!items.isNullRed(it) && items.canGoto(it)
+                                         && items.getNextSym(it)==sym) {
+                    int to    = tits.indexOf(items.getNextItem(it));
+                    rules[j][to] = new Rule(null, new int[] { o });
+                }
+            }
+            for (int i=0; i<nts.length; i++) {
+                Grammar.Prod[] prods = grammar.getProds(nts[i]);
+                Rule           rule  = null;
+                for (int k=0; k<prods.length; k++) {
+                    int[] rhs = prods[k].getRhs();
+                    if (rhs.length>0 && rhs[0]==sym) {
+                        if (rule==null) {
+                            rule = ruleFor(spont, prop, nts[i]);
+                        }
+                        int nxt = items.getFirstKernel(nts[i], k);
+                        rules[j][tits.indexOf(nxt)] = rule;
+                    }
+                }
+            }
+        }
+        succRules[c] = rules;
+
+        for (int i=0; i<nts.length; i++) {
+            spont[nts[i]] = null;
+            prop[nts[i]]  = null;
+        }
+    }
+
+    /** Construct a rule for items of the form B -> _ w in the closure of
+     *  a state, where B is a given nonterminal.
+     */
+    private Rule ruleFor(long[][] spont, IntSet[] prop, int nt) {
+        long[] s = BitSet.isEmpty(spont[nt]) ? null : spont[nt];
+        return new Rule(s, prop[nt].toArray());
+    }
+
+    /** Add all of the elements in one IntSet to another, returning true
+     *  if this changes the first set.
+     */
+    private static boolean addAll(IntSet set, IntSet more) {
+        int sz = set.size();
+        for (int i=0; i<more.size(); i++) {
+            set.add(more.at(i));
+        }
+        return set.size()!=sz;
+    }
+
+    /** Caches the set of tokens that can appear at the start of the
+     *  string to the right of the marker in each item, and whether that
+     *  string is nullable.  These are only used while rules are being
+     *  calculated.
+     */
+    private long[][]  firstAfter;
+    private boolean[] nullAfter;
+
+    /** Return the set of tokens that might occur at the beginning of the
+     *  string to the right of the _ mark in the specified item, setting
+     *  nullAfter for the item if that string is nullable.
+     */
+    private long[] firstsAfter(int itemNo) {
+        if (firstAfter[itemNo]==null) {
+            long[] fs = BitSet.make(numTs);
+            int    it = itemNo;
+            while (items.canGoto(it)) {
+                int sym = items.getNextSym(it);
+                if (grammar.isTerminal(sym)) {
+                    BitSet.addTo(fs, sym-numNTs);
+                    break;
+                } else {
+                    first.at(sym).unionInto(fs);
+                    if (!nullable.at(sym)) {
+                        break;
+                    }
+                    it = items.getNextItem(it);
+                }
+            }
+            if (items.canAccept(it)) {
+                BitSet.set(fs, numTs-1);
+            }
+            firstAfter[itemNo] = fs;
+            nullAfter[itemNo]  = items.canReduce(it);
+        }
+        return firstAfter[itemNo];
+    }
+
+    //---------------------------------------------------------------------
+    // LR(1) states:
+
+    /** The number of LR(1) states that have been built so far.
+     */
+    private int numLR1;
+
+    /** Holds the core of each LR(1) state.
+     */
+    private int[] core;
+
+    /** Holds the lookaheads for each LR(1) state.  la[st][o] is the
+     *  lookahead set for the item at offset o in the core's item set,
+     *  or null if that item is a null reduction.
+     */
+    private long[][][] la;
+
+    /** Holds the successors of each LR(1) state, in the same order as
+     *  the successors of the corresponding core, or null if the state
+     *  has not been explored yet.
+     */
+    private int[][] succ;
+
+    /** Links the LR(1) states with each core, in order of creation.
+     */
+    private int[] firstWithCore;
+    private int[] lastWithCore;
+    private int[] nextWithCore;
+
+    /** A queue of LR(1) states that must be (re)explored, either because
+     *  they are new, or because their lookaheads have grown.  Each state
+     *  appears in the queue at most once.
+     */
+    private int[]     queue;
+    private int       qhead;
+    private int       qsize;
+    private boolean[] queued;
+
+    /** Main loop to calculate the LR(1) states.
+     */
+    private void calcStates() {
+        int len       = Math.max(numCores, 16);
+        core          = new int[len];
+        la            = new long[len][][];
+        succ          = new int[len][];
+        nextWithCore  = new int[len];
+        queued        = new boolean[len];
+        queue         = new int[len];
+        firstWithCore = new int[numCores];
+        lastWithCore  = new int[numCores];
+        for (int c=0; c<numCores; c++) {
+            firstWithCore[c] = (-1);
+        }
+        long[][] start = new long[coreSets[0].size()][];
+        for (int o=0; o<start.length; o++) {
+            if (!items.isNullRed(coreSets[0].at(o))) {
+                start[o] = BitSet.make(numTs);
+            }
+        }
+        numLR1 = 0;
+        addState(0, start);
+
+        while (qsize>0) {
+            int st    = queue[qhead];
+            qhead     = (qhead+1) % queue.length;
+            qsize--;
+            queued[st] = false;
+            explore(st);
+        }
+        removeUnreachable();
+        recalcLookaheads();
+    }
+
+    /** Recalculate the lookaheads of every state from the transitions
+     *  of the final machine.  When explore() moves a transition away
+     *  from a state, that state keeps the lookaheads that were merged
+     *  into it along the transition, even though it no longer has that
+     *  predecessor.  Recalculating from the initial state removes them,
+     *  so that the lookaheads of each state are exactly those that can
+     *  reach it along the remaining transitions.  The result is the
+     *  least solution of the same equations, so no set can grow.
+     */
+    private void recalcLookaheads() {
+        for (int st=0; st<numLR1; st++) {
+            long[][] las = la[st];
+            for (int o=0; o<las.length; o++) {
+                if (las[o]!=null) {
+                    BitSet.clear(las[o]);
+                }
+            }
+        }
+        qhead = 0;
+        qsize = 0;
+        for (int st=0; st<numLR1; st++) {
+            enqueue(st);
+        }
+        while (qsize>0) {
+            int st     = queue[qhead];
+            qhead      = (qhead+1) % queue.length;
+            qsize--;
+            queued[st] = false;
+            int[]    to    = succ[st];
+            Rule[][] rules = succRules[core[st]];
+            for (int j=0; j<to.length; j++) {
+                if (merge(to[j], apply(rules[j], la[st]))) {
+                    enqueue(to[j]);
+                }
+            }
+        }
+    }
+
+    /** Remove any states that can no longer be reached from the initial
+     *  state, which can happen when explore() moves a transition away
+     *  from a state that no longer has compatible lookaheads.  The
+     *  remaining states are renumbered, but keep their relative order.
+     */
+    private void removeUnreachable() {
+        int[] newNum = new int[numLR1];
+        for (int st=0; st<numLR1; st++) {
+            newNum[st] = (-1);
+        }
+        int[] stack = new int[numLR1];
+        int   sp    = 0;
+        newNum[0]   = 0;
+        stack[sp++] = 0;
+        int reached = 1;
+        while (sp>0) {
+            int[] to = succ[stack[--sp]];
+            for (int j=0; j<to.length; j++) {
+                if (newNum[to[j]]<0) {
+                    newNum[to[j]] = 0;
+                    stack[sp++]   = to[j];
+                    reached++;
+                }
+            }
+        }
+        if (reached==numLR1) {
+            return;
+        }
+        int n = 0;
+        for (int st=0; st<numLR1; st++) {
+            if (newNum[st]>=0) {
+                newNum[st] = n;
+                core[n]    = core[st];
+                la[n]      = la[st];
+                succ[n]    = succ[st];
+                n++;
+            }
+        }
+        for (int st=0; st<n; st++) {
+            int[] to = succ[st];
+            for (int j=0; j<to.length; j++) {
+                to[j] = newNum[to[j]];
+            }
+        }
+        numLR1 = n;
+    }
+
+    /** Calculate the successors of a given LR(1) state.  The first time
+     *  that a state is explored, we find (or create) a suitable state
+     *  for each successor.  On subsequent visits, we propagate any new
+     *  lookaheads to the existing successors.  The successor may have
+     *  been merged with other states, however, and the new lookaheads
+     *  need not be weakly compatible with the ones that it has already,
+     *  so we test again, and if the test fails, we find a different
+     *  successor.  Merging regardless could introduce reduce/reduce
+     *  conflicts that would not appear in the canonical LR(1) machine.
+     */
+    private void explore(int st) {
+        int      c     = core[st];
+        long[][] las   = la[st];
+        Rule[][] rules = succRules[c];
+        int[]    to    = succ[st];
+        if (to==null) {
+            to       = new int[rules.length];
+            succ[st] = to;
+            for (int j=0; j<rules.length; j++) {
+                to[j] = findState(coreSuccData[coreSuccStart[c]+j],
+                                  apply(rules[j], las));
+            }
+        } else {
+            for (int j=0; j<rules.length; j++) {
+                long[][] news = apply(rules[j], las);
+                if (compatible(la[to[j]], news)) {
+                    if (merge(to[j], news)) {
+                        enqueue(to[j]);
+                    }
+                } else {
+                    to[j] = findState(core[to[j]], news);
+                }
+            }
+        }
+    }
+
+    /** Calculate lookahead sets using an array of rules, and the kernel
+     *  lookaheads of a state.
+     */
+    private long[][] apply(Rule[] rules, long[][] las) {
+        long[][] result = new long[rules.length][];
+        for (int o=0; o<rules.length; o++) {
+            Rule r = rules[o];
+            if (r!=null) {
+                long[] bits = BitSet.make(numTs);
+                if (r.spont!=null) {
+                    BitSet.union(bits, r.spont);
+                }
+                for (int k=0; k<r.prop.length; k++) {
+                    BitSet.union(bits, las[r.prop[k]]);
+                }
+                result[o] = bits;
+            }
+        }
+        return result;
+    }
+
+    /** Return the number of an LR(1) state with the given core that is
+     *  weakly compatible with the given lookaheads, merging those
+     *  lookaheads into the state.  A new state is created if there is
+     *  no compatible state.
+     */
+    private int findState(int c, long[][] las) {
+        for (int st=firstWithCore[c]; st>=0; st=nextWithCore[st]) {
+            if (compatible(la[st], las)) {
+                if (merge(st, las)) {
+                    enqueue(st);
+                }
+                return st;
+            }
+        }
+        return addState(c, las);
+    }
+
+    /** Add a new LR(1) state with a given core and set of lookaheads.
+     */
+    private int addState(int c, long[][] las) {
+        if (numLR1>=core.length) {
+            int        newLen       = 2*core.length;
+            int[]      newCore      = new int[newLen];
+            long[][][] newLa        = new long[newLen][][];
+            int[][]    newSucc      = new int[newLen][];
+            int[]      newNext      = new int[newLen];
+            boolean[]  newQueued    = new boolean[newLen];
+            for (int i=0; i<numLR1; i++) {
+                newCore[i]   = core[i];
+                newLa[i]     = la[i];
+                newSucc[i]   = succ[i];
+                newNext[i]   = nextWithCore[i];
+                newQueued[i] = queued[i];
+            }
+            core         = newCore;
+            la           = newLa;
+            succ         = newSucc;
+            nextWithCore = newNext;
+            queued       = newQueued;
+        }
+        int st           = numLR1++;
+        core[st]         = c;
+        la[st]           = las;
+        nextWithCore[st] = (-1);
+        if (firstWithCore[c]<0) {
+            firstWithCore[c] = st;
+        } else {
+            nextWithCore[lastWithCore[c]] = st;
+        }
+        lastWithCore[c] = st;
+        enqueue(st);
+        return st;
+    }
+
+    /** Add a state to the end of the work queue, if it is not already
+     *  waiting there.
+     */
+    private void enqueue(int st) {
+        if (!queued[st]) {
+            if (qsize>=queue.length) {
+                int[] newQueue = new int[2*queue.length];
+                for (int i=0; i<qsize; i++) {
+                    newQueue[i] = queue[(qhead+i) % queue.length];
+                }
+                queue = newQueue;
+                qhead = 0;
+            }
+            queue[(qhead+qsize) % queue.length] = st;
+            qsize++;
+            queued[st] = true;
+        }
+    }
+
+    /** Merge a set of lookaheads into an existing state, returning true
+     *  if any of the state's lookaheads have changed.
+     */
+    private boolean merge(int st, long[][] las) {
+        boolean  changed = false;
+        long[][] old     = la[st];
+        for (int o=0; o<old.length; o++) {
+            if (old[o]!=null && BitSet.addTo(old[o], las[o])) {
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /** Test whether two sets of lookaheads for the same core are weakly
+     *  compatible in the sense of Pager.  This requires that, for each
+     *  pair of kernel items i and j, merging the two sets does not
+     *  produce an overlap between the lookaheads for i and j unless
+     *  there is already such an overlap in one of the original sets.
+     */
+    private boolean compatible(long[][] l1, long[][] l2) {
+        for (int i=0; i<l1.length; i++) {
+            if (l1[i]!=null) {
+                for (int j=i+1; j<l1.length; j++) {
+                    if (l1[j]!=null
+                        && !(BitSet.disjoint(l1[i], l2[j])
+                             && BitSet.disjoint(l2[i], l1[j]))
+                        && BitSet.disjoint(l1[i], l1[j])
+                        && BitSet.disjoint(l2[i], l2[j])) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    //---------------------------------------------------------------------
+    // Lookaheads for reductions:
+
+    /** Records the lookahead sets for reduce items.  Lookahead sets are
+     *  stored in the order specified by Machine.getReducesAt().
+     */
+    private TokenSet[][] laReds;
+
+    /** Return lookahead sets for the reductions at a given state.
+     */
+    public TokenSet getLookaheadAt(int st, int i) {
+        return laReds[st][i];
+    }
+
+    /** Return the number of the LR(0) state that provides the core for
+     *  a given state of this machine.
+     */
+    public int getCoreAt(int st) {
+        return core[st];
+    }
+
+    /** Calculate lookahead sets.  Reductions by kernel items use the
+     *  lookaheads of the item itself, while null reductions obtain their
+     *  lookaheads from the kernel items in the same state.  Identical
+     *  sets are shared, using a pool.
+     */
+    private void calcLookahead() {
+        TokenSetPool pool = new TokenSetPool();
+        laReds = new TokenSet[numLR1][];
+        for (int st=0; st<numLR1; st++) {
+            int      c   = core[st];
+            int      lo  = coreRedStart[c];
+            long[][] las = la[st];
+            Rule[]   nrs = nullRules[c];
+            laReds[st]   = new TokenSet[coreRedStart[c+1]-lo];
+            for (int j=0; j<laReds[st].length; j++) {
+                int    o    = coreRedData[lo+j];
+                Rule   r    = nrs[o];
+                long[] bits = las[o];
+                if (r!=null) {
+                    bits = BitSet.make(numTs);
+                    if (r.spont!=null) {
+                        BitSet.union(bits, r.spont);
+                    }
+                    for (int k=0; k<r.prop.length; k++) {
+                        BitSet.union(bits, las[r.prop[k]]);
+                    }
+                }
+                TokenSet set  = TokenSet.fromBitSet(bits, numTs);
+                laReds[st][j] = pool.intern(set);
+            }
+        }
+    }
+
+    /** Replace the states of the underlying LR(0) machine with the
+     *  LR(1) states that we have calculated.
+     */
+    private void installStates() {
+        int[]    newEntry     = new int[numLR1];
+        IntSet[] newSets      = new IntSet[numLR1];
+        int[]    newRedStart  = new int[numLR1+1];
+        int[]    newSuccStart = new int[numLR1+1];
+        for (int st=0; st<numLR1; st++) {
+            int c              = core[st];
+            newEntry[st]       = entry[c];
+            newSets[st]        = coreSets[c];
+            newRedStart[st+1]  = newRedStart[st]
+                               + coreRedStart[c+1] - coreRedStart[c];
+            newSuccStart[st+1] = newSuccStart[st] + succ[st].length;
+        }
+        int[] newRedData  = new int[newRedStart[numLR1]];
+        int[] newSuccData = new int[newSuccStart[numLR1]];
+        for (int st=0; st<numLR1; st++) {
+            int c  = core[st];
+            int lo = coreRedStart[c];
+            System.arraycopy(coreRedData, lo, newRedData, newRedStart[st],
+                             coreRedStart[c+1]-lo);
+            System.arraycopy(succ[st], 0, newSuccData, newSuccStart[st],
+                             succ[st].length);
+        }
+        numStates   = numLR1;
+        entry       = newEntry;
+        stateSets   = newSets;
+        reduceStart = newRedStart;
+        reduceData  = newRedData;
+        succStart   = newSuccStart;
+        succData    = newSuccData;
+        calcGotosShifts();
+
+        // Release structures that were only needed during construction:
+        succRules     = null;
+        nullRules     = null;
+        coreSuccStart = null;
+        coreSuccData  = null;
+        succ          = null;
+        queue     = null;
+        queued    = null;
+    }
+
+    /** Output the results of lookahead calculations for
+     *  debugging and inspection.
+     */
+    public void display(java.io.PrintWriter out) {
+        super.display(out);
+        for (int st=0; st<numStates; st++) {
+            int[] rs = getReducesAt(st);
+            if (rs.length>0) {
+                out.println("State " + st + " (core " + core[st] + "): ");
+                IntSet its = getItemsAt(st);
+                for (int j=0; j<rs.length; j++) {
+                    out.print("  Item     : ");
+                    items.getItem(its.at(rs[j])).display(out);
+                    out.println();
+                    out.print("  Lookahead: {");
+                    out.print(grammar.displaySymbolSet(laReds[st][j],
+                                                       numNTs));
+                    out.println("}");
+                }
+            }
+        }
+    }
+}
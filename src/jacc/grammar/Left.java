@@ -6,51 +6,63 @@
 package jacc.grammar;
 
 import jacc.util.BitSet;
+import jacc.util.Relation;
 
 /** Calculation of left sets.  The left set of a nonterminal symbol X is
  *  the set of all nonterminals Y such that X derives a string of the form
  *  Yw for some sequence of symbols w.  Left sets are used in the
  *  calculation of LR(0) item set closures.
+ *
+ *  We build the "left corner" relation, in which X is related to Y if
+ *  there is a production X -> Y w, and the left sets are then the rows
+ *  of its reflexive transitive closure (see Relation).
  */
-public final class Left extends Analysis {
+public final class Left {
     private Grammar  grammar;
     private int      numNTs;
-    private int[][]  left;
+    private long[][] left;
 
     /** Construct a left set analysis for a given grammar.
      */
     public Left(Grammar grammar) {
-        super(grammar.getComponents());
-        this.grammar  = grammar;
-        this.numNTs   = grammar.getNumNTs();
-        left          = new int[numNTs][];
-        for (int i=0; i<numNTs; i++) {
-            left[i] = BitSet.make(numNTs);
-            BitSet.set(left[i],i);
+        this.grammar = grammar;
+        this.numNTs  = grammar.getNumNTs();
+        int[] relStart = new int[numNTs+1];
+        for (int c=0; c<numNTs; c++) {
+            relStart[c+1] = relStart[c] + countCorners(c, null, 0);
         }
-        bottomUp();
+        int[]    relData = new int[relStart[numNTs]];
+        long[][] self    = new long[numNTs][];
+        for (int c=0; c<numNTs; c++) {
+            countCorners(c, relData, relStart[c]);
+            self[c] = BitSet.make(numNTs);
+            BitSet.set(self[c], c);
+        }
+        left = Relation.closure(relStart, relData, self);
     }
 
-    /** Run the analysis at a particular point.  Return a boolean true
-     *  if this changed the current approximation at this point.
+    /** Count the nonterminals that appear at the start of a production
+     *  for c, and save them in relData from position pos onwards if
+     *  relData is not null.
      */
-    protected boolean analyze(int c) {
-        boolean changed = false;
+    private int countCorners(int c, int[] relData, int pos) {
+        int            count = 0;
         Grammar.Prod[] prods = grammar.getProds(c);
         for (int k=0; k<prods.length; k++) {
             int[] rhs = prods[k].getRhs();
             if (rhs.length>0 && grammar.isNonterminal(rhs[0])) {
-                if (BitSet.addTo(left[c], left[rhs[0]])) {
-                    changed = true;
+                if (relData!=null) {
+                    relData[pos+count] = rhs[0];
                 }
+                count++;
             }
         }
-        return changed;
+        return count;
     }
 
     /** Return a bitset of the left symbols for a given nonterminal.
      */
-    public int[] at(int i) {
+    public long[] at(int i) {
         return left[i];
     }
 
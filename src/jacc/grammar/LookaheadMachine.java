@@ -5,6 +5,9 @@
 
 package jacc.grammar;
 
+import jacc.util.IntSet;
+import jacc.util.TokenSet;
+
 /** A base class for machines that provide lookahead information.
  *  This makes it possible to support both SLR and LALR parsers
  *  in the same framework.
@@ -16,7 +19,30 @@ public abstract class LookaheadMachine extends Machine {
         super(grammar);
     }
 
+    /** Construct a machine for a given grammar, using up to numThreads
+     *  threads during construction.
+     */
+    public LookaheadMachine(Grammar grammar, int numThreads) {
+        super(grammar, numThreads);
+    }
+
+    /** Construct a machine for a given grammar, reusing what it can
+     *  from a previous build (see Machine).
+     */
+    public LookaheadMachine(Grammar grammar, int numThreads,
+                            IncrementalBuild previous) {
+        super(grammar, numThreads, previous);
+    }
+
+    /** Construct a machine for a given grammar from a description of
+     *  its states that was calculated previously.
+     */
+    protected LookaheadMachine(Grammar grammar, IntSet[] stateSets,
+                               int[] entry, int[] succStart, int[] succData) {
+        super(grammar, stateSets, entry, succStart, succData);
+    }
+
     /** Return lookahead sets for the reductions at a given state.
      */
-    public abstract int[] getLookaheadAt(int st, int i);
+    public abstract TokenSet getLookaheadAt(int st, int i);
 }
@@ -10,6 +10,10 @@ import jacc.util.IntSet;
 import jacc.util.SCC;
 import jacc.util.Interator;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 /** A representation for basic shift/reduce machines built using LR(0)
  *  items.
  */
@@ -21,13 +25,63 @@ public class Machine {
     /** Construct a machine for a given grammar.
      */
     public Machine(Grammar grammar) {
-        this.grammar  = grammar;
-        this.numSyms  = grammar.getNumSyms();
-        this.numNTs   = grammar.getNumNTs();
-        this.numTs    = grammar.getNumTs();
-        this.left     = grammar.getLeft();
-        this.items    = new LR0Items(grammar);
+        this(grammar, 1);
+    }
+
+    /** Construct a machine for a given grammar, using up to numThreads
+     *  threads for the most expensive parts of the construction.  The
+     *  resulting machine does not depend on the number of threads.
+     */
+    public Machine(Grammar grammar, int numThreads) {
+        this(grammar, numThreads, null);
+    }
+
+    /** Construct a machine for a given grammar, reusing the states of a
+     *  machine that was built for an earlier version of the grammar, or
+     *  building from scratch if previous is null.  The result is the
+     *  same as for a full rebuild.
+     */
+    public Machine(Grammar grammar, int numThreads,
+                   IncrementalBuild previous) {
+        this.grammar    = grammar;
+        this.numThreads = numThreads;
+        this.numSyms    = grammar.getNumSyms();
+        this.numNTs     = grammar.getNumNTs();
+        this.numTs      = grammar.getNumTs();
+        this.left       = grammar.getLeft();
+        this.items      = new LR0Items(grammar);
+        if (previous!=null) {
+            previous.begin(grammar, items);
+            incremental = previous;
+        }
         calcLR0states();
+        incremental     = null;
+        calcGotosShifts();
+        calcReduceOffsets();
+        if (previous!=null) {
+            previous.mapStates(this);
+        }
+    }
+
+    /** Construct a machine for a given grammar from a description of
+     *  its states that was calculated previously.  The item sets must
+     *  include null reductions, and the successors of each state are
+     *  given in the same compressed sparse row format as succStart and
+     *  succData.
+     */
+    protected Machine(Grammar grammar, IntSet[] stateSets, int[] entry,
+                      int[] succStart, int[] succData) {
+        this.grammar    = grammar;
+        this.numThreads = 1;
+        this.numSyms    = grammar.getNumSyms();
+        this.numNTs     = grammar.getNumNTs();
+        this.numTs      = grammar.getNumTs();
+        this.items      = new LR0Items(grammar);
+        this.numStates  = stateSets.length;
+        this.stateSets  = stateSets;
+        this.entry      = entry;
+        this.succStart  = succStart;
+        this.succData   = succData;
         calcGotosShifts();
         calcReduceOffsets();
     }
@@ -38,6 +92,10 @@ public class Machine {
     protected int  numTs;
     protected Left left;
 
+    /** The number of threads that can be used to build this machine.
+     */
+    protected int numThreads;
+
     /** Holds the collection of LR(0) items for the given grammar.
      */
     protected LR0Items items;
@@ -64,22 +122,31 @@ public class Machine {
      */
     private IntSet[] nullReds;
 
+    // The relations between states below are stored in a compressed
+    // sparse row format: the entries for state st are found at indices
+    // xxxStart[st] up to (but not including) xxxStart[st+1] of the
+    // corresponding xxxData array.  This uses just two arrays for each
+    // relation instead of one small array for every state.
+
     /** Records the states that can reached by a single step from each state.
      */
-
-    protected int[][] succState;
+    protected int[] succStart;
+    protected int[] succData;
 
     /** Records the gotos for nonterminals in each state.
      */
-    protected int[][] gotos;
+    protected int[] gotoStart;
+    protected int[] gotoData;
 
     /** Records the shifts for terminals in each state.
      */
-    protected int[][] shifts;
+    protected int[] shiftStart;
+    protected int[] shiftData;
 
     /** Records the offsets of any reduce items in each stateSets[] entry.
      */
-    protected int[][] reduceOffsets;
+    protected int[] reduceStart;
+    protected int[] reduceData;
 
     /** Return the grammar that was used to construct this machine.
      */
@@ -87,6 +154,13 @@ public class Machine {
         return grammar;
     }
 
+    /** Return the number of threads that can be used to build this
+     *  machine.
+     */
+    public int getNumThreads() {
+        return numThreads;
+    }
+
     /** Return the number of states in this machine.
      */
     public int getNumStates() {
@@ -118,23 +192,84 @@ public class Machine {
         return stateSets[st];
     }
 
-    /** Return the goto table for a given state.
+    /** Return the number of transitions out of a given state.
+     */
+    public int getNumSuccsAt(int st) {
+        return succStart[st+1] - succStart[st];
+    }
+
+    /** Return the target of the ith transition out of a given state.
+     */
+    public int getSuccAt(int st, int i) {
+        return succData[succStart[st]+i];
+    }
+
+    /** Return the goto table for a given state.  The result is a new
+     *  array; getNumGotosAt and getGotoAt avoid this allocation.
      */
     public int[] getGotosAt(int st) {
-        return gotos[st];
+        return slice(gotoStart, gotoData, st);
     }
 
-    /** Return the shift table for a given state.
+    /** Return the number of gotos in a given state.
+     */
+    public int getNumGotosAt(int st) {
+        return gotoStart[st+1] - gotoStart[st];
+    }
+
+    /** Return the target of the ith goto in a given state.
+     */
+    public int getGotoAt(int st, int i) {
+        return gotoData[gotoStart[st]+i];
+    }
+
+    /** Return the shift table for a given state.  The result is a new
+     *  array; getNumShiftsAt and getShiftAt avoid this allocation.
      */
     public int[] getShiftsAt(int st) {
-        return shifts[st];
+        return slice(shiftStart, shiftData, st);
+    }
+
+    /** Return the number of shifts in a given state.
+     */
+    public int getNumShiftsAt(int st) {
+        return shiftStart[st+1] - shiftStart[st];
+    }
+
+    /** Return the target of the ith shift in a given state.
+     */
+    public int getShiftAt(int st, int i) {
+        return shiftData[shiftStart[st]+i];
     }
 
     /** Return the offsets of all reduce items in the set of items
-     *  returned by getItemsAt.
+     *  returned by getItemsAt.  The result is a new array;
+     *  getNumReducesAt and getReduceAt avoid this allocation.
      */
     public int[] getReducesAt(int st) {
-        return reduceOffsets[st];
+        return slice(reduceStart, reduceData, st);
+    }
+
+    /** Return the number of reduce items in a given state.
+     */
+    public int getNumReducesAt(int st) {
+        return reduceStart[st+1] - reduceStart[st];
+    }
+
+    /** Return the offset of the ith reduce item in a given state.
+     */
+    public int getReduceAt(int st, int i) {
+        return reduceData[reduceStart[st]+i];
+    }
+
+    /** Return a copy of the entries for a given state in a relation
+     *  that is stored in compressed sparse row format.
+     */
+    private static int[] slice(int[] start, int[] data, int st) {
+        int   lo  = start[st];
+        int[] res = new int[start[st+1]-lo];
+        System.arraycopy(data, lo, res, 0, res.length);
+        return res;
     }
 
     //---------------------------------------------------------------------
@@ -162,6 +297,17 @@ public class Machine {
      */
     private final int DEFAULT_NUM_STATES = 16;
 
+    /** A hash table that is used to find the state, if any, that has a
+     *  given set of kernel items.  Each entry in stateIndex holds the
+     *  number of the most recently added state in the corresponding
+     *  bucket (or -1 if the bucket is empty), and the remaining states
+     *  in a bucket are linked together through nextInBucket.  The hash
+     *  table only serves to speed up searches, so it does not affect
+     *  the order in which states are numbered.
+     */
+    private int[] stateIndex;
+    private int[] nextInBucket;
+
     /** Main loop to calculate an LR(0) machine for the given grammar.
      *  As new states are added, they form a queue of states that are
      *  yet to be processed.  When we reach the end of the queue, we
@@ -170,79 +316,347 @@ public class Machine {
      */
     private void calcLR0states() {
         stateSets    = new IntSet[DEFAULT_NUM_STATES];
-        succState    = new int[DEFAULT_NUM_STATES][];
+        succStart    = new int[DEFAULT_NUM_STATES+1];
+        succData     = new int[DEFAULT_NUM_STATES];
         entry        = new int[DEFAULT_NUM_STATES];
         nullReds     = new IntSet[DEFAULT_NUM_STATES];
+        nextInBucket = new int[DEFAULT_NUM_STATES];
+        stateIndex   = new int[DEFAULT_NUM_STATES];
+        for (int i=0; i<stateIndex.length; i++) {
+            stateIndex[i] = (-1);
+        }
         stateSets[0] = IntSet.singleton(items.getStartItem());
         numStates    = 1;
+        indexState(0);
+        closures     = new ClosureList[numNTs];
+
+        if (numThreads>1) {
+            calcLR0statesParallel();
+        } else {
+            Closure closure = new Closure();
+            for (int head = 0; head<numStates; head++) {
+                addSuccessors(head, successors(closure, stateSets[head]));
+            }
+        }
+        stateIndex   = null;
+        nextInBucket = null;
+        closures     = null;
+        succData     = trim(succData, succStart[numStates]);
+        mergeNullReds();
+    }
+
+    /** Describes the transitions out of a single state, as calculated
+     *  from the closure of its kernel.  Transitions are listed in order
+     *  of increasing symbol number.
+     */
+    static class Successors {
+        int[]    syms;          // the symbol for each transition
+        IntSet[] kernels;       // the kernel of each successor state
+        IntSet   nullReds;      // null reductions (or null if none)
+        boolean  reused;        // true if copied from a previous machine
+    }
+
+    /** Used to reuse states from a previous machine, if there is one,
+     *  while the states are being built.
+     */
+    private IncrementalBuild incremental;
+
+    /** Calculate the transitions out of a state with a given kernel,
+     *  taking them from a previous machine if possible.
+     */
+    private Successors successors(Closure closure, IntSet kernel) {
+        if (incremental!=null) {
+            Successors succs = incremental.reuse(kernel);
+            if (succs!=null) {
+                succs.reused = true;
+                return succs;
+            }
+        }
+        return closure.explore(kernel);
+    }
+
+    /** Record the transitions out of a given state, adding new states
+     *  to the end of the work queue as necessary.  Because the work
+     *  queue determines state numbers, this must be called for states
+     *  in increasing order, and never from more than one thread.
+     */
+    private void addSuccessors(int head, Successors succs) {
+        int lo  = succStart[head];
+        int len = succs.syms.length;
+        if (lo+len>succData.length) {
+            int[] newData = new int[Math.max(2*succData.length, lo+len)];
+            System.arraycopy(succData, 0, newData, 0, lo);
+            succData = newData;
+        }
+        for (int i=0; i<len; i++) {
+            succData[lo+i] = addState(succs.syms[i], succs.kernels[i]);
+        }
+        succStart[head+1] = lo+len;
+        nullReds[head]    = succs.nullReds;
+        if (succs.reused) {
+            incremental.numReusedStates++;
+        }
+    }
+
+    /** Return an array with the first len elements of a given array,
+     *  which is returned unchanged if it already has that length.
+     */
+    protected static int[] trim(int[] a, int len) {
+        if (a.length==len) {
+            return a;
+        }
+        int[] b = new int[len];
+        System.arraycopy(a, 0, b, 0, len);
+        return b;
+    }
 
-        IntSet[] trans    = new IntSet[numSyms];
-        int      numTrans = 0;
-        int[]    leftnt   = BitSet.make(numNTs);
+    /** Holds the workspace that is needed to calculate the closure of
+     *  a kernel.  The calculation only reads from the grammar and the
+     *  set of items, so different threads can safely use their own
+     *  Closure objects at the same time.
+     */
+    private class Closure {
+        private IntSet[] trans    = new IntSet[numSyms];
+        private int      numTrans = 0;
+        private long[]   roots    = BitSet.make(numNTs);
 
-        for (int head = 0; head<numStates; head++) {
-            IntSet kernel = stateSets[head];
-            BitSet.clear(leftnt);
+        /** Calculate the transitions for (the closure of) a kernel.
+         */
+        Successors explore(IntSet kernel) {
+            Successors succs = new Successors();
+            BitSet.clear(roots);
 
             // Calculate transitions for (the closure of) the
             // kernel of this state.  Start with items in the
-            // kernel itself.
-
-            Interator its = kernel.interator();
-            while (its.hasNext()) {
-                LR0Items.Item it = items.getItem(its.next());
-                if (it.canGoto()) {
-                    int sym = it.getNextSym();
-                    int nxt = it.getNextItem();
-                    if (grammar.isNonterminal(sym)) {
-                        BitSet.addTo(leftnt, left.at(sym));
-                    }
+            // kernel itself, adding the initial items for each
+            // nonterminal that appears after the marker.
+
+            int sz = kernel.size();
+            for (int k=0; k<sz; k++) {
+                int i = kernel.at(k);
+                if (items.canGoto(i)) {
+                    int sym = items.getNextSym(i);
+                    int nxt = items.getNextItem(i);
                     if (addValue(trans, sym, nxt)) {
                         numTrans++;
                     }
-                }
-            }
-
-            // Now continue with initial items for the nonterminals
-            // recorded in nts.
-
-            if (!BitSet.isEmpty(leftnt)) {
-                Interator nts = BitSet.interator(leftnt, 0);
-                while (nts.hasNext()) {
-                    int nt = nts.next();
-                    Grammar.Prod[] prods = grammar.getProds(nt);
-                    for (int i=0; i<prods.length; i++) {
-                        int[] rhs = prods[i].getRhs();
-                        int   nxt = items.getFirstKernel(nt, i);
-                        if (rhs.length!=0) {
-                            if (addValue(trans, rhs[0], nxt)) {
-                                numTrans++;
-                            }
-                        } else {
-                            addValue(nullReds, head, nxt);
-                        }
+                    if (grammar.isNonterminal(sym)
+                        && BitSet.addTo(roots, sym)) {
+                        closureOf(sym).addTo(this, succs);
                     }
                 }
             }
 
-            // Transfer information into successor transition
-            // table, adding new states as necessary.
+            // Collect the transitions in order of symbol number,
+            // clearing the workspace as we go.
 
-            int[] toState = new int[numTrans];
-            int[] onSym   = new int[numTrans];
-            int   count   = 0;
+            succs.syms    = new int[numTrans];
+            succs.kernels = new IntSet[numTrans];
+            int count     = 0;
             for (int i=0; count<numTrans; i++) {
                 if (trans[i]!=null) {
-                    toState[count] = addState(i, trans[i]);
-                    onSym[count]   = i;
-                    trans[i]       = null;
+                    succs.syms[count]    = i;
+                    succs.kernels[count] = trans[i];
+                    trans[i]             = null;
                     count++;
                 }
             }
-            numTrans         = 0;
-            succState[head]  = toState;
+            numTrans = 0;
+            return succs;
+        }
+    }
+
+    /** Caches the contribution that each nonterminal makes to the
+     *  closure of any kernel in which it appears after the marker.
+     *  Entries are calculated on demand, and are only needed while
+     *  the states are being built.
+     */
+    private ClosureList[] closures;
+
+    /** Return the closure contribution for a given nonterminal.  This
+     *  may be called from several threads at once; at worst, the same
+     *  list is calculated more than once.
+     */
+    private ClosureList closureOf(int nt) {
+        ClosureList cl = closures[nt];
+        if (cl==null) {
+            cl = new ClosureList(nt);
+            closures[nt] = cl;
+        }
+        return cl;
+    }
+
+    /** Describes the items that are added to the closure of a kernel
+     *  when a particular nonterminal B appears after the marker.  For
+     *  each nonterminal C in left(B), and each production C -> X w,
+     *  there is a transition on X to the item C -> X _ w.  These are
+     *  grouped by symbol so that each group can be added to the
+     *  corresponding successor kernel in one step.  Productions of the
+     *  form C -> (empty) are recorded separately as null reductions.
+     *  All fields are final, so a ClosureList can be shared safely
+     *  between threads.
+     */
+    private final class ClosureList {
+        private final int[] syms;       // symbols, in increasing order
+        private final int[] start;      // items for syms[g] are at
+        private final int[] nexts;      // nexts[start[g]..start[g+1]-1]
+        private final int[] nulls;      // null reduction items
+
+        ClosureList(int nt) {
+            int[] nts = BitSet.members(left.at(nt));
+
+            // Count the two kinds of production:
+            int numTrans = 0;
+            int numNulls = 0;
+            for (int i=0; i<nts.length; i++) {
+                Grammar.Prod[] prods = grammar.getProds(nts[i]);
+                for (int j=0; j<prods.length; j++) {
+                    if (prods[j].getRhs().length!=0) {
+                        numTrans++;
+                    } else {
+                        numNulls++;
+                    }
+                }
+            }
+
+            // Collect the transitions, packing each symbol and item
+            // into a single long, and sort them by symbol:
+            long[] packed = new long[numTrans];
+            int[]  ns     = new int[numNulls];
+            numTrans      = 0;
+            numNulls      = 0;
+            for (int i=0; i<nts.length; i++) {
+                Grammar.Prod[] prods = grammar.getProds(nts[i]);
+                for (int j=0; j<prods.length; j++) {
+                    int[] rhs = prods[j].getRhs();
+                    int   nxt = items.getFirstKernel(nts[i], j);
+                    if (rhs.length!=0) {
+                        packed[numTrans++] = ((long)rhs[0] << 32) | nxt;
+                    } else {
+                        ns[numNulls++] = nxt;
+                    }
+                }
+            }
+            Arrays.sort(packed);
+
+            // Split the sorted transitions into groups:
+            int numGroups = 0;
+            for (int k=0; k<packed.length; k++) {
+                if (k==0 || (packed[k]>>>32)!=(packed[k-1]>>>32)) {
+                    numGroups++;
+                }
+            }
+            int[] ss = new int[numGroups];
+            int[] st = new int[numGroups+1];
+            int[] is = new int[packed.length];
+            int   g  = 0;
+            for (int k=0; k<packed.length; k++) {
+                int sym = (int)(packed[k]>>>32);
+                if (k==0 || sym!=ss[g-1]) {
+                    ss[g]   = sym;
+                    st[g++] = k;
+                }
+                is[k] = (int)packed[k];
+            }
+            st[numGroups] = packed.length;
+            this.syms  = ss;
+            this.start = st;
+            this.nexts = is;
+            this.nulls = ns;
+        }
+
+        /** Add the items in this list to the transitions and null
+         *  reductions that are being calculated by a Closure.
+         */
+        void addTo(Closure closure, Successors succs) {
+            IntSet[] trans = closure.trans;
+            for (int g=0; g<syms.length; g++) {
+                IntSet set = trans[syms[g]];
+                if (set==null) {
+                    set = IntSet.empty();
+                    trans[syms[g]] = set;
+                    closure.numTrans++;
+                }
+                for (int k=start[g]; k<start[g+1]; k++) {
+                    set.add(nexts[k]);
+                }
+            }
+            if (nulls.length>0) {
+                if (succs.nullReds==null) {
+                    succs.nullReds = IntSet.empty();
+                }
+                for (int k=0; k<nulls.length; k++) {
+                    succs.nullReds.add(nulls[k]);
+                }
+            }
+        }
+    }
+
+    /** The number of states that a single task will explore before
+     *  we consider splitting the work between multiple threads.
+     */
+    private static final int EXPLORE_GRAIN = 32;
+
+    /** Calculate the LR(0) states using multiple threads.  We process the
+     *  work queue in batches: the closures for all of the states that are
+     *  currently in the queue are calculated in parallel, and then the
+     *  resulting transitions are added, one state at a time, in queue
+     *  order.  New states are therefore added in exactly the same order
+     *  as in the sequential algorithm, and receive the same numbers.
+     */
+    private void calcLR0statesParallel() {
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            int head = 0;
+            while (head<numStates) {
+                int          lo    = head;
+                int          hi    = numStates;
+                Successors[] batch = new Successors[hi-lo];
+                pool.invoke(new ExploreTask(batch, lo, lo, hi));
+                for (; head<hi; head++) {
+                    addSuccessors(head, batch[head-lo]);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** A fork/join task that calculates the successors for a range of
+     *  states [lo..hi-1] from the work queue, storing the results in
+     *  batch[lo-base..hi-base-1].  The hash codes for new kernels are
+     *  also calculated (and cached) here, leaving only the lookups in
+     *  the state hash table to be done sequentially.
+     */
+    private class ExploreTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private Successors[] batch;
+        private int          base;
+        private int          lo;
+        private int          hi;
+        ExploreTask(Successors[] batch, int base, int lo, int hi) {
+            this.batch = batch;
+            this.base  = base;
+            this.lo    = lo;
+            this.hi    = hi;
+        }
+        protected void compute() {
+            if (hi-lo<=EXPLORE_GRAIN) {
+                Closure closure = new Closure();
+                for (int st=lo; st<hi; st++) {
+                    Successors succs = successors(closure, stateSets[st]);
+                    for (int i=0; i<succs.kernels.length; i++) {
+                        succs.kernels[i].hashCode();
+                    }
+                    batch[st-base] = succs;
+                }
+            } else {
+                int mid = (lo+hi) >>> 1;
+                invokeAll(new ExploreTask(batch, base, lo, mid),
+                          new ExploreTask(batch, base, mid, hi));
+            }
         }
-        mergeNullReds();
     }
 
     /** Add a value to one of the sets in a table of integer sets.
@@ -273,7 +687,7 @@ public class Machine {
      *  @return        The number of the corresponding state.
      */
     private int addState(int sym, IntSet state) {
-        for (int i=0; i<numStates; i++) {
+        for (int i=stateIndex[bucketFor(state)]; i>=0; i=nextInBucket[i]) {
             if (stateSets[i].equals(state)) {
                 return i;
             }
@@ -284,25 +698,63 @@ public class Machine {
         if (numStates>=stateSets.length) {
             int newLen             = 2*stateSets.length;
             IntSet[] newStateSets  = new IntSet[newLen];
-            int[][]  newSuccState  = new int[newLen][];
+            int[]    newSuccStart  = new int[newLen+1];
             IntSet[] newNullReds   = new IntSet[newLen];
             int[]    newEntry      = new int[newLen];
             for (int i=0; i<numStates; i++) {
                 newStateSets[i]  = stateSets[i];
-                newSuccState[i]  = succState[i];
+                newSuccStart[i]  = succStart[i];
                 newEntry[i]      = entry[i];
                 newNullReds[i]   = nullReds[i];
             }
+            newSuccStart[numStates] = succStart[numStates];
             stateSets  = newStateSets;
-            succState  = newSuccState;
+            succStart  = newSuccStart;
             entry      = newEntry;
             nullReds   = newNullReds;
+            rehashStates(newLen);
         }
         stateSets[numStates] = state;
         entry[numStates]     = sym;
+        indexState(numStates);
         return numStates++;
     }
 
+    /** Return the bucket in the state hash table that would be used to
+     *  hold a particular set of kernel items.  The hash table size is
+     *  always a power of two, so we mix the higher bits of the hash code
+     *  down before masking.
+     */
+    private int bucketFor(IntSet state) {
+        int h = state.hashCode();
+        h ^= (h >>> 16);
+        return h & (stateIndex.length-1);
+    }
+
+    /** Add a state, whose kernel has already been stored in stateSets,
+     *  to the state hash table.
+     */
+    private void indexState(int st) {
+        int b            = bucketFor(stateSets[st]);
+        nextInBucket[st] = stateIndex[b];
+        stateIndex[b]    = st;
+    }
+
+    /** Rebuild the state hash table with a given number of buckets,
+     *  which must be a power of two.  This is called whenever the
+     *  state arrays are expanded, keeping the load factor below one.
+     */
+    private void rehashStates(int size) {
+        stateIndex   = new int[size];
+        nextInBucket = new int[size];
+        for (int i=0; i<size; i++) {
+            stateIndex[i] = (-1);
+        }
+        for (int i=0; i<numStates; i++) {
+            indexState(i);
+        }
+    }
+
     /** A dummy item set, equal to {-1}, and representing the
      *  accept state, numbered (-1).
      */
@@ -321,68 +773,82 @@ public class Machine {
     private void mergeNullReds() {
         for (int i=0; i<numStates; i++) {
             if (nullReds[i]!=null) {
-                Interator its = nullReds[i].interator();
-                while (its.hasNext()) {
-                    stateSets[i].add(its.next());
+                int sz = nullReds[i].size();
+                for (int j=0; j<sz; j++) {
+                    stateSets[i].add(nullReds[i].at(j));
                 }
                 nullReds[i] = null;
             }
         }
     }
 
-    /** Calculate goto and shift tables.
+    /** Calculate goto and shift tables from the successor table.
      */
-    private void calcGotosShifts() {
-        gotos  = new int[numStates][];
-        shifts = new int[numStates][];
+    protected void calcGotosShifts() {
+        // Count the gotos and shifts in each state:
+        gotoStart  = new int[numStates+1];
+        shiftStart = new int[numStates+1];
+        int endItem = items.getEndItem();
         for (int i=0; i<numStates; i++) {
             int numGotos  = 0;
             int numShifts = 0;
-            for (int j=0; j<succState[i].length; j++) {
-                int dst = succState[i][j];
-                if (grammar.isTerminal(entry[dst])) {
+            for (int j=succStart[i]; j<succStart[i+1]; j++) {
+                if (grammar.isTerminal(entry[succData[j]])) {
                     numShifts++;
                 } else {
                     numGotos++;
                 }
             }
-            if (stateSets[i].contains(items.getEndItem())) {
+            if (stateSets[i].contains(endItem)) {
                 numShifts++;
             }
-            gotos[i]  = new int[numGotos];
-            shifts[i] = new int[numShifts];
-            for (int j=succState[i].length; 0<j--; ) {
-                int dst = succState[i][j];
+            gotoStart[i+1]  = gotoStart[i]  + numGotos;
+            shiftStart[i+1] = shiftStart[i] + numShifts;
+        }
+
+        // Fill in the targets, with the accept shift (if any) first:
+        gotoData  = new int[gotoStart[numStates]];
+        shiftData = new int[shiftStart[numStates]];
+        for (int i=0; i<numStates; i++) {
+            int g = gotoStart[i];
+            int s = shiftStart[i];
+            if (stateSets[i].contains(endItem)) {
+                shiftData[s++] = (-1);
+            }
+            for (int j=succStart[i]; j<succStart[i+1]; j++) {
+                int dst = succData[j];
                 if (grammar.isTerminal(entry[dst])) {
-                    shifts[i][--numShifts] = dst;
+                    shiftData[s++] = dst;
                 } else {
-                    gotos[i][--numGotos] = dst;
+                    gotoData[g++]  = dst;
                 }
             }
-            if (numShifts>0) {
-                shifts[i][0] = (-1);
-            }
         }
     }
 
     /** Calculate reduce items.
      */
     private void calcReduceOffsets() {
-        reduceOffsets = new int[numStates][];
+        reduceStart = new int[numStates+1];
         for (int i=0; i<numStates; i++) {
             int    numReds = 0;
             IntSet set     = stateSets[i];
             int    sz      = set.size();
             for (int j=0; j<sz; j++) {
-                if (items.getItem(set.at(j)).canReduce()) {
+                if (items.canReduce(set.at(j))) {
                     numReds++;
                 }
             }
-            reduceOffsets[i] = new int[numReds];
-            int pos = 0;
+            reduceStart[i+1] = reduceStart[i] + numReds;
+        }
+        reduceData = new int[reduceStart[numStates]];
+        int pos    = 0;
+        for (int i=0; i<numStates; i++) {
+            IntSet set = stateSets[i];
+            int    sz  = set.size();
             for (int j=0; j<sz; j++) {
-                if (items.getItem(set.at(j)).canReduce()) {
-                    reduceOffsets[i][pos++] = j;
+                if (items.canReduce(set.at(j))) {
+                    reduceData[pos++] = j;
                 }
             }
         }
@@ -399,11 +865,11 @@ public class Machine {
                 out.println();
             }
             out.println();
-            if (succState[i].length>0) {
-                for (int j=0; j<succState[i].length; j++) {
-                    int dst = succState[i][j];
+            if (succStart[i+1]>succStart[i]) {
+                for (int j=succStart[i]; j<succStart[i+1]; j++) {
+                    int dst = succData[j];
                     out.println("\t" + grammar.getSymbol(entry[dst]) +
-                                " goto " + succState[i][j]);
+                                " goto " + dst);
                 }
                 out.println();
             }
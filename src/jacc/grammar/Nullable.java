@@ -22,6 +22,13 @@ public final class Nullable extends Analysis {
     /** Construct a nullable analysis for a given grammar.
      */
     public Nullable(Grammar grammar) {
+        this(grammar, true);
+    }
+
+    /** Construct a nullable analysis for a given grammar, either using a
+     *  worklist or making repeated passes over each component.
+     */
+    public Nullable(Grammar grammar, boolean worklist) {
         super(grammar.getComponents());
         this.grammar = grammar;
         this.numNTs  = grammar.getNumNTs();
@@ -31,7 +38,11 @@ public final class Nullable extends Analysis {
             nullable[i] = false;
             consider[i] = true;
         }
-        bottomUp();
+        if (worklist) {
+            bottomUp(grammar.getRevdeps());
+        } else {
+            bottomUp();
+        }
     }
 
     /** Run the analysis at a particular point.  Return a boolean true
@@ -0,0 +1,152 @@
+// Copyright (c) Mark P Jones, OGI School of Science & Engineering
+// Subject to conditions of distribution and use; see LICENSE for details
+// 
+
+package jacc.grammar;
+
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/** Processes the strongly connected components of a dependency graph
+ *  using multiple threads.  A component is scheduled as soon as all of
+ *  the components that it depends on have been processed, so components
+ *  that do not depend on each other can be processed at the same time.
+ *  Subclasses specify how to process a single component.
+ */
+abstract class ParallelComponents {
+    /** The components of the graph, as calculated by SCC.get.
+     */
+    private int[][] comps;
+
+    /** Records the components that depend on each component, using the
+     *  same layout as Machine.succStart and Machine.succData.
+     */
+    private int[] depStart;
+    private int[] depData;
+
+    /** Counts the dependencies of each component that have not yet been
+     *  processed.
+     */
+    private AtomicIntegerArray pending;
+
+    /** Lists the components that have no dependencies.
+     */
+    private int[] ready;
+    private int   numReady;
+
+    /** Set up to process the components of a graph in which the nodes
+     *  that i depends on are adjData[adjStart[i]] through to
+     *  adjData[adjStart[i+1]-1].
+     */
+    ParallelComponents(int[] adjStart, int[] adjData, int[][] comps) {
+        this.comps   = comps;
+        int numComps = comps.length;
+        int numNodes = adjStart.length-1;
+        int[] compOf = new int[numNodes];
+        for (int c=0; c<numComps; c++) {
+            for (int i=0; i<comps[c].length; i++) {
+                compOf[comps[c][i]] = c;
+            }
+        }
+
+        // Count and then record the edges between components:
+        int[] waiting = new int[numComps];
+        depStart      = new int[numComps+1];
+        for (int x=0; x<numNodes; x++) {
+            for (int i=adjStart[x]; i<adjStart[x+1]; i++) {
+                if (compOf[adjData[i]]!=compOf[x]) {
+                    depStart[compOf[adjData[i]]+1]++;
+                    waiting[compOf[x]]++;
+                }
+            }
+        }
+        for (int c=0; c<numComps; c++) {
+            depStart[c+1] += depStart[c];
+        }
+        int[] fill = new int[numComps];
+        for (int c=0; c<numComps; c++) {
+            fill[c] = depStart[c];
+        }
+        depData = new int[depStart[numComps]];
+        for (int x=0; x<numNodes; x++) {
+            for (int i=adjStart[x]; i<adjStart[x+1]; i++) {
+                if (compOf[adjData[i]]!=compOf[x]) {
+                    depData[fill[compOf[adjData[i]]]++] = compOf[x];
+                }
+            }
+        }
+        pending = new AtomicIntegerArray(waiting);
+
+        ready    = new int[numComps];
+        numReady = 0;
+        for (int c=0; c<numComps; c++) {
+            if (waiting[c]==0) {
+                ready[numReady++] = c;
+            }
+        }
+    }
+
+    /** Process a single component.  This is only called once all of the
+     *  components that it depends on have been processed, and it should
+     *  only change the data for nodes in the component.
+     */
+    protected abstract void process(int[] comp);
+
+    /** Process every component, using up to numThreads threads.
+     */
+    void run(int numThreads) {
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            pool.invoke(new ComponentTask(ready, numReady));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** A fork/join task that processes a component, and then any of the
+     *  components that depend on it that become ready as a result.  One
+     *  of those is processed by the same task, so that long chains of
+     *  components do not need a new task for each step.  The root task
+     *  starts the components that have no dependencies.
+     */
+    private class ComponentTask extends CountedCompleter<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private int   comp;
+        private int[] ready;
+        private int   numReady;
+        ComponentTask(int[] ready, int numReady) {
+            this.comp     = (-1);
+            this.ready    = ready;
+            this.numReady = numReady;
+        }
+        ComponentTask(CountedCompleter<?> parent, int comp) {
+            super(parent);
+            this.comp = comp;
+        }
+        public void compute() {
+            for (int i=0; i<numReady; i++) {
+                addToPendingCount(1);
+                new ComponentTask(this, ready[i]).fork();
+            }
+            for (int c=comp; c>=0; ) {
+                process(comps[c]);
+                int next = (-1);
+                for (int i=depStart[c]; i<depStart[c+1]; i++) {
+                    int d = depData[i];
+                    if (pending.decrementAndGet(d)==0) {
+                        if (next<0) {
+                            next = d;
+                        } else {
+                            addToPendingCount(1);
+                            new ComponentTask(this, d).fork();
+                        }
+                    }
+                }
+                c = next;
+            }
+            tryComplete();
+        }
+    }
+}
@@ -107,22 +107,21 @@ public class Parser {
             currSymbol = (-1);
             return GOTO;
         } else {
-            byte[] action = tables.getActionAt(state);
-            int[]  arg    = tables.getArgAt(state);
-            int    t      = currSymbol - grammar.getNumNTs();
-            switch (action[t]) {
+            int t   = currSymbol - grammar.getNumNTs();
+            int arg = tables.getArg(state, t);
+            switch (tables.getAction(state, t)) {
                 case Tables.SHIFT: {
-                    if (arg[t]<0) {
+                    if (arg<0) {
                         return ACCEPT;
                     }
                     shift(currSymbol);
                     currSymbol = (-1);
-                    state      = arg[t];
+                    state      = arg;
                     return SHIFT;
                 }
  
                 case Tables.REDUCE: {
-                    reduce(arg[t]);
+                    reduce(arg);
                     return REDUCE;
                 }
             }
@@ -0,0 +1,85 @@
+// Copyright (c) Mark P Jones, OGI School of Science & Engineering
+// Subject to conditions of distribution and use; see LICENSE for details
+// 
+
+package jacc.grammar;
+
+/** Calculation of reachability.  A nonterminal is reachable if it can
+ *  appear in a string that is derived from the start symbol.  If
+ *  X -> v Y w is a production then:
+ *
+ *         reachable X => reachable Y
+ *
+ *  Using also the fact that the start symbol is reachable, we can
+ *  iterate to find reachable values for each nonterminal.  Productions
+ *  for a nonterminal that is not reachable can never be used in a parse.
+ */
+public final class Reachable extends Analysis {
+    private boolean[] reachable;
+    private Grammar   grammar;
+    private int       numNTs;
+    private int       numUnreachable;
+
+    /** Construct a reachability analysis for a given grammar.
+     */
+    public Reachable(Grammar grammar) {
+        super(grammar.getComponents());
+        this.grammar = grammar;
+        this.numNTs  = grammar.getNumNTs();
+        reachable    = new boolean[numNTs];
+        reachable[0] = true;
+        topDown(grammar.getDepends());
+        for (int i=0; i<numNTs; i++) {
+            if (!reachable[i]) {
+                numUnreachable++;
+            }
+        }
+    }
+
+    /** Run the analysis at a particular point.  Return a boolean true
+     *  if this changed the current approximation at this point.
+     */
+    protected boolean analyze(int c) {
+        if (!reachable[c]) {
+            int[] callers = grammar.getRevdeps()[c];
+            for (int k=0; k<callers.length; k++) {
+                if (reachable[callers[k]]) {
+                    reachable[c] = true;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Return a boolean true if the given symbol is reachable.  All
+     *  terminals are treated as reachable.
+     */
+    public boolean at(int i) {
+        return grammar.isTerminal(i) || reachable[i];
+    }
+
+    /** Return the number of nonterminals that are not reachable.
+     */
+    public int getNumUnreachable() {
+        return numUnreachable;
+    }
+
+    /** Display the results of the analysis for the purposes of debugging
+     *  and inspection.
+     */
+    public void display(java.io.PrintWriter out) {
+        out.print("Reachable = {");
+        int count = 0;
+        for (int i=0; i<numNTs; i++) {
+            if (this.at(i)) {
+                if (count>0) {
+                    out.print(", ");
+                }
+                out.print(grammar.getSymbol(i).getName());
+                count++;
+            }
+        }
+        out.println("}");
+    }
+}
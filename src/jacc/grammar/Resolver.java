@@ -16,4 +16,26 @@ public abstract class Resolver {
     /** Resolve a reduce/reduce conflict.
      */
     public abstract void rrResolve(Tables tables, int st, int tok, int redNo);
+
+    /** Combine the information that was recorded for each state, once
+     *  the tables have been filled in.  The rows for different states
+     *  may be filled in parallel, and in any order, so srResolve and
+     *  rrResolve should only record information for the state that
+     *  they are given, leaving any totals to be calculated here.
+     */
+    public void mergeConflicts() {
+    }
+
+    /** Record the conflicts for state st when its row is copied from the
+     *  tables of a previous build, where it was the row for oldSt.  The
+     *  tables have already checked that the two states have the same
+     *  items, shifts, and lookaheads.  This should return false, without
+     *  recording anything, unless the conflicts at st would be resolved
+     *  in exactly the same way as those at oldSt, in which case the row
+     *  is filled in as usual.  By default, rows are never copied.
+     */
+    public boolean reuseConflicts(int st, IncrementalBuild previous,
+                                  int oldSt) {
+        return false;
+    }
 }
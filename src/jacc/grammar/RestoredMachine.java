@@ -0,0 +1,49 @@
+// Copyright (c) Mark P Jones, OGI School of Science & Engineering
+// Subject to conditions of distribution and use; see LICENSE for details
+// 
+
+package jacc.grammar;
+
+import jacc.util.IntSet;
+import jacc.util.TokenSet;
+import jacc.util.TokenSetPool;
+
+/** A machine whose states and lookahead sets have been calculated
+ *  previously, for example by a machine that was saved in a file.
+ *  No analysis of the grammar is required to construct the machine,
+ *  but the grammar must be the same as the one that was originally
+ *  used.
+ */
+public class RestoredMachine extends LookaheadMachine {
+    /** Construct a machine from the item sets, entry symbols, and
+     *  successors of each state (see Machine), and the lookahead sets
+     *  for all of the reductions in the machine, listed state by state
+     *  in the order specified by Machine.getReducesAt().  Identical
+     *  lookahead sets are shared, using a pool.
+     */
+    public RestoredMachine(Grammar grammar, IntSet[] stateSets, int[] entry,
+                           int[] succStart, int[] succData,
+                           TokenSet[] lookaheads) {
+        super(grammar, stateSets, entry, succStart, succData);
+        TokenSetPool pool = new TokenSetPool();
+        laReds = new TokenSet[numStates][];
+        int r  = 0;
+        for (int st=0; st<numStates; st++) {
+            laReds[st] = new TokenSet[getNumReducesAt(st)];
+            for (int j=0; j<laReds[st].length; j++) {
+                laReds[st][j] = pool.intern(lookaheads[r++]);
+            }
+        }
+    }
+
+    /** Records the lookahead sets for reduce items.  Lookahead sets are
+     *  stored in the order specified by Machine.getReducesAt().
+     */
+    private TokenSet[][] laReds;
+
+    /** Return lookahead sets for the reductions at a given state.
+     */
+    public TokenSet getLookaheadAt(int st, int i) {
+        return laReds[st][i];
+    }
+}
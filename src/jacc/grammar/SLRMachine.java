@@ -6,6 +6,7 @@
 package jacc.grammar;
 
 import jacc.util.IntSet;
+import jacc.util.TokenSet;
 
 /** A machine that provides SLR lookahead sets for each reduction.
  */
@@ -16,7 +17,22 @@ public class SLRMachine extends LookaheadMachine {
     /** Construct a machine for a given grammar.
      */
     public SLRMachine(Grammar grammar) {
-        super(grammar);
+        this(grammar, 1);
+    }
+
+    /** Construct a machine for a given grammar, using up to numThreads
+     *  threads during construction.
+     */
+    public SLRMachine(Grammar grammar, int numThreads) {
+        this(grammar, numThreads, null);
+    }
+
+    /** Construct a machine for a given grammar, reusing the states of a
+     *  previous build where possible.
+     */
+    public SLRMachine(Grammar grammar, int numThreads,
+                      IncrementalBuild previous) {
+        super(grammar, numThreads, previous);
         this.follow = grammar.getFollow();
         calcLookahead();
     }
@@ -24,24 +40,24 @@ public class SLRMachine extends LookaheadMachine {
     /** Records the lookahead sets for reduce items.  Lookahead sets are
      *  stored in the order specified by Machine.getReducesAt().
      */
-    private int[][][] laReds;
+    private TokenSet[][] laReds;
 
     /** Return lookahead sets for the reductions at a given state.
      */
-    public int[] getLookaheadAt(int st, int i) {
+    public TokenSet getLookaheadAt(int st, int i) {
         return laReds[st][i];
     }
 
     /** Calculate lookahead sets.
      */
     private void calcLookahead() {
-        laReds = new int[numStates][][];
+        laReds = new TokenSet[numStates][];
         for (int i=0; i<numStates; i++) {
             IntSet its = getItemsAt(i);
-            int[]  rs  = getReducesAt(i);
-            laReds[i]  = new int[rs.length][];
-            for (int j=0; j<rs.length; j++) {
-                int lhs      = items.getItem(its.at(rs[j])).getLhs();
+            laReds[i]  = new TokenSet[getNumReducesAt(i)];
+            for (int j=0; j<laReds[i].length; j++) {
+                int off      = getReduceAt(i, j);
+                int lhs      = items.getLhs(its.at(off));
                 laReds[i][j] = follow.at(lhs);
             }
         }
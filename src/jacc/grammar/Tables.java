@@ -5,9 +5,12 @@
 
 package jacc.grammar;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 import jacc.util.IntSet;
-import jacc.util.BitSet;
-import jacc.util.Interator;
+import jacc.util.TokenSet;
 
 /** Describes the construction of parse tables for a given machine, using
  *  lookahead information to help avoid shift/reduce conflicts.
@@ -30,25 +33,92 @@ public class Tables {
      *  the given machine.
      */
     public Tables(LookaheadMachine machine, Resolver resolver) {
+        this(machine, resolver, null);
+    }
+
+    /** Construct a set of parse tables for the given machine, copying
+     *  rows from the tables of a previous build where possible.  The
+     *  machine must have been built using the same previous build, or
+     *  previous must be null.
+     */
+    public Tables(LookaheadMachine machine, Resolver resolver,
+                  IncrementalBuild previous) {
         this.machine    = machine;
         this.resolver   = resolver;
         Grammar grammar = machine.getGrammar();
         this.numNTs     = grammar.getNumNTs();
         this.numTs      = grammar.getNumTs();
         int numStates   = machine.getNumStates();
-        this.action     = new byte[numStates][];
-        this.arg        = new int[numStates][];
+        this.rowToken   = new int[numStates][];
+        this.rowAction  = new byte[numStates][];
+        this.rowArg     = new int[numStates][];
         this.prodUsed   = new boolean[numNTs][];
         this.prodUnused = 0;
         for (int i=0; i<numNTs; i++) {
             prodUsed[i] = new boolean[grammar.getProds(i).length];
             prodUnused += prodUsed[i].length;
         }
+        this.filling    = new Fill[numStates];
+        if (previous!=null && previous.getSameTokenOrder()) {
+            this.previous = previous;
+            this.reused   = new boolean[numStates];
+        }
+        int numThreads  = machine.getNumThreads();
+        if (numThreads>1 && numStates>FILL_GRAIN) {
+            ForkJoinPool pool = new ForkJoinPool(numThreads);
+            try {
+                pool.invoke(new FillTask(0, numStates));
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            Fill fill = new Fill();
+            for (int i=0; i<numStates; i++) {
+                fillTablesAt(fill, i);
+            }
+        }
+        this.filling    = null;
         for (int i=0; i<numStates; i++) {
-            fillTablesAt(i);
+            registerProdsAt(i);
+        }
+        if (reused!=null) {
+            for (int i=0; i<numStates; i++) {
+                if (reused[i]) {
+                    previous.numReusedRows++;
+                }
+            }
+            this.previous = null;
+            this.reused   = null;
         }
+        resolver.mergeConflicts();
     } 
 
+    /** Construct a set of parse tables from rows that were calculated
+     *  previously for the given machine, together with a record of the
+     *  productions that they use.
+     */
+    protected Tables(LookaheadMachine machine, Resolver resolver,
+                     int[][] rowToken, byte[][] rowAction, int[][] rowArg,
+                     boolean[][] prodUsed) {
+        this.machine    = machine;
+        this.resolver   = resolver;
+        Grammar grammar = machine.getGrammar();
+        this.numNTs     = grammar.getNumNTs();
+        this.numTs      = grammar.getNumTs();
+        this.rowToken   = rowToken;
+        this.rowAction  = rowAction;
+        this.rowArg     = rowArg;
+        this.prodUsed   = prodUsed;
+        this.prodUnused = 0;
+        for (int i=0; i<numNTs; i++) {
+            for (int j=0; j<prodUsed[i].length; j++) {
+                if (!prodUsed[i][j]) {
+                    prodUnused++;
+                }
+            }
+        }
+    }
+
     /** Code used to signal that no action has been specified.
      */
     public final static byte NONE   = 0;
@@ -61,15 +131,45 @@ public class Tables {
      */
     public final static byte REDUCE = 2;
 
-    /** Holds a table recording the actions to be taken on each state
-     *  and at each terminal symbol.
+    // The table for each state is stored as a row of entries, sorted
+    // by token number, that lists only the tokens with an action or
+    // a nonzero argument.  Every other token has an implicit entry of
+    // NONE with argument 0.  Most states have entries for just a few
+    // of the tokens, so this uses much less space than a full table
+    // when there are many tokens and states.
+
+    /** Holds the tokens, in increasing order, that have an entry in the
+     *  row for each state.
+     */
+    protected int[][] rowToken;
+
+    /** Holds the action for each entry in the row for each state.
      */
-    protected byte[][] action;
+    protected byte[][] rowAction;
 
-    /** Holds the arguments for each action, which is either a state
-     *  number for a SHIFT, or a reduce number for a REDUCE.
+    /** Holds the argument for each entry in the row for each state,
+     *  which is either a state number for a SHIFT, or a reduce number
+     *  for a REDUCE.
      */
-    protected int[][] arg;
+    protected int[][] rowArg;
+
+    /** Holds a full table for a state whose row is being filled in,
+     *  together with a list of the tokens that have entries.  Each
+     *  thread that fills in rows has its own Fill, which is cleared
+     *  and reused for each state.
+     */
+    private class Fill {
+        byte[] action = new byte[numTs];        // all initialized to NONE
+        int[]  arg    = new int[numTs];
+        int[]  tokens = new int[numTs];
+        int    size;
+    }
+
+    /** Records the Fill for each state whose row is being filled in, or
+     *  null for any other state.  This is only used while the tables
+     *  are being constructed.
+     */
+    private Fill[] filling;
 
     /** A table of booleans that records whether a reduce for the
      *  corresponding production appeared in the generated tables.
@@ -81,12 +181,25 @@ public class Tables {
      */
     private int         prodUnused;
 
+    /** Holds the previous build, if rows can be copied from its tables,
+     *  while the tables are being constructed, and records the states
+     *  whose rows were copied.
+     */
+    private IncrementalBuild previous;
+    private boolean[]        reused;
+
     /** Return the machine for these lookahead tables.
      */
     public LookaheadMachine getMachine() {
         return machine;
     }
 
+    /** Return the resolver for these tables.
+     */
+    public Resolver getResolver() {
+        return resolver;
+    }
+
     /** Return the action table for a particular state.  Action tables
      *  are indexed by terminal symbols, and contain one of three values:
      *  <ul>
@@ -95,9 +208,18 @@ public class Tables {
      *  <li> SHIFT indicates that a shift is required.
      *  <li> REDUCE indicates that a reduce step is required.
      *  </ul>
+     *  The table is built from the row for the state each time that
+     *  this method is called, so getAction() is a better choice for
+     *  looking up individual entries.
      */
     public byte[] getActionAt(int st) {
-        return action[st];
+        byte[]  action = new byte[numTs];
+        int[]   toks   = rowToken[st];
+        byte[]  acts   = rowAction[st];
+        for (int i=0; i<toks.length; i++) {
+            action[toks[i]] = acts[i];
+        }
+        return action;
     }
 
     /** Return the argument table at a particular state.  The
@@ -112,9 +234,61 @@ public class Tables {
      *       of the item in Machine.getItemsAt(st) by which we should
      *       reduce.
      *  </ul>
+     *  Like getActionAt(), the table is built each time that this
+     *  method is called.
      */
     public int[] getArgAt(int st) {
-        return arg[st];
+        int[] arg  = new int[numTs];
+        int[] toks = rowToken[st];
+        int[] args = rowArg[st];
+        for (int i=0; i<toks.length; i++) {
+            arg[toks[i]] = args[i];
+        }
+        return arg;
+    }
+
+    /** Return the action for a particular state and terminal.
+     */
+    public byte getAction(int st, int tok) {
+        Fill fill = fillFor(st);
+        if (fill!=null) {
+            return fill.action[tok];
+        }
+        int pos = find(rowToken[st], tok);
+        return (pos<0) ? NONE : rowAction[st][pos];
+    }
+
+    /** Return the argument for a particular state and terminal.
+     */
+    public int getArg(int st, int tok) {
+        Fill fill = fillFor(st);
+        if (fill!=null) {
+            return fill.arg[tok];
+        }
+        int pos = find(rowToken[st], tok);
+        return (pos<0) ? 0 : rowArg[st][pos];
+    }
+
+    /** Return the tokens, in increasing order, that have entries in
+     *  the row for a particular state.  Every other token has an
+     *  error entry, with action NONE and argument 0.
+     */
+    public int[] getRowTokensAt(int st) {
+        return rowToken[st];
+    }
+
+    /** Return the actions for the entries in the row for a particular
+     *  state.
+     */
+    public byte[] getRowActionsAt(int st) {
+        return rowAction[st];
+    }
+
+    /** Return the arguments for the entries in the row for a particular
+     *  state.
+     */
+    public int[] getRowArgsAt(int st) {
+        return rowArg[st];
     }
 
     /** Return the number of unused productions.  A production is unused
@@ -135,66 +309,266 @@ public class Tables {
     /** Store a SHIFT entry in the table for a particular state.
      */
     public void setShift(int st, int tok, int to) {
-        action[st][tok] = SHIFT;
-        arg[st][tok]    = to;
+        setEntry(st, tok, SHIFT, to);
     }
 
     /** Store a REDUCE entry in the table for a particular state.
      */
     public void setReduce(int st, int tok, int num) {
-        action[st][tok] = REDUCE;
-        arg[st][tok]    = num;
+        setEntry(st, tok, REDUCE, num);
+    }
+
+    /** Store an entry in the table for a particular state.  The entry
+     *  must not be NONE with an argument of 0, which is the implicit
+     *  entry for tokens that are not listed in the row.
+     */
+    protected void setEntry(int st, int tok, byte act, int num) {
+        Fill fill = fillFor(st);
+        if (fill!=null) {
+            if (fill.action[tok]==NONE && fill.arg[tok]==0) {
+                fill.tokens[fill.size++] = tok;
+            }
+            fill.action[tok] = act;
+            fill.arg[tok]    = num;
+            return;
+        }
+        int[] toks = rowToken[st];
+        int   pos  = find(toks, tok);
+        if (pos<0) {
+            pos = -(pos+1);
+            int    n       = toks.length;
+            int[]  newToks = new int[n+1];
+            byte[] newActs = new byte[n+1];
+            int[]  newArgs = new int[n+1];
+            System.arraycopy(toks, 0, newToks, 0, pos);
+            System.arraycopy(rowAction[st], 0, newActs, 0, pos);
+            System.arraycopy(rowArg[st], 0, newArgs, 0, pos);
+            System.arraycopy(toks, pos, newToks, pos+1, n-pos);
+            System.arraycopy(rowAction[st], pos, newActs, pos+1, n-pos);
+            System.arraycopy(rowArg[st], pos, newArgs, pos+1, n-pos);
+            newToks[pos]  = tok;
+            rowToken[st]  = newToks;
+            rowAction[st] = newActs;
+            rowArg[st]    = newArgs;
+        }
+        rowAction[st][pos] = act;
+        rowArg[st][pos]    = num;
+    }
+
+    /** Return the Fill for a given state, or null if its row is not
+     *  being filled in.
+     */
+    private Fill fillFor(int st) {
+        Fill[] fs = filling;
+        return (fs==null) ? null : fs[st];
+    }
+
+    /** Return the position of tok in a sorted array of tokens, or, if
+     *  it is not there, -(p+1), where p is the position at which it
+     *  belongs.
+     */
+    private static int find(int[] toks, int tok) {
+        int lo = 0;
+        int hi = toks.length-1;
+        while (lo<=hi) {
+            int mid = (lo+hi) >>> 1;
+            int val = toks[mid];
+            if (val<tok) {
+                lo = mid+1;
+            } else if (val>tok) {
+                hi = mid-1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo+1);
+    }
+
+    /** The number of states that a single task will fill in before we
+     *  consider splitting the work between multiple threads.
+     */
+    private static final int FILL_GRAIN = 64;
+
+    /** A fork/join task that fills in the rows for a range of states
+     *  [lo..hi-1].  The row for each state depends only on the machine,
+     *  and the resolver records conflicts separately for each state, so
+     *  the states can be filled in any order.
+     */
+    private class FillTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private int lo;
+        private int hi;
+        FillTask(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+        protected void compute() {
+            if (hi-lo<=FILL_GRAIN) {
+                Fill fill = new Fill();
+                for (int st=lo; st<hi; st++) {
+                    fillTablesAt(fill, st);
+                }
+            } else {
+                int mid = (lo+hi) >>> 1;
+                invokeAll(new FillTask(lo, mid), new FillTask(mid, hi));
+            }
+        }
     }
 
     /** Fill in tables for a particular state using info from the machine.
+     *  The entries are collected in a full table, and then copied into
+     *  the row for the state.
      */
-    private void fillTablesAt(int st) {
-        action[st]   = new byte[numTs];      // all initialized to NONE
-        arg[st]      = new int[numTs];
-        int[] shifts = machine.getShiftsAt(st);
-        int[] rs     = machine.getReducesAt(st);
+    private void fillTablesAt(Fill fill, int st) {
+        if (previous!=null && reuseRowAt(st)) {
+            reused[st] = true;
+            return;
+        }
+        filling[st]   = fill;
+        fill.size     = 0;
+        int numShifts = machine.getNumShiftsAt(st);
+        int numReds   = machine.getNumReducesAt(st);
 
         // Enter shifts into table.
-        for (int i=0; i<shifts.length; i++) {
-            setShift(st, machine.getEntry(shifts[i])-numNTs, shifts[i]);
+        for (int i=0; i<numShifts; i++) {
+            int dst = machine.getShiftAt(st, i);
+            setShift(st, machine.getEntry(dst)-numNTs, dst);
         }
         // Enter reduces into table.
-        for (int i=0; i<rs.length; i++) {
-            Interator bts = BitSet.interator(machine.getLookaheadAt(st,i), 0);
-            while (bts.hasNext()) {
-                int tok = bts.next();
-                switch (action[st][tok]) {
+        for (int i=0; i<numReds; i++) {
+            int      red = machine.getReduceAt(st, i);
+            TokenSet la  = machine.getLookaheadAt(st, i);
+            for (int tok=la.nextMember(0); tok>=0; tok=la.nextMember(tok+1)) {
+                switch (fill.action[tok]) {
                     case NONE:
-                        setReduce(st, tok, rs[i]);
+                        setReduce(st, tok, red);
                         break;
                     case SHIFT:
-                        resolver.srResolve(this, st, tok, rs[i]);
+                        resolver.srResolve(this, st, tok, red);
                         break;
                     case REDUCE:
-                        resolver.rrResolve(this, st, tok, rs[i]);
+                        resolver.rrResolve(this, st, tok, red);
                         break;
                 }
             }
         }
 
-        // Register which productions are actually used
+        // Copy the entries into the row, and clear the full table:
+        int    size = fill.size;
+        int[]  toks = new int[size];
+        byte[] acts = new byte[size];
+        int[]  args = new int[size];
+        if (size > (numTs>>4)) {        // scanning is cheaper than sorting
+            for (int tok=0, i=0; i<size; tok++) {
+                if (fill.action[tok]!=NONE || fill.arg[tok]!=0) {
+                    toks[i++] = tok;
+                }
+            }
+        } else {
+            System.arraycopy(fill.tokens, 0, toks, 0, size);
+            Arrays.sort(toks);
+        }
+        for (int i=0; i<size; i++) {
+            int tok          = toks[i];
+            acts[i]          = fill.action[tok];
+            args[i]          = fill.arg[tok];
+            fill.action[tok] = NONE;
+            fill.arg[tok]    = 0;
+        }
+        rowToken[st]  = toks;
+        rowAction[st] = acts;
+        rowArg[st]    = args;
+        filling[st]   = null;
+    }
+
+    /** Copy the row for a state from the previous tables, if it has a
+     *  corresponding state with the same items (at the same offsets), the
+     *  same shifts, and the same lookahead sets, and if the resolver can
+     *  reuse the conflicts at that state.  Rows are filled in the same
+     *  way from the same information, so the copy, with the terminals and
+     *  states translated, is the row that fillTablesAt would produce.
+     *  Returns true if the row was copied.
+     */
+    private boolean reuseRowAt(int st) {
+        int old = previous.getOldState(st);
+        if (old<0) {
+            return false;
+        }
+        Tables           prev = previous.getPreviousTables();
+        LookaheadMachine pm   = prev.getMachine();
+
+        IntSet its  = machine.getItemsAt(st);
+        IntSet olds = pm.getItemsAt(old);
+        if (its.size()!=olds.size()) {
+            return false;
+        }
+        for (int i=0; i<its.size(); i++) {
+            if (previous.getOldItem(its.at(i))!=olds.at(i)) {
+                return false;
+            }
+        }
+
+        int numShifts = machine.getNumShiftsAt(st);
+        if (numShifts!=pm.getNumShiftsAt(old)) {
+            return false;
+        }
+        for (int i=0; i<numShifts; i++) {
+            if (previous.getOldState(machine.getShiftAt(st, i))
+                    !=pm.getShiftAt(old, i)) {
+                return false;
+            }
+        }
+
+        int numReds = machine.getNumReducesAt(st);
+        for (int i=0; i<numReds; i++) {
+            TokenSet la = previous.translate(pm.getLookaheadAt(old, i));
+            if (la==null || !la.equals(machine.getLookaheadAt(st, i))) {
+                return false;
+            }
+        }
+
+        if (!resolver.reuseConflicts(st, previous, old)) {
+            return false;
+        }
+        int[]  otoks = prev.rowToken[old];
+        int[]  oargs = prev.rowArg[old];
+        int    size  = otoks.length;
+        int[]  toks  = new int[size];
+        byte[] acts  = new byte[size];
+        int[]  args  = new int[size];
+        System.arraycopy(prev.rowAction[old], 0, acts, 0, size);
+        for (int i=0; i<size; i++) {
+            toks[i] = previous.getNewToken(otoks[i]);
+            args[i] = (acts[i]==SHIFT) ? previous.getNewState(oargs[i])
+                                       : oargs[i];
+        }
+        rowToken[st]  = toks;
+        rowAction[st] = acts;
+        rowArg[st]    = args;
+        return true;
+    }
+
+    /** Register which productions are actually used in the row for a
+     *  particular state.  Under normal circumstances, every reduction
+     *  will be used at least once ... however, it is possible that uses
+     *  of a reduce step in the machine have been eliminated when a
+     *  conflict was resolved.  This is done in a separate pass, after
+     *  all of the rows have been filled in, so that prodUsed is only
+     *  updated by a single thread.
+     */
+    private void registerProdsAt(int st) {
         LR0Items items = machine.getItems();
         IntSet   its   = machine.getItemsAt(st);
-        for (int i=0; i<rs.length; i++) {
-            for (int j=0; j<numTs; j++) {
-                if (action[st][j]==REDUCE && arg[st][j]==rs[i]) {
-                    // Under normal circumstances, every reduction
-                    // will be used at least once ... however, it is
-                    // possible that uses of a reduce step in the machine
-                    // have been eliminated when a conflict was resolved.
-                    LR0Items.Item it = items.getItem(its.at(rs[i]));
-                    int lhs    = it.getLhs();
-                    int prodNo = it.getProdNo();
-                    if (!prodUsed[lhs][prodNo]) {
-                        prodUsed[lhs][prodNo] = true;
-                        prodUnused--;
-                    }
-                    break;
+        byte[]   acts  = rowAction[st];
+        int[]    args  = rowArg[st];
+        for (int i=0; i<acts.length; i++) {
+            if (acts[i]==REDUCE) {
+                int lhs    = items.getLhs(its.at(args[i]));
+                int prodNo = items.getProdNo(its.at(args[i]));
+                if (!prodUsed[lhs][prodNo]) {
+                    prodUsed[lhs][prodNo] = true;
+                    prodUnused--;
                 }
             }
         }
@@ -5,33 +5,34 @@
 
 package jacc.util;
 
+/** Operations on bitsets, represented by arrays of 64 bit words.  The
+ *  inner loops of the bulk operations are written without branches so
+ *  that the JIT compiler can turn them into SIMD instructions.
+ */
 public class BitSet {
 
     private BitSet() {}
 
-    private static final int LOG_BITS_PER_WORD = 5;
+    private static final int LOG_BITS_PER_WORD = 6;
     private static final int BITS_PER_WORD     = 1 << LOG_BITS_PER_WORD;
-    private static final int BIT_MASK          = BITS_PER_WORD - 1;
 
-    public static int[] make(int size) {
-        return new int[(size+BITS_PER_WORD-1) >> LOG_BITS_PER_WORD];
+    public static long[] make(int size) {
+        return new long[(size+BITS_PER_WORD-1) >> LOG_BITS_PER_WORD];
     }
 
-    public static int[] copy(int[] set) {
-        int[] ret = new int[set.length];
-        for (int i=0; i<set.length; i++) {
-            ret[i] = set[i];
-        }
+    public static long[] copy(long[] set) {
+        long[] ret = new long[set.length];
+        System.arraycopy(set, 0, ret, 0, set.length);
         return ret;
     }
 
-    public static void clear(int[] s) {
+    public static void clear(long[] s) {
         for (int i=0; i<s.length; i++) {
             s[i] = 0;
         }
     }
 
-    public static boolean isEmpty(int[] set) {
+    public static boolean isEmpty(long[] set) {
         for (int i=0; i<set.length; i++) {
             if (set[i]!=0) {
                 return false;
@@ -40,7 +41,7 @@ public class BitSet {
         return true;
     }
 
-    public static boolean equal(int[] s1, int[] s2) {
+    public static boolean equal(long[] s1, long[] s2) {
         int i = 0;
         for (; i<s1.length && i<s2.length; i++) {
             if (s1[i]!=s2[i]) {
@@ -50,7 +51,7 @@ public class BitSet {
         return i>=s1.length && i>=s2.length;
     }
 
-    public static boolean disjoint(int[] s1, int[] s2) {
+    public static boolean disjoint(long[] s1, long[] s2) {
         int i = 0;
         for (; i<s1.length && i<s2.length; i++) {
             if ((s1[i] & s2[i]) != 0) {
@@ -60,40 +61,39 @@ public class BitSet {
         return i>=s1.length && i>=s2.length;
     }
 
-    public static void union(int[] s1, int[] s2) {
+    public static void union(long[] s1, long[] s2) {
         for (int i=0; i<s1.length; i++) {
             s1[i] |= s2[i];
         }
     }
 
-    public static void intersect(int[] s1, int[] s2) {
+    public static void intersect(long[] s1, long[] s2) {
         for (int i=0; i<s1.length; i++) {
             s1[i] &= s2[i];
         }
     }
 
-    public static boolean addTo(int[] oldBits, int[] newBits) {
+    /** Add the elements of newBits to oldBits, returning true if this
+     *  changes oldBits.  The changes are accumulated in a single word,
+     *  and tested once at the end, rather than word by word.
+     */
+    public static boolean addTo(long[] oldBits, long[] newBits) {
         if (oldBits.length < newBits.length) {
             throw new Error("bitset arguments do not match");
         }
-        int     i       = 0;
-        boolean changed = false;
-        for (; i<newBits.length; i++) {
-            if (newBits[i]!=0) {
-                int bits = oldBits[i] | newBits[i];
-                if (bits != oldBits[i]) {
-                    changed = true;
-                }
-                oldBits[i] = bits;
-            }
+        long diff = 0;
+        for (int i=0; i<newBits.length; i++) {
+            long bits  = oldBits[i] | newBits[i];
+            diff      |= bits ^ oldBits[i];
+            oldBits[i] = bits;
         }
-        return changed;
+        return diff!=0;
     }
 
-    public static boolean addTo(int[] s, int n) {
-        int mask = 1 << (n & BIT_MASK);
-        int pos  = n >> LOG_BITS_PER_WORD;
-        int val  = s[pos] | mask;
+    public static boolean addTo(long[] s, int n) {
+        long mask = 1L << n;
+        int  pos  = n >> LOG_BITS_PER_WORD;
+        long val  = s[pos] | mask;
         if (val!=s[pos]) {
             s[pos] = val;
             return true;
@@ -102,86 +102,92 @@ public class BitSet {
         }
     }
 
-    public static void set(int[] s, int n) {
-        int mask = 1 << (n & BIT_MASK);
-        int pos  = n >> LOG_BITS_PER_WORD;
-        s[pos] |= mask;
+    public static void set(long[] s, int n) {
+        s[n >> LOG_BITS_PER_WORD] |= 1L << n;
     }
 
-    public static boolean get(int[] s, int n) {
-        int mask = 1 << (n & BIT_MASK);
-        int pos  = n >> LOG_BITS_PER_WORD;
-        return (s[pos] & mask)!=0;
+    public static boolean get(long[] s, int n) {
+        return (s[n >> LOG_BITS_PER_WORD] & (1L << n))!=0;
     }
 
-    public static int[] members(int[] s) {
+    /** Return the number of elements in a bitset.
+     */
+    public static int cardinality(long[] s) {
         int count = 0;
         for (int i=0; i<s.length; i++) {
-            if (s[i]!=0) {
-                int val = s[i];
-                for (int j=0; j<BITS_PER_WORD && val!=0; j++) {
-                    if ((val & 1) != 0) {
-                        count++;
-                    }
-                    val >>= 1;
-                }
-            }
+            count += Long.bitCount(s[i]);
         }
+        return count;
+    }
 
-        int[] mems = new int[count];
-        int out    = 0;
-        for (int i=0; i<s.length && out<count; i++) {
-            if (s[i]!=0) {
-                int offset = i << LOG_BITS_PER_WORD;
-                int val    = s[i];
-                for (int j=0; j<BITS_PER_WORD && val!=0; j++) {
-                    if ((val & 1) != 0) {
-                        mems[out++] = offset+j;
-                    }
-                    val >>= 1;
-                }
+    public static int[] members(long[] s) {
+        int[] mems = new int[cardinality(s)];
+        int   out  = 0;
+        for (int i=0; out<mems.length; i++) {
+            long val    = s[i];
+            int  offset = i << LOG_BITS_PER_WORD;
+            while (val!=0) {
+                mems[out++] = offset + Long.numberOfTrailingZeros(val);
+                val        &= val-1;
             }
         }
         return mems;
     }
 
-    public static Interator interator(int[] set, int start) {
+    /** Return the smallest element of a bitset that is at least from,
+     *  or (-1) if there is no such element.  This gives a way to visit
+     *  the elements of a set without allocating an iterator:
+     *
+     *    for (int i=nextMember(s, 0); i>=0; i=nextMember(s, i+1)) ...
+     */
+    public static int nextMember(long[] s, int from) {
+        int pos = from >> LOG_BITS_PER_WORD;
+        if (pos>=s.length) {
+            return (-1);
+        }
+        long word = s[pos] & (-1L << from);
+        while (word==0) {
+            if (++pos>=s.length) {
+                return (-1);
+            }
+            word = s[pos];
+        }
+        return (pos << LOG_BITS_PER_WORD) + Long.numberOfTrailingZeros(word);
+    }
+
+    public static Interator interator(long[] set, int start) {
         return new BitSetInterator(set, start);
     }
 
+    /** An iterator over the elements of a bitset, each increased by a
+     *  fixed offset.  Empty words are skipped, and the position of the
+     *  next element in a word is found using numberOfTrailingZeros.
+     */
     private static class BitSetInterator extends Interator {
-        int[] set;
-        int   pos;
-        int   mask;
-        int   num;
-        int   bitCount;
-        BitSetInterator(int[] set, int start) {
-            this.set = set;
-            this.num = start;
-            pos      = 0;
-            mask     = 1;
-            bitCount = 0;
-        }
-        private void advance() {
-            num++;
-            if (++bitCount == BITS_PER_WORD) {
-                pos++;
-                bitCount = 0;
-                mask     = 1;
-            } else {
-                mask <<= 1;
-            }
+        long[] set;
+        int    start;
+        int    pos;
+        long   word;
+        BitSetInterator(long[] set, int start) {
+            this.set   = set;
+            this.start = start;
+            this.pos   = 0;
+            this.word  = (set.length>0) ? set[0] : 0;
         }
         public int next() {
-            int value = num;
-            advance();
+            int value = start + (pos << LOG_BITS_PER_WORD)
+                              + Long.numberOfTrailingZeros(word);
+            word &= word-1;
             return value;
         }
         public boolean hasNext() {
-            while (pos<set.length && ((set[pos]&mask)==0)) {
-                advance();
+            while (word==0) {
+                if (++pos>=set.length) {
+                    return false;
+                }
+                word = set[pos];
             }
-            return (pos<set.length);
+            return true;
         }
     }
 }
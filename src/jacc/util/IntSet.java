@@ -7,17 +7,39 @@ package jacc.util;
 
 import java.io.PrintWriter;
 
-/** Holds a small set of integers, arranged in increasing numerical order.
+/** Holds a set of integers, arranged in increasing numerical order.
+ *  The elements can be visited without allocating an iterator by using
+ *  at(i) for each position i from 0 to size()-1.
+ *
+ *  Most of the sets that we use have only one or two elements, so the
+ *  representation adapts to the size of the set.  Sets with at most
+ *  INLINE elements are stored directly in the fields e0..e3, with no
+ *  array at all.  Larger sets use a sorted array, and large sets whose
+ *  elements are packed closely together switch to a bitset, together
+ *  with a table of ranks that gives the position of each element.
  */
 public class IntSet {
-    private int[] elems;
-    private int   used;
+    private int    used;            // number of elements in the set
+    private int    e0, e1, e2, e3;  // elements of a small set
+    private int[]  elems;           // sorted elements of a larger set
+    private long[] bits;            // or a bitset for a large dense set,
+                                    // with the value of its first bit
+                                    // held in e0
+    private int[]  rank;            // rank[w] = number of elements in
+                                    // bits[0..w-1]
 
-    private static final int START_SIZE = 1; // must be strictly positive 
+    /** Caches the hash code for the current contents of this set, or
+     *  holds zero if it must be recalculated.  Using a single field
+     *  means that a set can be shared between threads once it has been
+     *  built, even if its hash code has not been calculated.
+     */
+    private int hash;
+
+    private static final int INLINE    = 4;   // sets stored in fields
+    private static final int DENSE_MIN = 16;  // smallest bitset
 
     private IntSet() {
-        elems = new int[START_SIZE];
-        used  = 0;
+        used = 0;
     }
 
     public static IntSet empty() {
@@ -26,9 +48,10 @@ public class IntSet {
 
     public static IntSet singleton(int val) {
         IntSet set = new IntSet();
-        set.add(val);
+        set.e0     = val;
+        set.used   = 1;
         return set;
-    }        
+    }
 
     public int size() {
         return used;
@@ -39,86 +62,334 @@ public class IntSet {
     }
 
     public void clear() {
-        used = 0;
+        used  = 0;
+        e0    = 0;
+        e1    = 0;
+        e2    = 0;
+        e3    = 0;
+        elems = null;
+        bits  = null;
+        rank  = null;
+        hash  = 0;
     }
 
     public int at(int pos) {
-        return elems[pos];
+        if (elems!=null) {
+            return elems[pos];
+        } else if (bits!=null) {
+            return select(pos);
+        }
+        switch (pos) {
+            case 0  : return e0;
+            case 1  : return e1;
+            case 2  : return e2;
+            default : return e3;
+        }
+    }
+
+    /** Set the element at a given position in a small set.
+     */
+    private void setInline(int pos, int val) {
+        switch (pos) {
+            case 0  : e0 = val; break;
+            case 1  : e1 = val; break;
+            case 2  : e2 = val; break;
+            default : e3 = val; break;
+        }
     }
 
     public int[] toArray() {
         int[] result = new int[used];
-        for (int i=0; i<used; i++) {
-            result[i] = elems[i];
+        if (bits!=null) {
+            int i = 0;
+            for (int w=0; w<bits.length; w++) {
+                long word = bits[w];
+                while (word!=0) {
+                    result[i++] = e0 + (w<<6)
+                                + Long.numberOfTrailingZeros(word);
+                    word &= word-1;
+                }
+            }
+        } else {
+            for (int i=0; i<used; i++) {
+                result[i] = at(i);
+            }
         }
         return result;
     }
 
     public boolean contains(int val) {
+        return indexOf(val)>=0;
+    }
+
+    /** Return the position of a given value in this set, or -1 if the
+     *  value is not a member.
+     */
+    public int indexOf(int val) {
+        if (bits!=null) {
+            int off = val - e0;
+            if (off<0 || (off>>6)>=bits.length) {
+                return (-1);
+            }
+            int  w    = off >> 6;
+            long mask = 1L << off;
+            if ((bits[w] & mask)==0) {
+                return (-1);
+            }
+            return rank[w] + Long.bitCount(bits[w] & (mask-1));
+        }
+        int pos = search(val);
+        return (pos>=0) ? pos : (-1);
+    }
+
+    /** Return the position of a given value in a set that is stored in
+     *  fields or in an array.  If the value is not a member, return
+     *  -(p+1), where p is the position at which it belongs.
+     */
+    private int search(int val) {
+        if (elems==null) {
+            for (int i=0; i<used; i++) {
+                int elm = at(i);
+                if (val==elm) {
+                    return i;
+                } else if (val<elm) {
+                    return -(i+1);
+                }
+            }
+            return -(used+1);
+        }
         int lo = 0;                     // searching [lo..hi-1]
         int hi = used;
-        while (lo<hi) {                 
+        while (lo<hi) {
             int mid = (lo+hi)/2;
             int elm = elems[mid];
             if (val==elm) {             // element found!
-                return true;
+                return mid;
             } else if (val < elm) {     // look in [lo..mid-1]
                 hi = mid;
             } else {                    // look in [mid+1..hi-1]
                 lo = mid + 1;
             }
         }
-        return false;
+        return -(lo+1);
+    }
+
+    /** Return the element at a given position in a bitset, using the
+     *  rank table to find the word that contains it.
+     */
+    private int select(int pos) {
+        int lo = 0;                     // last w with rank[w]<=pos
+        int hi = bits.length-1;
+        while (lo<hi) {
+            int mid = (lo+hi+1)/2;
+            if (rank[mid]<=pos) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        long word = bits[lo];
+        for (int n=pos-rank[lo]; n>0; n--) {
+            word &= word-1;
+        }
+        return e0 + (lo<<6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /** Recalculate the rank table for a bitset.
+     */
+    private void calcRanks() {
+        rank      = new int[bits.length];
+        int count = 0;
+        for (int w=0; w<bits.length; w++) {
+            rank[w] = count;
+            count  += Long.bitCount(bits[w]);
+        }
+    }
+
+    /** Test to see if a bitset covering the values in lo..hi would use
+     *  less space, including its rank table, than an array of size
+     *  elements.
+     */
+    private static boolean denseEnough(int size, int lo, int hi) {
+        int words = (hi>>6) - (lo>>6) + 1;
+        return size>=DENSE_MIN && 3*words<=size;
     }
 
     public void add(int val) {
-        int lo = 0;                     // searching [lo..hi-1]
-        int hi = used;
-        while (lo<hi) {                 
-            int mid = (lo+hi)/2;
-            int elm = elems[mid];
-            if (val < elm) {            // look in [lo..mid-1]
-                hi = mid;
-            } else if (val==elm) {      // element found at mid
+        if (bits!=null) {
+            addBit(val);
+            return;
+        }
+        int pos = search(val);
+        if (pos>=0) {                   // element found at pos
+            return;
+        }
+        pos = -(pos+1);                 // new value fits in at pos
+        if (elems==null) {
+            if (used<INLINE) {
+                for (int i=used; i>pos; i--) {
+                    setInline(i, at(i-1));
+                }
+                setInline(pos, val);
+                used++;
+                hash = 0;
                 return;
-            } else {                    // look in [mid+1..hi-1]
-                lo = mid + 1;
             }
+            int[] newElems = new int[2*INLINE];
+            for (int i=0; i<used; i++) {
+                newElems[i] = at(i);
+            }
+            elems = newElems;
+            e0    = 0;
+            e1    = 0;
+            e2    = 0;
+            e3    = 0;
+        }
+        insert(pos, val);
+        if (denseEnough(used, elems[0], elems[used-1])) {
+            bits  = new long[(elems[used-1]>>6) - (elems[0]>>6) + 1];
+            e0    = (elems[0]>>6) << 6;
+            for (int i=0; i<used; i++) {
+                int off = elems[i] - e0;
+                bits[off>>6] |= 1L << off;
+            }
+            elems = null;
+            calcRanks();
         }
-        // new value will fit in at position lo.
+    }
+
+    /** Insert a new value at a given position in the array of elements.
+     */
+    private void insert(int pos, int val) {
         if (used>=elems.length) {
             int[] newElems = new int[elems.length*2];
-            for (int i=0; i<lo; i++) {
-                newElems[i] = elems[i];
-            }
-            newElems[lo] = val;
-            for (int i=lo; i<used; i++) {
-                newElems[i+1] = elems[i];
-            }
+            System.arraycopy(elems, 0, newElems, 0, pos);
+            System.arraycopy(elems, pos, newElems, pos+1, used-pos);
             elems = newElems;
         } else {
-            for (int i=used; i>lo; i--) {
-                elems[i] = elems[i-1];
-            }
-            elems[lo] = val;
+            System.arraycopy(elems, pos, elems, pos+1, used-pos);
         }
+        elems[pos] = val;
         used++;
+        hash = 0;
+    }
+
+    /** Add a value to a set that is stored as a bitset.  If the value
+     *  is outside the range of the bitset, then we either widen the
+     *  bitset or, if the set would no longer be dense enough, go back
+     *  to using an array.
+     */
+    private void addBit(int val) {
+        int off = val - e0;
+        if (off>=0 && (off>>6)<bits.length) {
+            int  w    = off >> 6;
+            long mask = 1L << off;
+            if ((bits[w] & mask)==0) {
+                bits[w] |= mask;
+                for (int i=w+1; i<rank.length; i++) {
+                    rank[i]++;
+                }
+                used++;
+                hash = 0;
+            }
+            return;
+        }
+        int lo = Math.min(e0, val);
+        int hi = Math.max(e0 + (bits.length<<6) - 1, val);
+        if (denseEnough(used+1, lo, hi)) {
+            long[] newBits = new long[(hi>>6) - (lo>>6) + 1];
+            int    newBase = (lo>>6) << 6;
+            System.arraycopy(bits, 0, newBits, (e0-newBase)>>6,
+                             bits.length);
+            off   = val - newBase;
+            bits  = newBits;
+            e0    = newBase;
+            bits[off>>6] |= 1L << off;
+            used++;
+            hash  = 0;
+            calcRanks();
+        } else {
+            int[] newElems = new int[2*used];
+            int   pos      = (val<e0) ? 0 : used;
+            System.arraycopy(toArray(), 0, newElems, 0, used);
+            elems = newElems;
+            bits  = null;
+            rank  = null;
+            e0    = 0;
+            insert(pos, val);
+        }
     }
 
     public boolean equals(IntSet that) {
-        if (this.used == that.used) {
-            for (int i=0; i<used; i++) {
-                if (this.elems[i] != that.elems[i]) {
+        if (this.used!=that.used) {
+            return false;
+        }
+        if (this.hash!=0 && that.hash!=0 && this.hash!=that.hash) {
+            return false;
+        }
+        if (this.elems==null && this.bits==null
+         && that.elems==null && that.bits==null) {
+            return this.e0==that.e0 && this.e1==that.e1
+                && this.e2==that.e2 && this.e3==that.e3;
+        }
+        if (this.bits!=null && that.bits!=null && this.e0==that.e0
+         && this.bits.length==that.bits.length) {
+            for (int w=0; w<bits.length; w++) {
+                if (this.bits[w]!=that.bits[w]) {
                     return false;
                 }
             }
             return true;
         }
-        return false;
+        for (int i=0; i<used; i++) {
+            if (this.at(i)!=that.at(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean equals(Object obj) {
+        return (obj instanceof IntSet) && equals((IntSet)obj);
+    }
+
+    /** Return a hash code that depends only on the elements of this set,
+     *  so that equal sets have equal hash codes, whatever representation
+     *  they use.  The value is cached and only recomputed after the set
+     *  has been modified.
+     */
+    public int hashCode() {
+        int h = hash;
+        if (h==0) {
+            h = used;
+            if (bits!=null) {
+                for (int w=0; w<bits.length; w++) {
+                    long word = bits[w];
+                    while (word!=0) {
+                        int elm = e0 + (w<<6)
+                                + Long.numberOfTrailingZeros(word);
+                        h       = 31*h + elm;
+                        word   &= word-1;
+                    }
+                }
+            } else {
+                for (int i=0; i<used; i++) {
+                    h = 31*h + at(i);
+                }
+            }
+            hash = h;
+        }
+        return h;
     }
 
     public Interator interator() {
-        return new ElemInterator(elems,0,used);
+        if (elems!=null) {
+            return new ElemInterator(elems,0,used);
+        } else if (bits!=null) {
+            return BitSet.interator(bits, e0);
+        } else {
+            return new ElemInterator(toArray());
+        }
     }
 
     public static void main(String[] args) {
@@ -142,7 +413,13 @@ public class IntSet {
             }
             out.print(es.next());
         }
-        out.print("}");             
-        out.println(": used = " + used + ", length = " + elems.length);
+        out.print("}");
+        if (elems!=null) {
+            out.println(": used = " + used + ", length = " + elems.length);
+        } else if (bits!=null) {
+            out.println(": used = " + used + ", words = " + bits.length);
+        } else {
+            out.println(": used = " + used + ", inline");
+        }
     }
 }
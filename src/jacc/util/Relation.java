@@ -0,0 +1,66 @@
+// Copyright (c) Mark P Jones, OGI School of Science & Engineering
+// Subject to conditions of distribution and use; see LICENSE for details
+// 
+
+package jacc.util;
+
+/** Calculation of the closure of a relation over the numbers 0..n-1.
+ *  The relation is given in compressed row form: the numbers that i is
+ *  related to are relData[relStart[i]] through to relData[relStart[i+1]-1].
+ *  The results are held as dense bit matrices, in which each row is a
+ *  bitset (see BitSet).
+ */
+public class Relation {
+
+    private Relation() {}
+
+    /** Return an array whose ith entry is the union of sets[j] for each
+     *  j that can be reached from i in zero or more steps of the given
+     *  relation.  With sets[j] = {j}, for example, this gives the rows
+     *  of the reflexive transitive closure of the relation.
+     *
+     *  Rather than run Warshall's algorithm over the whole matrix, we
+     *  work on the strongly connected components of the relation.  All
+     *  members of a component have the same result, and the components
+     *  are visited so that each one comes after the components that it
+     *  reaches.  So a component's result is the union, a word at a time,
+     *  of the sets for its members and the finished results for the
+     *  components that they reach in one step.  This takes time that is
+     *  proportional to the size of the relation times the number of
+     *  words in each set.
+     */
+    public static long[][] closure(int[] relStart, int[] relData,
+                                   long[][] sets) {
+        int     n      = sets.length;
+        int[][] comps  = SCC.get(relStart, relData, n);
+        int[]   compOf = new int[n];
+        for (int c=0; c<comps.length; c++) {
+            for (int k=0; k<comps[c].length; k++) {
+                compOf[comps[c][k]] = c;
+            }
+        }
+
+        long[][] result = new long[n][];
+        for (int c=0; c<comps.length; c++) {
+            int[]  comp = comps[c];
+            long[] row  = BitSet.copy(sets[comp[0]]);
+            for (int k=1; k<comp.length; k++) {
+                BitSet.union(row, sets[comp[k]]);
+            }
+            for (int k=0; k<comp.length; k++) {
+                int i = comp[k];
+                for (int e=relStart[i]; e<relStart[i+1]; e++) {
+                    int j = relData[e];
+                    if (compOf[j]!=c) {
+                        BitSet.union(row, result[j]);
+                    }
+                }
+            }
+            result[comp[0]] = row;
+            for (int k=1; k<comp.length; k++) {
+                result[comp[k]] = BitSet.copy(row);
+            }
+        }
+        return result;
+    }
+}
@@ -8,77 +8,106 @@ package jacc.util;
 import java.io.PrintWriter;
 
 /** An implementation of the strongly connected components algorithm.
+ *  We use Tarjan's algorithm, which finds all of the components in a
+ *  single depth first search.  The search is written as a loop with its
+ *  own stack of flat int arrays, rather than by recursion, so that long
+ *  chains of dependencies do not overflow the Java stack.
+ *
+ *  The components are returned in the order that they are completed,
+ *  which means that each component appears after all of the components
+ *  that it depends on.  The members of each component are listed in
+ *  decreasing order.
  */
 public class SCC {
-    public static int[][] get(int[][] depends, int[][] revdeps, int size) {
-        return new GetComponents(depends,size,
-                 new ArrangeByFinish(revdeps,size)
-                     .getFinishOrder())
-                   .getComponents();
-    }
-
     public static int[][] get(int[][] depends) {
-        return get(depends, invert(depends), depends.length);
+        return get(depends, depends.length);
     }
 
     public static int[][] get(int[][] depends, int len) {
-        return get(depends, invert(depends, len), len);
-    }
-
-    // A Depth-first search that returns an array of index values,
-    // arranged in decreasing order of finish time.
-
-    private static class ArrangeByFinish extends DepthFirst {
-        private int   dfsNum;
-        private int[] order;
-
-        ArrangeByFinish(int [][] dependencies, int size) {
-            super(new SeqInterator(0,size), dependencies);
-            dfsNum = size;
-            order  = new int[dfsNum];
-        }
-        void doneVisit(int i) {
-            order[--dfsNum] = i;
+        int[] adjStart = new int[len+1];
+        for (int i=0; i<len; i++) {
+            adjStart[i+1] = adjStart[i] + depends[i].length;
         }
-        int[] getFinishOrder() {
-            search();
-            return order;
+        int[] adjData = new int[adjStart[len]];
+        for (int i=0; i<len; i++) {
+            System.arraycopy(depends[i], 0, adjData, adjStart[i],
+                             depends[i].length);
         }
+        return get(adjStart, adjData, len);
     }
 
-    // A depth first search that builds components
-
-    private static class GetComponents extends DepthFirst {
-        private int   numComps;
-        private int[] compNo;
+    /** Calculate the components of a graph with size nodes, in which
+     *  the nodes that i depends on are adjData[adjStart[i]] through to
+     *  adjData[adjStart[i+1]-1].
+     */
+    public static int[][] get(int[] adjStart, int[] adjData, int size) {
+        int[] num      = new int[size];  // visit number+1, 0 if unvisited
+        int[] low      = new int[size];  // lowest num reachable
+        int[] compNo   = new int[size];  // component number, or -1
+        int[] stack    = new int[size];  // nodes not yet in a component
+        int[] path     = new int[size];  // nodes on the current path
+        int[] next     = new int[size];  // next edge for each path node
+        int   count    = 0;
+        int   sp       = 0;
+        int   numComps = 0;
+        for (int i=0; i<size; i++) {
+            compNo[i] = (-1);
+        }
 
-        GetComponents(int [][] dependencies, int size, int[] order) {
-            super(new ElemInterator(order), dependencies);
-            numComps = 0;
-            compNo   = new int[size];
+        for (int root=0; root<size; root++) {
+            if (num[root]!=0) {
+                continue;
+            }
+            int depth    = 0;
+            path[0]      = root;
+            next[0]      = adjStart[root];
+            num[root]    = ++count;
+            low[root]    = count;
+            stack[sp++]  = root;
+            while (depth>=0) {
+                int v = path[depth];
+                if (next[depth]<adjStart[v+1]) {
+                    int w = adjData[next[depth]++];
+                    if (num[w]==0) {            // visit w next
+                        depth++;
+                        path[depth] = w;
+                        next[depth] = adjStart[w];
+                        num[w]      = ++count;
+                        low[w]      = count;
+                        stack[sp++] = w;
+                    } else if (compNo[w]<0 && num[w]<low[v]) {
+                        low[v] = num[w];        // w is still on stack
+                    }
+                } else {                        // finished with v
+                    if (low[v]==num[v]) {
+                        int w;
+                        do {
+                            w         = stack[--sp];
+                            compNo[w] = numComps;
+                        } while (w!=v);
+                        numComps++;
+                    }
+                    if (--depth>=0 && low[v]<low[path[depth]]) {
+                        low[path[depth]] = low[v];
+                    }
+                }
+            }
         }
-        void doneVisit(int i) {
-            compNo[i] = numComps;
+
+        // Collect the members of each component:
+        int[] compSize = new int[numComps];
+        for (int i=0; i<size; i++) {
+            compSize[compNo[i]]++;
         }
-        void doneTree() {
-            numComps++;
+        int[][] comps = new int[numComps][];
+        for (int j=0; j<numComps; j++) {
+            comps[j] = new int[compSize[j]];
         }
-        int[][] getComponents() {
-            search();
-            int[] compSize = new int[numComps];
-            for (int i=0; i<compNo.length; i++) {
-                compSize[compNo[i]]++;
-            }
-            int[][] comps = new int[numComps][];
-            for (int j=0; j<numComps; j++) {
-                comps[j] = new int[compSize[j]];
-            }
-            for (int i=0; i<compNo.length; i++) {
-                int j = compNo[i];
-                comps[j][--compSize[j]] = i;
-            }
-            return comps;
+        for (int i=0; i<size; i++) {
+            int j = compNo[i];
+            comps[j][--compSize[j]] = i;
         }
+        return comps;
     }
 
     public static int[][] invert(int[][] adj) {
@@ -0,0 +1,301 @@
+// Copyright (c) Mark P Jones, OGI School of Science & Engineering
+// Subject to conditions of distribution and use; see LICENSE for details
+// 
+
+package jacc.util;
+
+/** A set of token numbers, drawn from a fixed range 0..numTs-1.  Most
+ *  of the lookahead, first, and follow sets in a typical machine hold
+ *  only a handful of tokens, even in grammars with thousands of them,
+ *  so a set starts out as a sorted array of its elements.  Once it has
+ *  more elements than a bitset for the whole range has words, merging
+ *  two arrays costs more than a word by word union, so the set switches
+ *  to a bitset (see BitSet), and stays that way.  As a result, a set
+ *  uses a bitset exactly when it has more than sparseLimit() elements,
+ *  so two equal sets always have the same representation.
+ */
+public class TokenSet {
+    private int    numTs;
+    private int    size;            // number of elements, if sparse
+    private int[]  elems;           // sorted elements, or null if dense
+    private long[] bits;            // bitset of elements, if dense
+
+    private static final int[] NONE = new int[0];
+
+    /** Construct an empty set of tokens in the range 0..numTs-1.
+     */
+    public TokenSet(int numTs) {
+        this.numTs = numTs;
+        this.elems = NONE;
+    }
+
+    /** Construct a set with the same elements as a given bitset.
+     */
+    public static TokenSet fromBitSet(long[] s, int numTs) {
+        TokenSet set  = new TokenSet(numTs);
+        int      size = BitSet.cardinality(s);
+        if (size>set.sparseLimit()) {
+            set.bits  = BitSet.make(numTs);
+            set.elems = null;
+            System.arraycopy(s, 0, set.bits, 0, set.bits.length);
+        } else if (size>0) {
+            set.elems = BitSet.members(s);
+            set.size  = size;
+        }
+        return set;
+    }
+
+    /** Return the largest number of elements that we store in an array
+     *  before switching to a bitset.
+     */
+    private int sparseLimit() {
+        return Math.max(4, (numTs+63) >> 6);
+    }
+
+    /** Switch to a bitset representation.
+     */
+    private void makeDense() {
+        bits = BitSet.make(numTs);
+        for (int i=0; i<size; i++) {
+            BitSet.set(bits, elems[i]);
+        }
+        elems = null;
+    }
+
+    /** Return the number of elements in this set.
+     */
+    public int size() {
+        return (elems!=null) ? size : BitSet.cardinality(bits);
+    }
+
+    /** Test to see if this set is empty.
+     */
+    public boolean isEmpty() {
+        return (elems!=null) ? (size==0) : BitSet.isEmpty(bits);
+    }
+
+    /** Test to see if this set contains a particular token.
+     */
+    public boolean contains(int t) {
+        return (elems!=null) ? (find(t)>=0) : BitSet.get(bits, t);
+    }
+
+    /** Return the position of t in the sparse array, or, if it is not
+     *  there, -(p+1), where p is the position at which it belongs.
+     */
+    private int find(int t) {
+        int lo = 0;
+        int hi = size-1;
+        while (lo<=hi) {
+            int mid = (lo+hi) >>> 1;
+            int val = elems[mid];
+            if (val<t) {
+                lo = mid+1;
+            } else if (val>t) {
+                hi = mid-1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo+1);
+    }
+
+    /** Add a token to this set, returning true if it was not already
+     *  included.
+     */
+    public boolean add(int t) {
+        if (elems==null) {
+            return BitSet.addTo(bits, t);
+        }
+        int pos = find(t);
+        if (pos>=0) {
+            return false;
+        }
+        pos = -(pos+1);
+        if (size>=sparseLimit()) {
+            makeDense();
+            BitSet.set(bits, t);
+            return true;
+        }
+        if (size==elems.length) {
+            int[] newElems = new int[Math.max(4, 2*size)];
+            System.arraycopy(elems, 0, newElems, 0, pos);
+            System.arraycopy(elems, pos, newElems, pos+1, size-pos);
+            elems = newElems;
+        } else {
+            System.arraycopy(elems, pos, elems, pos+1, size-pos);
+        }
+        elems[pos] = t;
+        size++;
+        return true;
+    }
+
+    /** Add all of the elements of another set to this set, returning
+     *  true if this changes the set.
+     */
+    public boolean addAll(TokenSet that) {
+        if (that.elems==null) {
+            if (elems!=null) {
+                makeDense();
+            }
+            return BitSet.addTo(bits, that.bits);
+        } else if (elems==null) {
+            boolean changed = false;
+            for (int i=0; i<that.size; i++) {
+                if (BitSet.addTo(bits, that.elems[i])) {
+                    changed = true;
+                }
+            }
+            return changed;
+        }
+
+        // Both sets are sparse; count the elements that are missing:
+        int missing = 0;
+        int i       = 0;
+        for (int j=0; j<that.size; j++) {
+            int t = that.elems[j];
+            while (i<size && elems[i]<t) {
+                i++;
+            }
+            if (i>=size || elems[i]!=t) {
+                missing++;
+            }
+        }
+        if (missing==0) {
+            return false;
+        }
+        int newSize = size + missing;
+        if (newSize>sparseLimit()) {
+            makeDense();
+            for (int j=0; j<that.size; j++) {
+                BitSet.set(bits, that.elems[j]);
+            }
+            return true;
+        }
+
+        // Merge the two arrays, working back from the end:
+        int[] newElems = elems;
+        if (newSize>elems.length) {
+            newElems = new int[Math.min(Math.max(newSize, 2*size),
+                                        sparseLimit())];
+        }
+        int k = newSize;
+        int j = that.size-1;
+        i     = size-1;
+        while (j>=0) {
+            int t = that.elems[j];
+            if (i>=0 && elems[i]>t) {
+                newElems[--k] = elems[i--];
+            } else {
+                if (i>=0 && elems[i]==t) {
+                    i--;
+                }
+                newElems[--k] = t;
+                j--;
+            }
+        }
+        if (newElems!=elems) {
+            System.arraycopy(elems, 0, newElems, 0, i+1);
+        }
+        elems = newElems;
+        size  = newSize;
+        return true;
+    }
+
+    /** Add all of the elements of this set to a bitset.
+     */
+    public void unionInto(long[] s) {
+        if (elems==null) {
+            BitSet.union(s, bits);
+        } else {
+            for (int i=0; i<size; i++) {
+                BitSet.set(s, elems[i]);
+            }
+        }
+    }
+
+    /** Return a new bitset holding the elements of this set.
+     */
+    public long[] toBitSet() {
+        long[] s = BitSet.make(numTs);
+        unionInto(s);
+        return s;
+    }
+
+    /** Return an array holding the elements of this set, in increasing
+     *  order.
+     */
+    public int[] toArray() {
+        if (elems==null) {
+            return BitSet.members(bits);
+        }
+        int[] a = new int[size];
+        System.arraycopy(elems, 0, a, 0, size);
+        return a;
+    }
+
+    /** Return the smallest element of this set that is at least t, or
+     *  (-1) if there is no such element.  Used to visit the elements of
+     *  the set in increasing order without allocating an iterator.
+     */
+    public int nextMember(int t) {
+        if (elems==null) {
+            return BitSet.nextMember(bits, t);
+        }
+        int pos = find(t);
+        if (pos<0) {
+            pos = -(pos+1);
+        }
+        return (pos<size) ? elems[pos] : (-1);
+    }
+
+    /** Test to see if this set has the same elements as another.
+     */
+    public boolean equals(TokenSet that) {
+        if (this.elems==null || that.elems==null) {
+            return this.elems==null && that.elems==null
+                && BitSet.equal(this.bits, that.bits);
+        }
+        if (this.size!=that.size) {
+            return false;
+        }
+        for (int i=0; i<size; i++) {
+            if (this.elems[i]!=that.elems[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean equals(Object obj) {
+        return (obj instanceof TokenSet) && equals((TokenSet)obj);
+    }
+
+    /** Return a hash code that depends only on the elements of this set.
+     */
+    public int hashCode() {
+        int h = 0;
+        if (elems==null) {
+            for (int w=0; w<bits.length; w++) {
+                long word = bits[w];
+                h = 31*h + (int)(word ^ (word>>>32));
+            }
+        } else {
+            for (int i=0; i<size; i++) {
+                h = 31*h + elems[i];
+            }
+        }
+        return h;
+    }
+
+    /** Return an iterator for the elements of this set, in increasing
+     *  order.
+     */
+    public Interator interator() {
+        if (elems==null) {
+            return BitSet.interator(bits, 0);
+        } else {
+            return new ElemInterator(elems, 0, size);
+        }
+    }
+}
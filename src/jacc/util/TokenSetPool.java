@@ -0,0 +1,71 @@
+// Copyright (c) Mark P Jones, OGI School of Science & Engineering
+// Subject to conditions of distribution and use; see LICENSE for details
+// 
+
+package jacc.util;
+
+/** A pool of token sets, in which each distinct set of tokens is held
+ *  by a single shared object.  The lookahead sets in a machine are
+ *  often duplicated many times over, so we use a pool to keep just one
+ *  copy of each.  A set that has been added to the pool may be shared,
+ *  and must not be modified afterwards.
+ */
+public class TokenSetPool {
+    private TokenSet[] table  = new TokenSet[64];   // open addressing
+    private int[]      hashes = new int[64];        // hashCode of each
+    private int        used   = 0;
+
+    /** Return the set in this pool that has the same elements as the
+     *  given set, adding the given set to the pool if there is none.
+     */
+    public TokenSet intern(TokenSet set) {
+        int h   = set.hashCode();
+        int idx = find(set, h);
+        if (table[idx]!=null) {
+            return table[idx];
+        }
+        table[idx]  = set;
+        hashes[idx] = h;
+        if (++used > table.length/2) {
+            rehash();
+        }
+        return set;
+    }
+
+    /** Return the number of distinct sets in this pool.
+     */
+    public int size() {
+        return used;
+    }
+
+    /** Find the slot that holds a set equal to the given set, or the
+     *  empty slot where it belongs.
+     */
+    private int find(TokenSet set, int h) {
+        int mask = table.length-1;
+        int idx  = (h ^ (h>>>16)) & mask;
+        while (table[idx]!=null) {
+            if (hashes[idx]==h && table[idx].equals(set)) {
+                break;
+            }
+            idx = (idx+1) & mask;
+        }
+        return idx;
+    }
+
+    /** Double the size of the table.
+     */
+    private void rehash() {
+        TokenSet[] oldTable  = table;
+        int[]      oldHashes = hashes;
+        table  = new TokenSet[2*oldTable.length];
+        hashes = new int[2*oldTable.length];
+        for (int i=0; i<oldTable.length; i++) {
+            if (oldTable[i]!=null) {
+                int idx     = find(oldTable[i], oldHashes[i]);
+                table[idx]  = oldTable[i];
+                hashes[idx] = oldHashes[i];
+            }
+        }
+    }
+}